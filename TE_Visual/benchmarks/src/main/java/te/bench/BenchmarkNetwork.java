@@ -0,0 +1,27 @@
+package te.bench;
+
+import te.CompactGraph;
+import te.GravityModel;
+import te.TopologyGenerator;
+import te.TrafficMatrix;
+
+import java.util.Random;
+
+/** Shared fixture: a generated topology with random weights and a gravity traffic matrix. */
+final class BenchmarkNetwork {
+    // Destinations are capped so 10,000-node runs measure routing, not matrix size
+    static final int MAX_DESTINATIONS = 64;
+    static final int MAX_WEIGHT = 20;
+
+    final CompactGraph graph;
+    final TrafficMatrix demands;
+
+    BenchmarkNetwork(TopologyGenerator.Kind kind, int nodes, long seed) {
+        graph = TopologyGenerator.generate(kind, nodes, seed);
+        Random random = new Random(seed);
+        for (int e = 0; e < graph.edgeCount(); e++) {
+            graph.weight[e] = random.nextInt(MAX_WEIGHT) + 1;
+        }
+        demands = GravityModel.generate(graph, GravityModel.demandForLoad(graph, 0.5), MAX_DESTINATIONS, seed);
+    }
+}
@@ -0,0 +1,65 @@
+package te.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import te.CompactGraph;
+import te.CongestionCost;
+import te.EcmpRouting;
+import te.TopologyGenerator;
+
+import java.util.concurrent.TimeUnit;
+
+/** The Phi cost: full evaluation (evaluateNetworkCost) against a delta update of a few links. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CostBenchmark {
+    private static final int CHANGED_LINKS = 16;
+
+    @Param({"WAXMAN", "RING_OF_RINGS", "FAT_TREE"})
+    public TopologyGenerator.Kind topology;
+
+    @Param({"10", "100", "1000", "10000"})
+    public int nodes;
+
+    private CompactGraph graph;
+    private CongestionCost cost;
+    private int[] changed;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkNetwork network = new BenchmarkNetwork(topology, nodes, 42);
+        graph = network.graph;
+        new EcmpRouting(graph, graph.weight, network.demands).computeAll();
+        cost = new CongestionCost(graph);
+        changed = new int[Math.min(CHANGED_LINKS, graph.edgeCount())];
+        for (int i = 0; i < changed.length; i++) {
+            changed[i] = (int) ((long) i * graph.edgeCount() / changed.length);
+        }
+    }
+
+    @Benchmark
+    public double fullEvaluation() {
+        return CongestionCost.evaluate(graph);
+    }
+
+    @Benchmark
+    public double deltaUpdate() {
+        double total = cost.update(changed, changed.length);
+        cost.rollback();
+        return total;
+    }
+}
@@ -0,0 +1,92 @@
+package te.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import te.CompactGraph;
+import te.TopologyFiles;
+import te.TopologyGenerator;
+import te.TopologySnapshot;
+import te.TrafficMatrix;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/** Loading a topology and its traffic matrix: the text files against a binary snapshot. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoaderBenchmark {
+    @Param({"1000", "10000"})
+    public int nodes;
+
+    private Path dir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchmarkNetwork network = new BenchmarkNetwork(TopologyGenerator.Kind.WAXMAN, nodes, 42);
+        CompactGraph graph = network.graph;
+        dir = Files.createTempDirectory("te-loader");
+        try (BufferedWriter costs = Files.newBufferedWriter(dir.resolve("linkcosts.txt"));
+             BufferedWriter capacities = Files.newBufferedWriter(dir.resolve("linkcapacities.txt"))) {
+            for (int e = 0; e < graph.edgeCount(); e++) {
+                costs.write(graph.edgeKey(e) + "," + graph.cost[e] + "\n");
+                capacities.write(graph.edgeKey(e) + "," + graph.capacity[e] + "\n");
+            }
+        }
+        TopologyFiles.writeWeights(dir.resolve("weights.txt").toString(), graph);
+        TrafficMatrix demands = network.demands;
+        try (BufferedWriter traffic = Files.newBufferedWriter(dir.resolve("trafficmatrix.txt"))) {
+            int[] start = demands.destStart();
+            for (int d = 0; d < demands.destinationCount(); d++) {
+                String target = graph.nodeName(demands.destination(d));
+                for (int i = start[d]; i < start[d + 1]; i++) {
+                    traffic.write(graph.nodeName(demands.destSources()[i]) + "-" + target + ","
+                            + demands.destAmounts()[i] + "\n");
+                }
+            }
+        }
+        TopologySnapshot.write(dir.resolve("network.snapshot").toString(), graph, demands);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public TrafficMatrix textFiles() throws IOException {
+        CompactGraph graph = new CompactGraph();
+        TopologyFiles.readLinkCosts(dir.resolve("linkcosts.txt").toString(), graph);
+        TopologyFiles.readWeights(dir.resolve("weights.txt").toString(), graph);
+        TopologyFiles.readLinkCapacities(dir.resolve("linkcapacities.txt").toString(), graph);
+        TrafficMatrix demands = TrafficMatrix.read(dir.resolve("trafficmatrix.txt").toString(), graph);
+        demands.destinationCount();
+        return demands;
+    }
+
+    @Benchmark
+    public TrafficMatrix snapshot() throws IOException {
+        return TopologySnapshot.read(dir.resolve("network.snapshot").toString()).demands();
+    }
+}
@@ -0,0 +1,76 @@
+package te.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import te.CompactGraph;
+import te.CongestionCost;
+import te.EcmpRouting;
+import te.TopologyGenerator;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One optimizeNetworkWeights iteration: probe every weight 1..wmax on a fixed set of
+ * candidate links (like the edges of the start-end path) and return the best Phi.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OptimizerBenchmark {
+    private static final int CANDIDATE_LINKS = 8;
+
+    @Param({"WAXMAN", "RING_OF_RINGS", "FAT_TREE"})
+    public TopologyGenerator.Kind topology;
+
+    @Param({"10", "100", "1000", "10000"})
+    public int nodes;
+
+    private CompactGraph graph;
+    private EcmpRouting routing;
+    private CongestionCost cost;
+    private int[] candidates;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkNetwork network = new BenchmarkNetwork(topology, nodes, 42);
+        graph = network.graph;
+        routing = new EcmpRouting(graph, graph.weight, network.demands);
+        routing.computeAll();
+        cost = new CongestionCost(graph);
+        candidates = new int[Math.min(CANDIDATE_LINKS, graph.edgeCount())];
+        for (int i = 0; i < candidates.length; i++) {
+            candidates[i] = (int) ((long) i * graph.edgeCount() / candidates.length);
+        }
+    }
+
+    @Benchmark
+    public double neighborhoodIteration() {
+        double best = Double.MAX_VALUE;
+        for (int edge : candidates) {
+            int current = (int) graph.weight[edge];
+            for (int w = 1; w <= BenchmarkNetwork.MAX_WEIGHT; w++) {
+                if (w == current) {
+                    continue;
+                }
+                routing.setWeight(edge, w);
+                best = Math.min(best, cost.update(routing.changedEdges(), routing.changedEdgeCount()));
+                cost.rollback();
+                routing.rollback();
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,105 @@
+package te.bench;
+
+import org.graphstream.algorithm.Dijkstra;
+import org.graphstream.graph.Graph;
+import org.graphstream.graph.Path;
+import org.graphstream.graph.implementations.SingleGraph;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import te.CompactGraph;
+import te.EcmpRouting;
+import te.ShortestPathKernel;
+import te.TopologyGenerator;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-source routing as done by calculateWithCustomWeights (GraphStream Dijkstra on the
+ * "weight" attribute) against the compact kernel, with its bucket queue and with the heap,
+ * plus one full ECMP load assignment.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoutingBenchmark {
+    @Param({"WAXMAN", "RING_OF_RINGS", "FAT_TREE"})
+    public TopologyGenerator.Kind topology;
+
+    @Param({"10", "100", "1000", "10000"})
+    public int nodes;
+
+    private CompactGraph graph;
+    private ShortestPathKernel kernel;
+    private ShortestPathKernel heapKernel;
+    private EcmpRouting routing;
+    private Graph view;
+    private double[] dist;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkNetwork network = new BenchmarkNetwork(topology, nodes, 42);
+        graph = network.graph;
+        kernel = new ShortestPathKernel(graph);
+        heapKernel = new ShortestPathKernel(graph);
+        heapKernel.setBucketQueue(false);
+        routing = new EcmpRouting(graph, graph.weight, network.demands);
+        dist = new double[graph.nodeCount()];
+
+        view = new SingleGraph("bench");
+        view.setStrict(false);
+        view.setAutoCreate(true);
+        for (int e = 0; e < graph.edgeCount(); e++) {
+            view.addEdge(graph.edgeKey(e), graph.nodeName(graph.edgeFrom[e]), graph.nodeName(graph.edgeTo[e]), true)
+                    .setAttribute("weight", graph.weight[e]);
+        }
+    }
+
+    private int nextNode() {
+        next = (next + 1) % graph.nodeCount();
+        return next;
+    }
+
+    @Benchmark
+    public Path graphStreamDijkstra() {
+        int source = nextNode();
+        Dijkstra dijkstra = new Dijkstra(Dijkstra.Element.EDGE, null, "weight");
+        dijkstra.init(view);
+        dijkstra.setSource(view.getNode(graph.nodeName(source)));
+        dijkstra.compute();
+        Path path = dijkstra.getPath(view.getNode(graph.nodeName((source + graph.nodeCount() / 2) % graph.nodeCount())));
+        dijkstra.clear();
+        return path;
+    }
+
+    @Benchmark
+    public double[] compactShortestPathTree() {
+        kernel.distancesTo(nextNode(), graph.weight, dist);
+        return dist;
+    }
+
+    @Benchmark
+    public double[] compactHeapShortestPathTree() {
+        heapKernel.distancesTo(nextNode(), graph.weight, dist);
+        return dist;
+    }
+
+    @Benchmark
+    public double[] ecmpLoadAssignment() {
+        routing.computeAll();
+        return graph.load;
+    }
+}
@@ -1,27 +1,73 @@
 import org.graphstream.graph.*;
 import org.graphstream.graph.implementations.*;
-import org.graphstream.algorithm.Dijkstra;
+import org.graphstream.ui.layout.Layout;
+import org.graphstream.ui.layout.Layouts;
 import org.graphstream.ui.view.Viewer;
 import org.graphstream.ui.view.View;
 import org.graphstream.ui.view.camera.Camera;
+import te.CompactGraph;
+import te.EventJournal;
+import te.FailureAnalysis;
+import te.FlowLowerBound;
+import te.FlowSimulator;
+import te.JournalReader;
+import te.LinkStatistics;
+import te.OptimizerCheckpoint;
+import te.PathCache;
+import te.PortfolioOptimizer;
+import te.RobustCost;
+import te.TopologyFiles;
+import te.TrafficMatrix;
+import te.TrafficSeries;
+import te.WeightOptimizer;
+import te.WhatIfSession;
+import te.monitor.ConsoleLog;
+import te.monitor.EngineMetrics;
+import te.view.EdgeRenderer;
+import te.view.JournalReplay;
+import te.view.LevelOfDetail;
+import te.view.NodeLayout;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.Scanner;
-import java.util.stream.Collectors;
 
 public class NetworkVisualizer {
+    private static final double TRANSFER_REPLAY_SECONDS = 10.0;
+    private static final int MAX_VIEW_FPS = 10; // edge labels and colors are redrawn at most this often
+    private static final int TOP_LINKS = 5;
+    private static final int CACHED_SOURCES = 256; // shortest-path trees kept per metric
+    private static final int CRITICAL_ROWS = 20; // rows per table in the failure analysis window
+    private static final String CHECKPOINT_FILE = "optimizer-checkpoint.bin";
+    private static final int BOUND_ITERATIONS = 300; // lower-bound solver iterations before each optimization
+    private static final double TARGET_GAP = 0.05; // the optimizer stops within 5% of the lower bound
+    private static final String LAYOUT_DIR = "layouts"; // finished layouts, one file per topology
+    private static final double LAYOUT_SECONDS = 120.0; // the layout is frozen and saved after this even if still moving
+    private static final int DETAIL_POLL_MS = 250;
+    private static final String JOURNAL_PROPERTY = "te.journal"; // -Dte.journal=FILE records the session
+
     private Graph graph;
-    private Map<String, Double> linkCapacities = new HashMap<>();
+    private final CompactGraph network = new CompactGraph();
+    private Edge[] edgeViews = new Edge[0]; // GraphStream edge for each compact edge id
+    private TrafficMatrix demands = new TrafficMatrix(0);
+    private TrafficSeries trafficSeries; // optional day of matrices; the optimizer then scores the worst one
+    private EdgeRenderer renderer;
+    private LinkStatistics statistics;
+    private PathCache costPaths;
+    private PathCache weightPaths;
+    private WhatIfSession whatIf;
+    private EventJournal journal; // null unless the session is being recorded
+    private final Map<String, JTextField> weightFields = new HashMap<>();
+    private final Map<String, JTextField> capacityFields = new HashMap<>();
     private Scanner scanner = new Scanner(System.in);
 
     public NetworkVisualizer() {
@@ -47,6 +93,10 @@ public class NetworkVisualizer {
                         "   text-alignment: along; " +
                         "   text-offset: 5px; " +
                         "   arrow-size: 10px; " +
+                        "} " +
+                        "node.cluster { " +
+                        "   size: 40px; " +
+                        "   fill-color: gray; " +
                         "} ";
 
         System.setProperty("org.graphstream.ui", "swing");
@@ -57,134 +107,166 @@ public class NetworkVisualizer {
     }
 
     public void readLinkCosts(String filePath) throws IOException {
-        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] parts = line.split(",");
-                if (parts.length == 2) {
-                    String[] nodes = parts[0].trim().split("-");
-                    if (nodes.length == 2) {
-                        String node1 = nodes[0].trim();
-                        String node2 = nodes[1].trim();
-                        double cost = Double.parseDouble(parts[1].trim());
-
-                        if (graph.getNode(node1) == null) {
-                            Node n1 = graph.addNode(node1);
-                            n1.setAttribute("ui.label", node1);
-                        }
-                        if (graph.getNode(node2) == null) {
-                            Node n2 = graph.addNode(node2);
-                            n2.setAttribute("ui.label", node2);
-                        }
-
-                        String edgeId = node1 + "-" + node2;
-                        Edge e = graph.addEdge(edgeId, node1, node2, true);
-                        e.setAttribute("linkcost", cost);
-                        e.setAttribute("load", 0.0); // Initialize load to 0
-                        updateEdgeLabel(e);
-                    }
-                }
-            }
+        try {
+            TopologyFiles.readLinkCosts(filePath, network);
         } catch (IOException e) {
             e.printStackTrace();
             throw e;
         }
+        for (int id = 0; id < network.edgeCount(); id++) {
+            addEdgeView(id);
+        }
     }
 
     public void readWeights(String filePath) throws IOException {
-        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] parts = line.split(",");
-                if (parts.length == 2) {
-                    String[] nodes = parts[0].trim().split("-");
-                    if (nodes.length == 2) {
-                        String node1 = nodes[0].trim();
-                        String node2 = nodes[1].trim();
-                        double weight = Double.parseDouble(parts[1].trim());
-
-                        String edgeId = node1 + "-" + node2;
-                        Edge e = graph.getEdge(edgeId);
-                        if (e != null) {
-                            e.setAttribute("weight", weight);
-                            updateEdgeLabel(e);
-                        } else {
-                            System.out.println("Edge " + edgeId + " not found for weight.");
-                        }
-                    }
-                }
-            }
+        try {
+            TopologyFiles.readWeights(filePath, network);
         } catch (IOException e) {
             e.printStackTrace();
             throw e;
         }
     }
 
-    private void updateEdgeLabel(Edge e) {
-        double cost = e.getAttribute("linkcost") != null ? (double) e.getAttribute("linkcost") : 0.0;
-        double weight = e.getAttribute("weight") != null ? (double) e.getAttribute("weight") : 0.0;
-        double load = e.getAttribute("load") != null ? (double) e.getAttribute("load") : 0.0;
-
-        // Calculate load as a percentage of capacity
-        double capacity = linkCapacities.getOrDefault(e.getId(), 0.0);
-        double loadPercentage = (capacity > 0) ? (load / capacity) * 100 : 0;
-
-        // Set edge color based on load percentage
-        String color;
-        if (loadPercentage > 75) {
-            color = "red";
-        } else if (loadPercentage > 50) {
-            color = "orange";
-        } else {
-            color = "green";
+    // Creates the GraphStream view of a compact edge (and its endpoints if needed)
+    private void addEdgeView(int id) {
+        String node1 = network.nodeName(network.edgeFrom[id]);
+        String node2 = network.nodeName(network.edgeTo[id]);
+        if (graph.getNode(node1) == null) {
+            Node n1 = graph.addNode(node1);
+            n1.setAttribute("ui.label", node1);
+        }
+        if (graph.getNode(node2) == null) {
+            Node n2 = graph.addNode(node2);
+            n2.setAttribute("ui.label", node2);
+        }
+        if (id >= edgeViews.length) {
+            edgeViews = Arrays.copyOf(edgeViews, Math.max(16, id * 2));
+        }
+        if (edgeViews[id] == null) {
+            edgeViews[id] = graph.addEdge(network.edgeKey(id), node1, node2, true);
         }
-
-        e.setAttribute("ui.style", "fill-color: " + color + ";");
-
-        String label = String.format("Link Cost: %.2f | Weight: %.2f | Load: %.2f%%", cost, weight, loadPercentage);
-        e.setAttribute("ui.label", label);
     }
 
     public void readLinkCapacities(String filePath) throws IOException {
-        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] parts = line.split(",");
-                if (parts.length != 2) {
-                    System.out.println("Skipping invalid line: " + line);
-                    continue;
-                }
-                String[] nodes = parts[0].split("-");
-                if (nodes.length != 2) {
-                    System.out.println("Invalid edge format: " + line);
-                    continue;
-                }
-                try {
-                    String edgeKey = nodes[0].trim() + "-" + nodes[1].trim();
-                    double capacityValue = Double.parseDouble(parts[1].trim());
-                    linkCapacities.put(edgeKey, capacityValue);
-                } catch (NumberFormatException e) {
-                    System.out.println("Invalid capacity value: " + line);
-                }
-            }
+        try {
+            TopologyFiles.readLinkCapacities(filePath, network);
         } catch (IOException e) {
             e.printStackTrace();
             throw e;
         }
     }
 
+    public void readTrafficMatrix(String filePath) throws IOException {
+        if (!Files.exists(Paths.get(filePath))) {
+            System.out.println("No traffic matrix found at " + filePath + ", optimization will see no demand.");
+            demands = new TrafficMatrix(network.nodeCount());
+            return;
+        }
+        demands = TrafficMatrix.read(filePath, network);
+    }
+
+    public void readTrafficSeries(String dirPath) throws IOException {
+        if (!Files.isDirectory(Paths.get(dirPath))) {
+            return;
+        }
+        trafficSeries = TrafficSeries.read(dirPath, network);
+        System.out.println("Loaded " + trafficSeries.matrixCount() + " traffic matrices from " + dirPath
+                + ", optimization will minimize the worst-case Phi.");
+    }
+
     public void display() {
-        Viewer viewer = graph.display();
+        // From here on the engines only mark edges dirty; the renderer redraws them in batches
+        renderer = new EdgeRenderer(network, edgeViews, MAX_VIEW_FPS);
+        renderer.flush();
+        renderer.start();
+        statistics = new LinkStatistics(network);
+        costPaths = new PathCache(network, PathCache.Metric.LINK_COST, CACHED_SOURCES);
+        weightPaths = new PathCache(network, PathCache.Metric.WEIGHT, CACHED_SOURCES);
+        whatIf = new WhatIfSession(network, demands);
+        openJournal();
+
+        // A saved layout pins every node, so the force-directed layout only runs for a new topology
+        NodeLayout layout = readLayout();
+        if (layout != null) {
+            layout.applyTo(network, graph);
+        }
+        Viewer viewer = graph.display(false);
         viewer.setCloseFramePolicy(Viewer.CloseFramePolicy.EXIT);
-        viewer.enableAutoLayout();
+        if (layout == null) {
+            computeLayout(viewer);
+        }
 
         // Adjust the view to fit the graph
         fitView(viewer);
 
+        // Labels, idle links and dense regions are dropped as the view zooms out
+        new LevelOfDetail(network, graph, viewer.getGraphicGraph(), viewer.getDefaultView().getCamera(),
+                renderer, DETAIL_POLL_MS).start();
+
         // Create and display the input window
         createInputWindow();
     }
 
+    // Records optimizer moves, what-if edits, transfer loads and Phi for later replay; closed when the JVM exits
+    private void openJournal() {
+        String file = System.getProperty(JOURNAL_PROPERTY);
+        if (file == null) {
+            return;
+        }
+        try {
+            journal = EventJournal.open(file, network);
+            whatIf.setJournal(journal);
+            System.out.println("Recording the session to " + file);
+        } catch (IOException e) {
+            System.out.println("Not recording the session: " + e.getMessage());
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                System.out.println("Journal incomplete: " + e.getMessage());
+            }
+        }));
+    }
+
+    private NodeLayout readLayout() {
+        try {
+            NodeLayout layout = NodeLayout.read(Paths.get(LAYOUT_DIR), network);
+            if (layout != null) {
+                System.out.println("Loaded the saved layout " + NodeLayout.file(Paths.get(LAYOUT_DIR), network));
+            }
+            return layout;
+        } catch (IOException e) {
+            System.out.println("Ignoring the saved layout: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Runs the layout until it settles (or LAYOUT_SECONDS pass), then stops it and saves the positions
+    private void computeLayout(Viewer viewer) {
+        Layout layout = Layouts.newLayoutAlgorithm();
+        viewer.enableAutoLayout(layout);
+        long start = System.nanoTime();
+        Timer settle = new Timer(500, null);
+        settle.addActionListener(event -> {
+            boolean stable = layout.getStabilization() >= layout.getStabilizationLimit();
+            if (!stable && (System.nanoTime() - start) / 1e9 < LAYOUT_SECONDS) {
+                return;
+            }
+            settle.stop();
+            viewer.disableAutoLayout();
+            try {
+                Path file = NodeLayout.capture(network, viewer.getGraphicGraph()).write(Paths.get(LAYOUT_DIR), network);
+                System.out.printf("Layout %s after %.1f s, saved to %s%n", stable ? "settled" : "stopped",
+                        (System.nanoTime() - start) / 1e9, file);
+            } catch (IOException e) {
+                System.out.println("Could not save the layout: " + e.getMessage());
+            }
+        });
+        settle.start();
+    }
+
     private void fitView(Viewer viewer) {
         View view = viewer.getDefaultView();
         Camera camera = view.getCamera();
@@ -198,232 +280,195 @@ public class NetworkVisualizer {
     private JTextArea statisticsArea;
 
     private void calculateWithCustomWeights(String startNode, String endNode, int data) {
-        Dijkstra dijkstra = new Dijkstra(Dijkstra.Element.EDGE, null, "weight");
-        dijkstra.init(graph);
-        dijkstra.setSource(graph.getNode(startNode));
-        dijkstra.compute();
-
-        Path path = dijkstra.getPath(graph.getNode(endNode));
-        if (path == null) {
-            System.out.println("No path found from " + startNode + " to " + endNode);
-            return;
-        }
-
-        System.out.println("Path found: " + path.toString());
-
-        double totalData = data;
-        int cycles = 0;
-        while (totalData > 0) {
-            double minCapacity = Double.MAX_VALUE;
-            for (Edge edge : path.getEdgePath()) {
-                String edgeId = edge.getId();
-                double capacity = linkCapacities.getOrDefault(edgeId, 0.0);
-                if (capacity < minCapacity) {
-                    minCapacity = capacity;
-                }
-            }
-
-            double bps = Math.min(totalData, minCapacity);
-            totalData -= bps;
-
-            // Reset the load for each edge before calculating the new load
-            for (Edge edge : path.getEdgePath()) {
-                edge.setAttribute("load", bps);
-            }
-
-            for (Edge edge : path.getEdgePath()) {
-                updateEdgeLabel(edge);
-                System.out.println("Edge " + edge.getId() + ": Sent " + bps + " Bps");
-            }
-
-            System.out.println("Remaining data: " + totalData + " bytes");
-            cycles++;
-            System.out.println("Elapsed time: " + cycles + " seconds");
-
-            // Repaint the graph view to reflect the changes
-            graph.nodes().forEach(node -> node.setAttribute("ui.label", node.getAttribute("ui.label")));
-            graph.edges().forEach(edge -> edge.setAttribute("ui.label", edge.getAttribute("ui.label")));
-
-            try {
-                Thread.sleep(1000); // Simulate 1 second per cycle
-            } catch (InterruptedException ex) {
-                Thread.currentThread().interrupt();
-            }
+        int[] path = findPath(weightPaths, startNode, endNode);
+        if (path != null) {
+            simulateTransfer(path, data);
         }
-
-        dijkstra.clear();
     }
 
 
     private void calculateAndPrintBpsDijkstra(String startNode, String endNode, int data) {
-        Dijkstra dijkstra = new Dijkstra(Dijkstra.Element.EDGE, null, "linkcost");
-        dijkstra.init(graph);
-        dijkstra.setSource(graph.getNode(startNode));
-        dijkstra.compute();
+        int[] path = findPath(costPaths, startNode, endNode);
+        if (path != null) {
+            simulateTransfer(path, data);
+        }
+    }
 
-        Path path = dijkstra.getPath(graph.getNode(endNode));
+    // Shortest path from the cached tree of startNode; only the first query per source (or
+    // the first after a weight change that affects its tree) runs Dijkstra
+    private int[] findPath(PathCache paths, String startNode, String endNode) {
+        int source = network.nodeId(startNode);
+        int[] path = paths.path(source, network.nodeId(endNode));
         if (path == null) {
             System.out.println("No path found from " + startNode + " to " + endNode);
-            return;
+            return null;
         }
 
-        System.out.println("Path found: " + path.toString());
-
-        double totalData = data;
-        int cycles = 0;
-        while (totalData > 0) {
-            double minCapacity = Double.MAX_VALUE;
-            for (Edge edge : path.getEdgePath()) {
-                String edgeId = edge.getId();
-                double capacity = linkCapacities.getOrDefault(edgeId, 0.0);
-                if (capacity < minCapacity) {
-                    minCapacity = capacity;
-                }
-            }
+        StringBuilder nodes = new StringBuilder("[").append(startNode);
+        for (int id : path) {
+            nodes.append(", ").append(network.nodeName(network.edgeTo[id]));
+        }
+        System.out.println("Path found: " + nodes.append(']'));
+        return path;
+    }
 
-            double bps = Math.min(totalData, minCapacity);
-            totalData -= bps;
+    // Replays a single transfer with the event-driven simulator instead of sleeping one second per cycle
+    private void simulateTransfer(int[] pathEdges, int data) {
+        double minCapacity = Double.MAX_VALUE;
+        for (int id : pathEdges) {
+            minCapacity = Math.min(minCapacity, network.capacityOr(id, 0.0));
+        }
+        if (minCapacity <= 0) {
+            System.out.println("Path has a link without capacity, the transfer cannot progress.");
+            return;
+        }
 
-            // Reset the load for each edge before calculating the new load
-            for (Edge edge : path.getEdgePath()) {
-                edge.setAttribute("load", bps);
+        FlowSimulator simulator = new FlowSimulator(network);
+        simulator.setJournal(journal);
+        int flow = simulator.addFlow(pathEdges, data, 0.0);
+        double duration = data / minCapacity;
+        // Long transfers are sped up so the replay never takes more than TRANSFER_REPLAY_SECONDS
+        simulator.setPacing(Math.max(1.0, duration / TRANSFER_REPLAY_SECONDS));
+        simulator.setTickInterval(Math.max(1.0, duration / 20));
+        simulator.setListener((time, sim) -> {
+            if (ConsoleLog.verbose()) {
+                ConsoleLog.verbose("Remaining data: " + sim.remaining(flow) + " bytes");
+                ConsoleLog.verbose("Elapsed time: " + time + " seconds");
             }
-
-            for (Edge edge : path.getEdgePath()) {
-                updateEdgeLabel(edge);
-                System.out.println("Edge " + edge.getId() + ": Sent " + bps + " Bps");
+            if (statisticsArea != null) {
+                calculateAndDisplayStatistics(statisticsFrame, statisticsArea); // live while the transfer runs
             }
+        });
+        try {
+            simulator.run();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+        }
 
-            System.out.println("Remaining data: " + totalData + " bytes");
-            cycles++;
-            System.out.println("Elapsed time: " + cycles + " seconds");
+        // Leave the transfer rate on the path so the view and the statistics show it
+        double bps = simulator.rate(flow);
+        for (int id : pathEdges) {
+            network.load[id] = bps;
+            network.markDirty(id);
+            if (journal != null) {
+                journal.load(id, bps);
+            }
+            if (ConsoleLog.verbose()) {
+                ConsoleLog.verbose("Edge " + network.edgeKey(id) + ": Sent " + bps + " Bps");
+            }
+        }
+        System.out.println("Transfer done: " + bps + " Bps over " + pathEdges.length + " links"
+                + " (per-link and per-tick output with -Dte.verbose=true)");
+    }
 
-            // Repaint the graph view to reflect the changes
-            graph.nodes().forEach(node -> node.setAttribute("ui.label", node.getAttribute("ui.label")));
-            graph.edges().forEach(edge -> edge.setAttribute("ui.label", edge.getAttribute("ui.label")));
+    private void optimizeNetworkWeights(String startNode, String endNode, boolean resume) {
+        WeightOptimizer optimizer = new WeightOptimizer(network, demands);
+        optimizer.setMaxWeight(20); // Maximum weight value to ensure weights are within a reasonable range
+        optimizer.setIterations(5000);
+        optimizer.setThreads(Runtime.getRuntime().availableProcessors());
+        optimizer.setCheckpoint(CHECKPOINT_FILE, 60);
+        optimizer.setSampleFraction(0.3); // a random 30% of the moves per iteration
+        optimizer.setRestartAfter(300); // perturb after 300 iterations without a better solution
+        optimizer.setJournal(journal);
+        if (trafficSeries != null) {
+            optimizer.setTrafficSeries(trafficSeries, RobustCost.Aggregate.WORST);
+        }
 
+        if (resume && Files.exists(Paths.get(CHECKPOINT_FILE))) {
+            // Continue the saved run on its own links for another 5000 iterations
             try {
-                Thread.sleep(1000); // Simulate 1 second per cycle
-            } catch (InterruptedException ex) {
-                Thread.currentThread().interrupt();
+                OptimizerCheckpoint checkpoint = OptimizerCheckpoint.read(CHECKPOINT_FILE);
+                optimizer.resumeFrom(checkpoint);
+                optimizer.setIterations(checkpoint.iteration() + 5000);
+                network.markAllDirty();
+                System.out.println("Resuming optimization from " + CHECKPOINT_FILE + " at iteration " + checkpoint.iteration());
+                optimizer.optimize(checkpoint.candidateEdges());
+                return;
+            } catch (IOException | IllegalArgumentException e) {
+                System.out.println("Cannot resume from " + CHECKPOINT_FILE + ": " + e.getMessage()
+                        + ", starting from the current weights.");
             }
         }
 
-        dijkstra.clear();
-    }
-
-    private void optimizeNetworkWeights(String startNode, String endNode) {
-        Random random = new Random();
-        int wmax = 20; // Maximum weight value to ensure weights are within a reasonable range
-
-        // Initial solution: set all weights randomly between 1 and wmax
-        graph.edges().forEach(edge -> {
-            int initialWeight = random.nextInt(wmax) + 1; // Random weight between 1 and wmax
-            edge.setAttribute("weight", (double) initialWeight);
-            updateEdgeLabel(edge);
-        });
+        if (!resume) {
+            // Initial solution: set all weights randomly between 1 and wmax
+            optimizer.randomizeWeights();
+            network.markAllDirty();
+        }
 
         // Calculate the shortest path from startNode to endNode using initial weights
-        Dijkstra dijkstra = new Dijkstra(Dijkstra.Element.EDGE, null, "weight");
-        dijkstra.init(graph);
-        dijkstra.setSource(graph.getNode(startNode));
-        dijkstra.compute();
-        Path path = dijkstra.getPath(graph.getNode(endNode));
-
+        int[] path = findPath(weightPaths, startNode, endNode);
         if (path == null) {
-            System.out.println("No path found from " + startNode + " to " + endNode);
             return;
         }
 
-        // Perform local search on the edges in the path
-        for (int iteration = 0; iteration < 5000; iteration++) {
-            Edge bestEdge = null;
-            double bestCost = Double.MAX_VALUE;
-            int bestWeight = 0;
-
-            for (Edge edge : path.getEdgePath()) {
-                int currentWeight = ((Double) edge.getAttribute("weight")).intValue();
-
-                for (int newWeight = 1; newWeight <= wmax; newWeight++) {
-                    if (newWeight == currentWeight) continue;
+        // Stop early once within 5% of the best any routing could do
+        double bound = lowerBound();
+        optimizer.setGapStop(bound, TARGET_GAP);
 
-                    edge.setAttribute("weight", (double) newWeight);
-                    double cost = evaluateNetworkCost();
-
-                    if (cost < bestCost) {
-                        bestCost = cost;
-                        bestEdge = edge;
-                        bestWeight = newWeight;
-                    }
-                }
-
-                edge.setAttribute("weight", (double) currentWeight); // Restore original weight
-            }
+        // Perform local search on the edges in the path; the final rerouting marks every edge dirty
+        double phi = optimizer.optimize(path);
+        System.out.printf("Optimized Phi %.2f, %.1f%% above the lower bound %.2f%n",
+                phi, 100 * FlowLowerBound.gap(phi, bound), bound);
+    }
 
-            if (bestEdge != null) {
-                bestEdge.setAttribute("weight", (double) bestWeight);
-                updateEdgeLabel(bestEdge);
-            }
+    private double lowerBound() {
+        if (trafficSeries != null) {
+            return FlowLowerBound.of(network, trafficSeries, RobustCost.Aggregate.WORST, BOUND_ITERATIONS);
         }
+        FlowLowerBound solver = new FlowLowerBound(network, demands);
+        solver.setMaxIterations(BOUND_ITERATIONS);
+        return solver.solve();
     }
 
-    private double evaluateNetworkCost() {
-        double totalCost = 0.0;
-
-        for (Edge edge : graph.edges().collect(Collectors.toList())) {
-            double load = (double) edge.getAttribute("load");
-            double capacity = linkCapacities.getOrDefault(edge.getId(), 1.0);
-            double utilization = load / capacity;
-
-            // Piecewise linear cost function as described in the paper
-            double cost;
-            if (utilization < 1.0 / 3.0) {
-                cost = utilization;
-            } else if (utilization < 2.0 / 3.0) {
-                cost = 3 * utilization - 2.0 / 3.0;
-            } else if (utilization < 9.0 / 10.0) {
-                cost = 10 * utilization - 16.0 / 3.0;
-            } else if (utilization < 1.0) {
-                cost = 70 * utilization - 178.0 / 3.0;
-            } else if (utilization < 11.0 / 10.0) {
-                cost = 500 * utilization - 1468.0 / 3.0;
-            } else {
-                cost = 5000 * utilization - 19468.0 / 3.0;
-            }
-
-            totalCost += cost;
+    // One search per core from different seeds and starts; the best one's weights are kept
+    private void optimizeNetworkPortfolio(String startNode, String endNode) {
+        PortfolioOptimizer portfolio = new PortfolioOptimizer(network, demands);
+        portfolio.setSearches(Runtime.getRuntime().availableProcessors());
+        portfolio.setMaxWeight(20);
+        portfolio.setIterations(5000);
+        portfolio.setSampleFraction(0.3);
+        portfolio.setRestartAfter(300);
+        if (trafficSeries != null) {
+            portfolio.setTrafficSeries(trafficSeries, RobustCost.Aggregate.WORST);
         }
+        int[] path = findPath(weightPaths, startNode, endNode);
+        if (path == null) {
+            return;
+        }
+        double bound = lowerBound();
+        portfolio.setGapStop(bound, TARGET_GAP);
+        double phi = portfolio.optimize(path);
+        long pruned = Arrays.stream(portfolio.outcomes()).filter(o -> o.pruned).count();
+        System.out.printf("Portfolio of %d searches done, best Phi %.2f (%.1f%% above the lower bound), %d stopped early%n",
+                portfolio.outcomes().length, phi, 100 * FlowLowerBound.gap(phi, bound), pruned);
+    }
 
-        return totalCost;
+    private double evaluateNetworkCost() {
+        return statistics.phi();
     }
 
     private void calculateAndDisplayStatistics(JFrame statisticsFrame, JTextArea statisticsArea) {
-        List<Double> loads = graph.edges().map(e -> {
-            double load = e.getAttribute("load") != null ? (double) e.getAttribute("load") : 0.0;
-            double capacity = linkCapacities.getOrDefault(e.getId(), 1.0);
-            return (capacity > 0) ? (load / capacity) * 100 : 0.0; // Convert load to percentage of capacity
-        }).collect(Collectors.toList());
-
-        double totalLoad = loads.stream().mapToDouble(Double::doubleValue).sum();
-        double averageLoad = totalLoad / loads.size();
-        double minLoad = loads.stream().mapToDouble(Double::doubleValue).min().orElse(0.0);
-        double maxLoad = loads.stream().mapToDouble(Double::doubleValue).max().orElse(0.0);
-
-        double totalBps = graph.edges().map(e -> (double) e.getAttribute("load")).mapToDouble(Double::doubleValue).sum();
-        double averageBps = totalBps / loads.size();
-        double minBps = graph.edges().map(e -> (double) e.getAttribute("load")).mapToDouble(Double::doubleValue).min().orElse(0.0);
-        double maxBps = graph.edges().map(e -> (double) e.getAttribute("load")).mapToDouble(Double::doubleValue).max().orElse(0.0);
-
-        StringBuilder statistics = new StringBuilder();
-        statistics.append(String.format("Average Load: %.2f%% (%.2f Bps)\n", averageLoad, averageBps));
-        statistics.append(String.format("Minimum Load: %.2f%% (%.2f Bps)\n", minLoad, minBps));
-        statistics.append(String.format("Maximum Load: %.2f%% (%.2f Bps)\n", maxLoad, maxBps));
-
+        // Maintained incrementally from the edges the engines marked, no pass over all links
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("Average Load: %.2f%% (%.2f Bps)\n", statistics.averageUtilization(), statistics.averageLoad()));
+        text.append(String.format("Minimum Load: %.2f%% (%.2f Bps)\n", statistics.minUtilization(), statistics.minLoad()));
+        text.append(String.format("Maximum Load: %.2f%% (%.2f Bps)\n", statistics.maxUtilization(), statistics.maxLoad()));
+        text.append(String.format("Load p50 / p95 / p99: %.1f%% / %.1f%% / %.1f%%\n",
+                statistics.percentileUtilization(50), statistics.percentileUtilization(95), statistics.percentileUtilization(99)));
+        text.append(String.format("Network Cost (Phi): %.2f\n", evaluateNetworkCost()));
+        text.append("Most loaded links:\n");
+        for (int id : statistics.mostLoaded(TOP_LINKS)) {
+            text.append(String.format("  %s: %.2f%% (%.2f Bps)\n", network.edgeKey(id),
+                    100 * network.load[id] / network.capacityOr(id, 1.0), network.load[id]));
+        }
+        String statisticsText = text.toString();
         // Update the statistics window
         if (statisticsFrame != null && statisticsArea != null) {
-            statisticsArea.setText(statistics.toString());
+            statisticsArea.setText(statisticsText);
         } else {
-            displayStatisticsWindow(statistics.toString());
+            displayStatisticsWindow(statisticsText);
         }
     }
 
@@ -459,7 +504,8 @@ public class NetworkVisualizer {
         JLabel dataLabel = new JLabel("Amount of Data to Transfer (bytes):");
         JTextField dataField = new JTextField();
         JLabel optimizationLabel = new JLabel("Method:");
-        JComboBox<String> optimizationComboBox = new JComboBox<>(new String[]{"Dijkstra", "Optimize Network (Based on Paper)", "Custom Weights"});
+        JComboBox<String> optimizationComboBox = new JComboBox<>(new String[]{"Dijkstra", "Optimize Network (Based on Paper)",
+                "Optimize Network (Resume)", "Optimize Network (Portfolio)", "Custom Weights"});
         JButton calculateButton = new JButton("Calculate");
         JButton exitButton = new JButton("Exit");
 
@@ -497,9 +543,6 @@ public class NetworkVisualizer {
         changeWeightsPanel.add(changeWeightsTitle, BorderLayout.NORTH);
 
         JPanel changeWeightsContent = new JPanel(new GridLayout(0, 4, 10, 10)); // Use 0 for rows to dynamically add rows
-        List<Edge> edges = graph.edges().collect(Collectors.toList());
-        Map<String, JTextField> weightFields = new HashMap<>();
-        Map<String, JTextField> capacityFields = new HashMap<>();
 
         JLabel edgeHeader = new JLabel("Edge");
         JLabel weightHeader = new JLabel("Weight");
@@ -512,10 +555,10 @@ public class NetworkVisualizer {
         changeWeightsContent.add(capacityHeader);
         changeWeightsContent.add(new JLabel("")); // Placeholder for layout
 
-        for (Edge edge : edges) {
-            String edgeId = edge.getId();
-            double currentWeight = edge.getAttribute("weight") != null ? (double) edge.getAttribute("weight") : 0.0;
-            double currentCapacity = linkCapacities.getOrDefault(edgeId, 0.0);
+        for (int id = 0; id < network.edgeCount(); id++) {
+            String edgeId = network.edgeKey(id);
+            double currentWeight = network.weight[id];
+            double currentCapacity = network.capacityOr(id, 0.0);
 
             JLabel edgeLabel = new JLabel(edgeId);
             JTextField weightField = new JTextField(String.valueOf(currentWeight));
@@ -538,6 +581,15 @@ public class NetworkVisualizer {
         JButton applyButton = new JButton("Apply Changes");
         applyButton.setFont(font);
         applyButtonPanel.add(applyButton);
+        JButton undoButton = new JButton("Undo");
+        undoButton.setFont(font);
+        applyButtonPanel.add(undoButton);
+        JButton failureButton = new JButton("Failure Sweep");
+        failureButton.setFont(font);
+        applyButtonPanel.add(failureButton);
+        JButton replayButton = new JButton("Replay Journal");
+        replayButton.setFont(font);
+        applyButtonPanel.add(replayButton);
         changeWeightsPanel.add(applyButtonPanel, BorderLayout.SOUTH);
 
         inputFrame.add(changeWeightsPanel, BorderLayout.CENTER);
@@ -549,11 +601,12 @@ public class NetworkVisualizer {
         calculateButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                // Reset all edge loads to zero
-                List<Edge> edges = graph.edges().collect(Collectors.toList());
-                for (Edge edge : edges) {
-                    edge.setAttribute("load", 0.0);
-                    updateEdgeLabel(edge);
+                // Reset all edge loads to zero; the what-if routing has to start over afterwards
+                network.clearLoads();
+                network.markAllDirty();
+                whatIf.invalidate();
+                if (journal != null) {
+                    journal.snapshot(network);
                 }
 
                 final String startNode = startField.getText().trim();
@@ -584,13 +637,18 @@ public class NetworkVisualizer {
                     new Thread(() -> {
                         String selectedMethod = (String) optimizationComboBox.getSelectedItem();
                         if ("Optimize Network (Based on Paper)".equals(selectedMethod)) {
-                            optimizeNetworkWeights(startNode, endNode);
+                            optimizeNetworkWeights(startNode, endNode, false);
+                        } else if ("Optimize Network (Resume)".equals(selectedMethod)) {
+                            optimizeNetworkWeights(startNode, endNode, true);
+                        } else if ("Optimize Network (Portfolio)".equals(selectedMethod)) {
+                            optimizeNetworkPortfolio(startNode, endNode);
                         } else if ("Dijkstra".equals(selectedMethod)) {
                             calculateAndPrintBpsDijkstra(startNode, endNode, finalData);
                         } else if ("Custom Weights".equals(selectedMethod)) {
                             calculateWithCustomWeights(startNode, endNode, finalData);
                         }
                         calculateAndDisplayStatistics(statisticsFrame, statisticsArea); // Update statistics after calculation
+                        SwingUtilities.invokeLater(() -> refreshEditFields()); // the optimizer may have changed weights
                     }).start();
                 }
             }
@@ -605,41 +663,153 @@ public class NetworkVisualizer {
         });
 
         // Action listener for the apply button in the change weights section
+        // What-if mode: only edited links are applied, and only the demands they affect are rerouted
         applyButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                for (Map.Entry<String, JTextField> entry : weightFields.entrySet()) {
-                    String edgeId = entry.getKey();
-                    JTextField weightField = entry.getValue();
+                long start = System.nanoTime();
+                whatIf.begin();
+                for (int id = 0; id < network.edgeCount(); id++) {
+                    String edgeId = network.edgeKey(id);
+                    JTextField weightField = weightFields.get(edgeId);
                     JTextField capacityField = capacityFields.get(edgeId);
 
+                    // Only changed fields are checked and applied: a link missing from weights.txt
+                    // shows weight 0.0, and a link without capacity shows 0.0, until edited
+                    String weightText = weightField.getText().trim();
+                    String capacityText = capacityField.getText().trim();
                     try {
-                        double newWeight = Double.parseDouble(weightField.getText().trim());
-                        double newCapacity = Double.parseDouble(capacityField.getText().trim());
-                        Edge edge = graph.getEdge(edgeId);
-                        if (edge != null) {
-                            edge.setAttribute("weight", newWeight);
-                            linkCapacities.put(edgeId, newCapacity);
-                            updateEdgeLabel(edge);
+                        if (!weightText.equals(String.valueOf(network.weight[id]))) {
+                            double newWeight = Double.parseDouble(weightText);
+                            if (newWeight != network.weight[id]) {
+                                if (newWeight <= 0) {
+                                    throw new NumberFormatException("Weight must be positive");
+                                }
+                                whatIf.setWeight(id, newWeight);
+                            }
+                        }
+                        double capacity = network.capacityOr(id, 0.0);
+                        if (!capacityText.equals(String.valueOf(capacity))) {
+                            double newCapacity = Double.parseDouble(capacityText);
+                            if (newCapacity != capacity) {
+                                whatIf.setCapacity(id, newCapacity);
+                            }
                         }
                     } catch (NumberFormatException ex) {
                         JOptionPane.showMessageDialog(inputFrame, "Invalid input for edge: " + edgeId, "Input Error", JOptionPane.ERROR_MESSAGE);
                     }
                 }
+                int edits = whatIf.commit();
+                System.out.printf("What-if: %d edits applied in %.1f ms, Phi %.2f%n",
+                        edits, (System.nanoTime() - start) / 1e6, whatIf.phi());
                 calculateAndDisplayStatistics(statisticsFrame, statisticsArea); // Update statistics after changing weights and capacities
             }
         });
 
+        undoButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (!whatIf.undo()) {
+                    System.out.println("Nothing to undo.");
+                    return;
+                }
+                System.out.printf("What-if: undone, Phi %.2f (%d more to undo)%n", whatIf.phi(), whatIf.undoDepth());
+                refreshEditFields();
+                calculateAndDisplayStatistics(statisticsFrame, statisticsArea);
+            }
+        });
+
+        failureButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                // Workers run on copies of the network, so the sweep can run next to the GUI
+                new Thread(() -> analyzeFailures()).start();
+            }
+        });
+
+        replayButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                JFileChooser chooser = new JFileChooser(".");
+                if (chooser.showOpenDialog(inputFrame) == JFileChooser.APPROVE_OPTION) {
+                    replayJournal(chooser.getSelectedFile().getPath());
+                }
+            }
+        });
+
         // Display statistics window when the application starts
         calculateAndDisplayStatistics(null, null);
     }
 
+    // Plays a recorded journal in the view; the network is put back as it was when the player closes
+    private void replayJournal(String file) {
+        JournalReplay replay;
+        double[] weights = network.weight.clone();
+        double[] capacities = network.capacity.clone();
+        double[] loads = network.load.clone();
+        try {
+            replay = new JournalReplay(JournalReader.open(file), network, JournalReplay.DEFAULT_KEYFRAME_EVERY);
+        } catch (IOException | IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(null, "Cannot replay " + file + ": " + e.getMessage(), "Replay",
+                    JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        System.out.printf("Replaying %,d events, a keyframe every %,d%n", replay.recordCount(), replay.keyframeEvery());
+        JFrame player = replay.show("Replay " + Paths.get(file).getFileName());
+        player.addWindowListener(new java.awt.event.WindowAdapter() {
+            @Override
+            public void windowClosed(java.awt.event.WindowEvent e) {
+                System.arraycopy(weights, 0, network.weight, 0, weights.length);
+                System.arraycopy(capacities, 0, network.capacity, 0, capacities.length);
+                System.arraycopy(loads, 0, network.load, 0, loads.length);
+                network.markAllDirty();
+                whatIf.invalidate();
+            }
+        });
+    }
+
+    private void analyzeFailures() {
+        FailureAnalysis analysis = new FailureAnalysis(network, demands);
+        analysis.setThreads(Runtime.getRuntime().availableProcessors());
+        long start = System.nanoTime();
+        FailureAnalysis.Outcome[] links = analysis.sweepLinks();
+        FailureAnalysis.Outcome[] nodes = analysis.sweepNodes();
+        System.out.printf("Evaluated %d link and %d node failures in %.1f s%n",
+                links.length, nodes.length, (System.nanoTime() - start) / 1e9);
+        String text = "Most critical link failures:\n"
+                + FailureAnalysis.table(network, FailureAnalysis.mostCritical(links, CRITICAL_ROWS))
+                + "\nMost critical node failures:\n"
+                + FailureAnalysis.table(network, FailureAnalysis.mostCritical(nodes, CRITICAL_ROWS));
+        SwingUtilities.invokeLater(() -> {
+            JFrame frame = new JFrame("Failure Analysis");
+            frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+            JTextArea area = new JTextArea(text);
+            area.setEditable(false);
+            area.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+            frame.add(new JScrollPane(area), BorderLayout.CENTER);
+            frame.setSize(700, 500);
+            frame.setVisible(true);
+        });
+    }
+
+    // Shows the current weights and capacities in the edit fields
+    private void refreshEditFields() {
+        for (int id = 0; id < network.edgeCount(); id++) {
+            String edgeId = network.edgeKey(id);
+            weightFields.get(edgeId).setText(String.valueOf(network.weight[id]));
+            capacityFields.get(edgeId).setText(String.valueOf(network.capacityOr(id, 0.0)));
+        }
+    }
+
     public static void main(String[] args) {
         NetworkVisualizer visualizer = new NetworkVisualizer();
+        EngineMetrics.register(); // te:type=EngineMetrics, e.g. for JConsole
         try {
             visualizer.readLinkCosts("linkcosts.txt");
             visualizer.readWeights("weights.txt");
             visualizer.readLinkCapacities("linkcapacities.txt");
+            visualizer.readTrafficMatrix("trafficmatrix.txt");
+            visualizer.readTrafficSeries("trafficmatrices");
             visualizer.display();
         } catch (IOException e) {
             System.out.println("Error processing files or running interactive mode: " + e.getMessage());
@@ -0,0 +1,502 @@
+package te;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import te.monitor.EngineMetrics;
+
+/**
+ * Headless entry point for compute nodes and scheduled jobs. Loads the topology files and
+ * a traffic matrix, runs one of the GUI methods against the whole matrix and writes the
+ * resulting weights. Only te classes are used, so no AWT, Swing or GraphStream class is
+ * ever loaded.
+ *
+ * <pre>
+ * java -cp out te.BatchOptimizer --method optimize --dir . --iterations 5000 \
+ *      --threads 32 --seed 42 --progress progress.csv --out optimized-weights.txt
+ * </pre>
+ *
+ * With --matrices DIR every file in DIR is one traffic matrix (e.g. a day of five-minute
+ * snapshots), and weights are scored by the worst or mean Phi over all of them.
+ *
+ * --write-traffic-store FILE saves the traffic matrix, or the --matrices series, as a
+ * MappedTrafficStore (--store-layout sparse|dense, --store-precision float|double), and
+ * --traffic-store FILE routes from such a file through a memory mapping instead of the
+ * heap; a store of several matrices is used as a series.
+ *
+ * Long jobs can be watched over JMX (te:type=EngineMetrics: iterations and SPF runs per
+ * second, best Phi, max utilization, cache hit rate) and profiled with JFR, e.g.
+ * -XX:StartFlightRecording:filename=run.jfr records the te.Move and te.SimulationTick
+ * events; te.Spf and te.CandidateEvaluation are off by default and must be enabled in the
+ * recording settings.
+ *
+ * --method failures sweeps every single-link and single-node failure of the current
+ * weights and prints the --top most critical of each. --protect N makes the optimizer
+ * minimize the worst Phi over the intact network and the N most critical link failures of
+ * its starting weights.
+ *
+ * --checkpoint FILE saves the search state every --checkpoint-every seconds (default 60)
+ * without stalling the search, and --resume FILE continues such a run over the same
+ * candidate links; --iterations still counts from the start of the original run.
+ * --start weights starts from the loaded weights file instead of random weights.
+ *
+ * --sample F scores a random fraction F of the moves per iteration, and --restart-after N
+ * perturbs the weights after N iterations without improvement.
+ *
+ * --method portfolio runs --searches independent searches on virtual threads, each with its
+ * own seed and start, and stops those worse than the best by more than --prune-margin at
+ * the end of every --epoch iterations.
+ *
+ * --gap F first computes a lower bound on the Phi of any routing (FlowLowerBound, at most
+ * --bound-iterations iterations), stops the search once it is within F of it (0.02 = 2%)
+ * and reports the final gap.
+ *
+ * --method worker loads the same files and then serves distributed searches on --port
+ * (default 7411) until killed. --workers HOST:PORT,... makes --method optimize score the
+ * neighborhood on such workers (DistributedSearch); the run is the one a single process
+ * makes with the same seed, and a worker that dies or stays silent for --worker-timeout
+ * seconds is dropped with its share scored locally. Workers listen on the loopback
+ * interface; --bind ADDRESS (e.g. 0.0.0.0) serves other hosts, over a protocol without
+ * authentication, so only on a trusted network.
+ *
+ * --journal FILE records the optimize run in an EventJournal (moves, link loads and Phi per
+ * iteration) that the visualizer can replay.
+ */
+public final class BatchOptimizer {
+    private static final String USAGE =
+            "Usage: te.BatchOptimizer [--method dijkstra|custom|optimize|portfolio|failures|worker] [--dir DIR]\n" +
+                    "  [--costs FILE] [--weights FILE] [--capacities FILE] [--traffic FILE]\n" +
+                    "  [--snapshot FILE] [--write-snapshot FILE]\n" +
+                    "  [--matrices DIR] [--aggregate worst|mean]\n" +
+                    "  [--traffic-store FILE] [--write-traffic-store FILE] [--store-layout sparse|dense]\n" +
+                    "  [--store-precision float|double]\n" +
+                    "  [--iterations N] [--max-weight W] [--threads T] [--seed S]\n" +
+                    "  [--path START END] [--report-every N] [--progress FILE] [--out FILE]\n" +
+                    "  [--top N] [--protect N] [--sample F] [--restart-after N]\n" +
+                    "  [--searches N] [--epoch N] [--prune-margin F] [--gap F] [--bound-iterations N]\n" +
+                    "  [--start random|weights] [--checkpoint FILE] [--checkpoint-every SECONDS] [--resume FILE]\n" +
+                    "  [--port P] [--bind ADDRESS] [--workers HOST:PORT,...] [--worker-timeout SECONDS] [--journal FILE]";
+
+    private BatchOptimizer() {
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> options;
+        try {
+            options = parseOptions(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+        try {
+            System.exit(run(options));
+        } catch (IOException e) {
+            System.err.println("Error processing files: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+            String key = arg.substring(2);
+            if (key.equals("help")) {
+                throw new IllegalArgumentException("");
+            }
+            if (key.equals("path")) {
+                if (i + 2 >= args.length) {
+                    throw new IllegalArgumentException("--path needs START and END");
+                }
+                options.put("path.start", args[++i]);
+                options.put("path.end", args[++i]);
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+            options.put(key, args[++i]);
+        }
+        return options;
+    }
+
+    static int run(Map<String, String> options) throws IOException {
+        EngineMetrics.register();
+        String dir = options.getOrDefault("dir", ".");
+        String method = options.getOrDefault("method", "optimize");
+
+        long loadStart = System.nanoTime();
+        CompactGraph graph;
+        TrafficMatrix demands;
+        if (options.containsKey("snapshot")) {
+            TopologySnapshot snapshot = TopologySnapshot.read(options.get("snapshot"));
+            graph = snapshot.graph();
+            demands = snapshot.demands();
+        } else {
+            graph = new CompactGraph();
+            TopologyFiles.readLinkCosts(resolve(dir, options.getOrDefault("costs", "linkcosts.txt")), graph);
+            String weightsFile = resolve(dir, options.getOrDefault("weights", "weights.txt"));
+            if (Files.exists(Paths.get(weightsFile))) {
+                TopologyFiles.readWeights(weightsFile, graph);
+            }
+            TopologyFiles.readLinkCapacities(resolve(dir, options.getOrDefault("capacities", "linkcapacities.txt")), graph);
+            demands = TrafficMatrix.read(resolve(dir, options.getOrDefault("traffic", "trafficmatrix.txt")), graph);
+        }
+        System.out.printf("Loaded %d nodes, %d links, %d demands in %.1f ms.%n", graph.nodeCount(),
+                graph.edgeCount(), demands.demandCount(), (System.nanoTime() - loadStart) / 1e6);
+        if (options.containsKey("write-snapshot")) {
+            TopologySnapshot.write(options.get("write-snapshot"), graph, demands);
+            System.out.println("Wrote snapshot to " + options.get("write-snapshot"));
+        }
+        TrafficSeries series = null;
+        RobustCost.Aggregate aggregate = RobustCost.Aggregate.WORST;
+        String name = options.getOrDefault("aggregate", "worst");
+        try {
+            aggregate = RobustCost.Aggregate.valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown aggregate: " + name);
+            System.err.println(USAGE);
+            return 2;
+        }
+        if (options.containsKey("matrices")) {
+            long seriesStart = System.nanoTime();
+            series = TrafficSeries.read(options.get("matrices"), graph);
+            System.out.printf("Loaded %d traffic matrices, %d demand pairs in %.1f ms.%n", series.matrixCount(),
+                    series.destStart()[series.destinationCount()], (System.nanoTime() - seriesStart) / 1e6);
+        }
+        if (options.containsKey("write-traffic-store")) {
+            MappedTrafficStore.Layout layout;
+            String layoutName = options.getOrDefault("store-layout", "sparse");
+            String precision = options.getOrDefault("store-precision", "double");
+            try {
+                layout = MappedTrafficStore.Layout.valueOf(layoutName.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Unknown store layout: " + layoutName);
+                System.err.println(USAGE);
+                return 2;
+            }
+            if (!precision.equals("float") && !precision.equals("double")) {
+                System.err.println("Unknown store precision: " + precision);
+                System.err.println(USAGE);
+                return 2;
+            }
+            TrafficSeries stored = series != null ? series : TrafficSeries.of(List.of(demands));
+            MappedTrafficStore.write(options.get("write-traffic-store"), stored, layout, precision.equals("float"));
+            System.out.println("Wrote traffic store to " + options.get("write-traffic-store"));
+        }
+        if (options.containsKey("traffic-store")) {
+            long storeStart = System.nanoTime();
+            MappedTrafficStore store = MappedTrafficStore.open(options.get("traffic-store"));
+            if (store.nodeCount() != graph.nodeCount()) {
+                System.err.println("Traffic store has " + store.nodeCount() + " nodes, the topology "
+                        + graph.nodeCount());
+                return 2;
+            }
+            demands = store.matrix(0);
+            if (store.matrixCount() > 1) {
+                series = store.series();
+            }
+            System.out.printf("Mapped %d traffic matrices, %d demand pairs in %.1f ms.%n", store.matrixCount(),
+                    store.pairCount(), (System.nanoTime() - storeStart) / 1e6);
+        }
+
+        PrintStream progress = options.containsKey("progress")
+                ? new PrintStream(new BufferedOutputStream(new FileOutputStream(options.get("progress"))), false)
+                : System.out;
+        try {
+            switch (method) {
+                case "dijkstra":
+                    report(graph, graph.cost, demands, series, aggregate, progress);
+                    break;
+                case "custom":
+                    report(graph, graph.weight, demands, series, aggregate, progress);
+                    break;
+                case "optimize":
+                    optimize(graph, demands, series, aggregate, options, progress);
+                    break;
+                case "portfolio":
+                    portfolio(graph, demands, series, aggregate, options);
+                    break;
+                case "failures":
+                    failures(graph, demands, options, progress);
+                    break;
+                case "worker":
+                    worker(graph, demands, series, aggregate, options);
+                    break;
+                default:
+                    System.err.println("Unknown method: " + method);
+                    System.err.println(USAGE);
+                    return 2;
+            }
+        } finally {
+            progress.flush();
+            if (progress != System.out) {
+                progress.close();
+            }
+        }
+
+        if (options.containsKey("out")) {
+            TopologyFiles.writeWeights(options.get("out"), graph);
+            System.out.println("Wrote weights to " + options.get("out"));
+        }
+        return 0;
+    }
+
+    private static void report(CompactGraph graph, double[] metric, TrafficMatrix demands, TrafficSeries series,
+                               RobustCost.Aggregate aggregate, PrintStream out) {
+        if (series == null) {
+            new EcmpRouting(graph, metric, demands).computeAll();
+            out.printf("maxUtilization,phi%n%.6f,%.6f%n", CongestionCost.maxUtilization(graph), CongestionCost.evaluate(graph));
+            return;
+        }
+        // One routing for all matrices, then one row per matrix and the aggregate
+        BatchRouting routing = new BatchRouting(graph, metric, series);
+        routing.computeAll();
+        RobustCost cost = new RobustCost(routing, aggregate);
+        out.println("matrix,maxUtilization,phi");
+        for (int k = 0; k < series.matrixCount(); k++) {
+            routing.copyLoads(k, graph.load);
+            out.printf("%d,%.6f,%.6f%n", k, CongestionCost.maxUtilization(graph), cost.phi(k));
+        }
+        routing.copyLoads(cost.worstMatrix(), graph.load);
+        out.printf("%s,%.6f,%.6f%n", aggregate.name().toLowerCase(Locale.ROOT), routing.maxUtilization(), cost.total());
+    }
+
+    private static void optimize(CompactGraph graph, TrafficMatrix demands, TrafficSeries series,
+                                 RobustCost.Aggregate aggregate, Map<String, String> options, PrintStream out)
+            throws IOException {
+        WeightOptimizer optimizer = new WeightOptimizer(graph, demands);
+        if (series != null) {
+            optimizer.setTrafficSeries(series, aggregate);
+        }
+        optimizer.setMaxWeight(intOption(options, "max-weight", 20));
+        optimizer.setIterations(intOption(options, "iterations", 5000));
+        optimizer.setThreads(intOption(options, "threads", Runtime.getRuntime().availableProcessors()));
+        if (options.containsKey("seed")) {
+            optimizer.setSeed(Long.parseLong(options.get("seed")));
+        }
+        optimizer.setSampleFraction(Double.parseDouble(options.getOrDefault("sample", "1")));
+        optimizer.setRestartAfter(intOption(options, "restart-after", 0));
+        if (options.containsKey("workers")) {
+            DistributedSearch distributed;
+            try {
+                distributed = new DistributedSearch(workerAddresses(options.get("workers")));
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                return;
+            }
+            distributed.setTimeout(Double.parseDouble(options.getOrDefault("worker-timeout", "120")));
+            optimizer.setDistributed(distributed);
+        }
+        int reportEvery = Math.max(1, intOption(options, "report-every", 1));
+        out.println("iteration,maxUtilization,phi");
+        optimizer.setProgressListener((iteration, phi, maxUtilization) -> {
+            if (iteration % reportEvery == 0) {
+                out.printf("%d,%.6f,%.6f%n", iteration, maxUtilization, phi);
+            }
+        });
+
+        if (options.containsKey("checkpoint")) {
+            optimizer.setCheckpoint(options.get("checkpoint"),
+                    Double.parseDouble(options.getOrDefault("checkpoint-every", "60")));
+        }
+        OptimizerCheckpoint checkpoint = null;
+        String start = options.getOrDefault("start", "random");
+        if (options.containsKey("resume")) {
+            checkpoint = OptimizerCheckpoint.read(options.get("resume"));
+            try {
+                optimizer.resumeFrom(checkpoint);
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage() + ": " + options.get("resume"));
+                return;
+            }
+            System.out.printf("Resuming at iteration %d, best Phi %.6f%n", checkpoint.iteration(), checkpoint.bestCost());
+        } else if (start.equals("random")) {
+            optimizer.randomizeWeights();
+        } else if (!start.equals("weights")) {
+            System.err.println("Unknown start: " + start);
+            return;
+        }
+        int protect = intOption(options, "protect", 0);
+        if (protect > 0) {
+            FailureAnalysis analysis = new FailureAnalysis(graph, demands);
+            analysis.setThreads(intOption(options, "threads", Runtime.getRuntime().availableProcessors()));
+            int[] critical = FailureAnalysis.criticalLinks(analysis.sweepLinks(), protect);
+            optimizer.setFailureScenarios(critical);
+            System.out.println("Protecting against " + critical.length + " link failures:");
+            for (int e : critical) {
+                System.out.println("  " + graph.edgeKey(e));
+            }
+        }
+        int[] candidates = checkpoint != null ? checkpoint.candidateEdges() : candidateEdges(graph, options);
+        if (candidates == null) {
+            System.err.println("No path found from " + options.get("path.start") + " to " + options.get("path.end"));
+            return;
+        }
+        double bound = Double.NaN;
+        if (options.containsKey("gap")) {
+            bound = lowerBound(graph, demands, series, aggregate, options);
+            optimizer.setGapStop(bound, Double.parseDouble(options.get("gap")));
+        }
+        EventJournal journal = null;
+        if (options.containsKey("journal")) {
+            journal = EventJournal.open(options.get("journal"), graph); // the search records its routed start
+            optimizer.setJournal(journal);
+        }
+        long startTime = System.nanoTime();
+        double phi;
+        try {
+            phi = optimizer.optimize(candidates);
+        } finally {
+            if (journal != null) {
+                journal.close();
+            }
+        }
+        System.out.printf("Best Phi %.6f, max utilization %.6f after %.1f s%n",
+                phi, CongestionCost.maxUtilization(graph), (System.nanoTime() - startTime) / 1e9);
+        reportGap(phi, bound);
+    }
+
+    private static void portfolio(CompactGraph graph, TrafficMatrix demands, TrafficSeries series,
+                                  RobustCost.Aggregate aggregate, Map<String, String> options) {
+        PortfolioOptimizer portfolio = new PortfolioOptimizer(graph, demands);
+        if (series != null) {
+            portfolio.setTrafficSeries(series, aggregate);
+        }
+        portfolio.setSearches(intOption(options, "searches", Runtime.getRuntime().availableProcessors()));
+        portfolio.setMaxWeight(intOption(options, "max-weight", 20));
+        portfolio.setIterations(intOption(options, "iterations", 5000));
+        portfolio.setEpoch(intOption(options, "epoch", 250));
+        portfolio.setPruneMargin(Double.parseDouble(options.getOrDefault("prune-margin", "0.25")));
+        portfolio.setSampleFraction(Double.parseDouble(options.getOrDefault("sample", "1")));
+        portfolio.setRestartAfter(intOption(options, "restart-after", 0));
+        if (options.containsKey("seed")) {
+            portfolio.setSeed(Long.parseLong(options.get("seed")));
+        }
+        int[] candidates = candidateEdges(graph, options);
+        if (candidates == null) {
+            System.err.println("No path found from " + options.get("path.start") + " to " + options.get("path.end"));
+            return;
+        }
+        double bound = Double.NaN;
+        if (options.containsKey("gap")) {
+            bound = lowerBound(graph, demands, series, aggregate, options);
+            portfolio.setGapStop(bound, Double.parseDouble(options.get("gap")));
+        }
+        long start = System.nanoTime();
+        double phi = portfolio.optimize(candidates);
+        System.out.printf("%-6s %-18s %-16s %10s %16s%n", "Search", "Seed", "Start", "Iterations", "Best Phi");
+        for (PortfolioOptimizer.SearchOutcome o : portfolio.outcomes()) {
+            System.out.printf("%-6d %-18s %-16s %10d %16.6f%s%n", o.index, Long.toHexString(o.seed), o.start,
+                    o.iterations, o.bestCost, o.pruned ? "  pruned" : "");
+        }
+        System.out.printf("Best Phi %.6f, max utilization %.6f after %.1f s%n",
+                phi, CongestionCost.maxUtilization(graph), (System.nanoTime() - start) / 1e9);
+        reportGap(phi, bound);
+    }
+
+    // Bound on the Phi (aggregated for a series) of any routing, for the gap stop
+    private static double lowerBound(CompactGraph graph, TrafficMatrix demands, TrafficSeries series,
+                                     RobustCost.Aggregate aggregate, Map<String, String> options) {
+        int iterations = intOption(options, "bound-iterations", 300);
+        long start = System.nanoTime();
+        double bound;
+        if (series == null) {
+            FlowLowerBound solver = new FlowLowerBound(graph, demands);
+            solver.setMaxIterations(iterations);
+            bound = solver.solve();
+        } else {
+            bound = FlowLowerBound.of(graph, series, aggregate, iterations);
+        }
+        System.out.printf("Lower bound on Phi %.6f in %.1f s%n", bound, (System.nanoTime() - start) / 1e9);
+        return bound;
+    }
+
+    private static void reportGap(double phi, double bound) {
+        if (!Double.isNaN(bound)) {
+            System.out.printf("Gap to the lower bound %.2f%%%n", 100 * FlowLowerBound.gap(phi, bound));
+        }
+    }
+
+    private static void failures(CompactGraph graph, TrafficMatrix demands, Map<String, String> options, PrintStream out) {
+        FailureAnalysis analysis = new FailureAnalysis(graph, demands);
+        analysis.setThreads(intOption(options, "threads", Runtime.getRuntime().availableProcessors()));
+        int top = intOption(options, "top", 20);
+        long start = System.nanoTime();
+        FailureAnalysis.Outcome[] links = analysis.sweepLinks();
+        FailureAnalysis.Outcome[] nodes = analysis.sweepNodes();
+        System.out.printf("Evaluated %d link and %d node failures in %.1f s%n",
+                links.length, nodes.length, (System.nanoTime() - start) / 1e9);
+        out.println("Most critical link failures:");
+        out.print(FailureAnalysis.table(graph, FailureAnalysis.mostCritical(links, top)));
+        out.println("Most critical node failures:");
+        out.print(FailureAnalysis.table(graph, FailureAnalysis.mostCritical(nodes, top)));
+    }
+
+    // Serves DistributedSearch coordinators with the loaded problem until the process is killed
+    private static void worker(CompactGraph graph, TrafficMatrix demands, TrafficSeries series,
+                               RobustCost.Aggregate aggregate, Map<String, String> options) throws IOException {
+        WeightOptimizer optimizer = new WeightOptimizer(graph, demands);
+        if (series != null) {
+            optimizer.setTrafficSeries(series, aggregate);
+        }
+        optimizer.setThreads(intOption(options, "threads", Runtime.getRuntime().availableProcessors()));
+        InetAddress bind = options.containsKey("bind")
+                ? InetAddress.getByName(options.get("bind")) : InetAddress.getLoopbackAddress();
+        new SearchWorkerServer(graph, optimizer, bind, intOption(options, "port", 7411)).serve();
+    }
+
+    private static List<InetSocketAddress> workerAddresses(String list) {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String entry : list.split(",")) {
+            int colon = entry.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Worker address needs HOST:PORT: " + entry);
+            }
+            addresses.add(new InetSocketAddress(entry.substring(0, colon).trim(),
+                    Integer.parseInt(entry.substring(colon + 1).trim())));
+        }
+        return addresses;
+    }
+
+    // All links, or only those on the start-end path like the interactive method
+    private static int[] candidateEdges(CompactGraph graph, Map<String, String> options) {
+        if (!options.containsKey("path.start")) {
+            int[] all = new int[graph.edgeCount()];
+            for (int e = 0; e < all.length; e++) {
+                all[e] = e;
+            }
+            return all;
+        }
+        int source = graph.nodeId(options.get("path.start"));
+        int target = graph.nodeId(options.get("path.end"));
+        if (source < 0 || target < 0) {
+            return null;
+        }
+        return new ShortestPathKernel(graph).path(source, target, graph.weight);
+    }
+
+    private static int intOption(Map<String, String> options, String key, int fallback) {
+        String value = options.get(key);
+        return value != null ? Integer.parseInt(value) : fallback;
+    }
+
+    private static String resolve(String dir, String file) {
+        return Paths.get(dir).resolve(file).toString();
+    }
+}
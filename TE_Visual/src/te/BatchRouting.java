@@ -0,0 +1,337 @@
+package te;
+
+import java.util.Arrays;
+
+/**
+ * ECMP load assignment for every matrix of a TrafficSeries at once. The shortest-path DAG
+ * toward a destination and its even split ratios depend only on the weights, so they are
+ * computed once per destination and every node then forwards a vector of K amounts, one
+ * per matrix, instead of a single value. Loads are kept link-major with the matrices
+ * contiguous (load[e * K + k]), so every step of the propagation is a dense loop over K.
+ *
+ * <p>Like EcmpRouting, the distance vectors are kept between calls: {@link #setWeight}
+ * repairs only the destination trees a weight change can affect, withdraws their traffic
+ * from the old DAG and reassigns it on the new one, and {@link #rollback()} undoes it.
+ */
+public final class BatchRouting {
+    // Loads whose net change stays below this (relative) bound are treated as unchanged
+    private static final double LOAD_EPS = 1e-12;
+
+    private final CompactGraph graph;
+    private final double[] metric;
+    private final TrafficSeries series;
+    private final int matrixCount;
+    private final ShortestPathKernel kernel;
+
+    private final double[][] dist; // dist[d][v]: distance from v to destination index d
+    private final double[] load; // load[e * matrixCount + k]
+    private final double[] nodeFlow; // nodeFlow[v * matrixCount + k]
+    private final int[] pending;
+    private final int[] queue;
+    private final double[] unroutedDemand;
+    private boolean computed;
+
+    // Scratch state for incremental updates
+    private final int[] affectedDestinations;
+    private int affectedCount;
+    private final double[] loadDelta;
+    private final boolean[] touched;
+    private final int[] touchedEdges;
+    private int touchedCount;
+    private final int[] changedEdges;
+    private int changedCount;
+
+    // Undo record for the last setWeight()
+    private final double[][] savedDist;
+    private final double[] savedLoad;
+    private final double[] savedUnrouted;
+    private boolean canRollback;
+    private int undoEdge = -1;
+    private double undoWeight;
+
+    /**
+     * @param metric per-edge routing metric, normally graph.weight; values must be positive
+     */
+    public BatchRouting(CompactGraph graph, double[] metric, TrafficSeries series) {
+        this.graph = graph;
+        this.metric = metric;
+        this.series = series;
+        this.matrixCount = series.matrixCount();
+        this.kernel = new ShortestPathKernel(graph);
+        int n = graph.nodeCount();
+        int m = graph.edgeCount();
+        this.dist = new double[series.destinationCount()][n];
+        this.load = new double[Math.multiplyExact(m, matrixCount)];
+        this.nodeFlow = new double[Math.multiplyExact(n, matrixCount)];
+        this.pending = new int[n];
+        this.queue = new int[n];
+        this.unroutedDemand = new double[matrixCount];
+        this.affectedDestinations = new int[dist.length];
+        this.loadDelta = new double[load.length];
+        this.touched = new boolean[m];
+        this.touchedEdges = new int[m];
+        this.changedEdges = new int[m];
+        this.savedDist = new double[dist.length][];
+        this.savedLoad = new double[load.length];
+        this.savedUnrouted = new double[matrixCount];
+    }
+
+    public CompactGraph graph() {
+        return graph;
+    }
+
+    public TrafficSeries series() {
+        return series;
+    }
+
+    public int matrixCount() {
+        return matrixCount;
+    }
+
+    /** Load of edge e under matrix k. */
+    public double load(int e, int k) {
+        return load[e * matrixCount + k];
+    }
+
+    /** All loads, load[e * matrixCount() + k]; read only. */
+    double[] loads() {
+        return load;
+    }
+
+    /** Copies the loads of matrix k into target (e.g. graph.load, to show that matrix). */
+    public void copyLoads(int k, double[] target) {
+        for (int e = 0; e < graph.edgeCount(); e++) {
+            target[e] = load[e * matrixCount + k];
+        }
+    }
+
+    /** Demand of matrix k that could not be routed because its destination is unreachable. */
+    public double unroutedDemand(int k) {
+        return unroutedDemand[k];
+    }
+
+    /** Highest load / capacity over all links and matrices (links without a capacity count as capacity 1). */
+    public double maxUtilization() {
+        double max = 0.0;
+        for (int e = 0; e < graph.edgeCount(); e++) {
+            double capacity = graph.capacityOr(e, 1.0);
+            int base = e * matrixCount;
+            for (int k = 0; k < matrixCount; k++) {
+                max = Math.max(max, load[base + k] / capacity);
+            }
+        }
+        return max;
+    }
+
+    /** Recomputes all shortest-path DAGs and assigns every matrix from scratch. */
+    public void computeAll() {
+        Arrays.fill(load, 0.0);
+        Arrays.fill(unroutedDemand, 0.0);
+        for (int d = 0; d < dist.length; d++) {
+            kernel.distancesTo(series.destination(d), metric, dist[d]);
+            distribute(d, 1.0, load);
+        }
+        computed = true;
+        changedCount = 0;
+        canRollback = false;
+    }
+
+    /**
+     * Changes metric[e] and updates the loads of all matrices incrementally, with the same
+     * destination filter as EcmpRouting.setWeight. Afterwards {@link #changedEdges()} lists
+     * the edges whose load moved in at least one matrix.
+     */
+    public void setWeight(int e, double newWeight) {
+        double oldWeight = metric[e];
+        changedCount = 0;
+        affectedCount = 0;
+        if (!computed) {
+            metric[e] = newWeight;
+            computeAll();
+            return;
+        }
+        canRollback = true;
+        undoEdge = -1;
+        if (newWeight == oldWeight) {
+            return;
+        }
+        undoEdge = e;
+        undoWeight = oldWeight;
+        System.arraycopy(unroutedDemand, 0, savedUnrouted, 0, matrixCount);
+
+        int u = graph.edgeFrom[e];
+        int v = graph.edgeTo[e];
+        boolean increase = newWeight > oldWeight;
+        for (int d = 0; d < dist.length; d++) {
+            double[] distances = dist[d];
+            boolean touches = increase
+                    ? ShortestPathKernel.tight(oldWeight, distances[u], distances[v])
+                    : distances[v] != Double.POSITIVE_INFINITY
+                    && (newWeight + distances[v] < distances[u]
+                    || ShortestPathKernel.tight(newWeight, distances[u], distances[v]));
+            if (touches) {
+                affectedDestinations[affectedCount++] = d;
+            }
+        }
+        if (affectedCount == 0) {
+            metric[e] = newWeight;
+            return;
+        }
+
+        for (int k = 0; k < affectedCount; k++) {
+            distribute(affectedDestinations[k], -1.0, loadDelta);
+        }
+        metric[e] = newWeight;
+        int n = graph.nodeCount();
+        for (int k = 0; k < affectedCount; k++) {
+            int d = affectedDestinations[k];
+            if (savedDist[k] == null) {
+                savedDist[k] = new double[n];
+            }
+            System.arraycopy(dist[d], 0, savedDist[k], 0, n);
+            if (increase) {
+                kernel.repairAfterIncrease(e, metric, dist[d]);
+            } else {
+                kernel.repairAfterDecrease(e, metric, dist[d]);
+            }
+            distribute(d, 1.0, loadDelta);
+        }
+        applyLoadDelta();
+    }
+
+    // Folds loadDelta into the loads of every touched edge, recording the edges with a real change
+    private void applyLoadDelta() {
+        for (int t = 0; t < touchedCount; t++) {
+            int e = touchedEdges[t];
+            touched[e] = false;
+            int base = e * matrixCount;
+            boolean moved = false;
+            for (int k = 0; k < matrixCount; k++) {
+                double delta = loadDelta[base + k];
+                if (Math.abs(delta) > LOAD_EPS * Math.max(1.0, Math.abs(load[base + k]))) {
+                    moved = true;
+                    break;
+                }
+            }
+            if (moved) {
+                int saved = changedCount * matrixCount;
+                System.arraycopy(load, base, savedLoad, saved, matrixCount);
+                for (int k = 0; k < matrixCount; k++) {
+                    load[base + k] += loadDelta[base + k];
+                }
+                changedEdges[changedCount++] = e;
+            }
+            Arrays.fill(loadDelta, base, base + matrixCount, 0.0);
+        }
+        touchedCount = 0;
+    }
+
+    /** Undoes the last {@link #setWeight} exactly; changedEdges() keeps listing the same edges. */
+    public void rollback() {
+        if (!canRollback) {
+            throw new IllegalStateException("No weight change to roll back");
+        }
+        canRollback = false;
+        if (undoEdge < 0) {
+            return; // the last setWeight did not change anything
+        }
+        metric[undoEdge] = undoWeight;
+        for (int k = 0; k < affectedCount; k++) {
+            int d = affectedDestinations[k];
+            double[] repaired = dist[d];
+            dist[d] = savedDist[k];
+            savedDist[k] = repaired;
+        }
+        for (int c = 0; c < changedCount; c++) {
+            System.arraycopy(savedLoad, c * matrixCount, load, changedEdges[c] * matrixCount, matrixCount);
+        }
+        System.arraycopy(savedUnrouted, 0, unroutedDemand, 0, matrixCount);
+    }
+
+    /** Edges whose load changed in the last {@link #setWeight} call, see {@link #changedEdgeCount()}. */
+    public int[] changedEdges() {
+        return changedEdges;
+    }
+
+    public int changedEdgeCount() {
+        return changedCount;
+    }
+
+    private boolean isTight(int e, double[] distances) {
+        return ShortestPathKernel.tight(metric[e], distances[graph.edgeFrom[e]], distances[graph.edgeTo[e]]);
+    }
+
+    /**
+     * Adds (sign = 1) or removes (sign = -1) the loads of every matrix toward destination
+     * index d, following the DAG of dist[d] in topological order (Kahn over the tight edges).
+     * Writes into loadDelta also record the touched edges for applyLoadDelta.
+     */
+    private void distribute(int d, double sign, double[] target) {
+        int n = graph.nodeCount();
+        int m = graph.edgeCount();
+        int width = matrixCount;
+        int[] outStart = graph.outStart();
+        int[] outEdges = graph.outEdges();
+        int[] edgeTo = graph.edgeTo;
+        double[] distances = dist[d];
+        int destination = series.destination(d);
+        boolean track = target == loadDelta;
+
+        Arrays.fill(nodeFlow, 0.0);
+        Arrays.fill(pending, 0, n, 0);
+        series.addDemandsTo(d, nodeFlow);
+        for (int e = 0; e < m; e++) {
+            if (isTight(e, distances)) {
+                pending[edgeTo[e]]++;
+            }
+        }
+
+        int head = 0, tail = 0;
+        for (int v = 0; v < n; v++) {
+            if (pending[v] == 0) {
+                queue[tail++] = v;
+            }
+        }
+        while (head < tail) {
+            int v = queue[head++];
+            if (v == destination) {
+                continue;
+            }
+            int base = v * width;
+            if (distances[v] == Double.POSITIVE_INFINITY) {
+                for (int k = 0; k < width; k++) {
+                    unroutedDemand[k] += sign * nodeFlow[base + k];
+                }
+                continue;
+            }
+            int nextHops = 0;
+            for (int i = outStart[v]; i < outStart[v + 1]; i++) {
+                if (isTight(outEdges[i], distances)) {
+                    nextHops++;
+                }
+            }
+            double split = 1.0 / nextHops;
+            for (int i = outStart[v]; i < outStart[v + 1]; i++) {
+                int e = outEdges[i];
+                if (!isTight(e, distances)) {
+                    continue;
+                }
+                int w = edgeTo[e];
+                int edgeBase = e * width;
+                int nextBase = w * width;
+                for (int k = 0; k < width; k++) {
+                    double share = nodeFlow[base + k] * split;
+                    target[edgeBase + k] += sign * share;
+                    nodeFlow[nextBase + k] += share;
+                }
+                if (track && !touched[e]) {
+                    touched[e] = true;
+                    touchedEdges[touchedCount++] = e;
+                }
+                if (--pending[w] == 0) {
+                    queue[tail++] = w;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package te;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import te.monitor.ConsoleLog;
+
+/**
+ * Writes optimizer checkpoints on a background thread so the search never waits for the
+ * disk. The search hands over an already copied checkpoint; when a write is still running,
+ * newer checkpoints replace the queued one, so at most one write is pending and the file
+ * always ends up with the latest state.
+ */
+final class CheckpointWriter implements AutoCloseable {
+    private final String filePath;
+    private final AtomicReference<OptimizerCheckpoint> pending = new AtomicReference<>();
+    private final ExecutorService thread = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "checkpoint-writer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    CheckpointWriter(String filePath) {
+        this.filePath = filePath;
+    }
+
+    void submit(OptimizerCheckpoint checkpoint) {
+        if (pending.getAndSet(checkpoint) == null) {
+            thread.execute(this::writePending);
+        }
+    }
+
+    private void writePending() {
+        OptimizerCheckpoint checkpoint = pending.getAndSet(null);
+        if (checkpoint == null) {
+            return;
+        }
+        try {
+            checkpoint.write(filePath);
+        } catch (IOException e) {
+            // A failed checkpoint must not stop the search; the next one is tried as usual
+            ConsoleLog.warn("Checkpoint write to " + filePath + " failed: " + e.getMessage());
+        }
+    }
+
+    /** Waits until the last submitted checkpoint is on disk. */
+    @Override
+    public void close() {
+        thread.shutdown();
+        try {
+            thread.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
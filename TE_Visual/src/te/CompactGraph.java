@@ -0,0 +1,383 @@
+package te;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Primitive directed graph used by all routing and optimization code.
+ * Nodes and edges are dense int ids in insertion order; per-edge data lives in
+ * parallel arrays and adjacency is kept in CSR form (built lazily after loading).
+ * The GraphStream graph in NetworkVisualizer is only a view synced from this.
+ */
+public final class CompactGraph {
+    private static final int INITIAL_CAPACITY = 16;
+
+    // Name lookups are only used while loading and for UI input, never in hot loops.
+    // Both indices are built on first use, so a graph restored from a snapshot pays nothing
+    // for them until a name is looked up.
+    private Map<String, Integer> nodeIndex;
+    private EdgeIndex edgeIndex;
+
+    private String[] nodeNames = new String[INITIAL_CAPACITY];
+    private int nodeCount;
+    private int edgeCount;
+
+    public int[] edgeFrom = new int[INITIAL_CAPACITY];
+    public int[] edgeTo = new int[INITIAL_CAPACITY];
+    public double[] weight = new double[INITIAL_CAPACITY];
+    public double[] cost = new double[INITIAL_CAPACITY];
+    public double[] capacity = new double[INITIAL_CAPACITY]; // NaN when no capacity was given
+    public double[] load = new double[INITIAL_CAPACITY];
+
+    // CSR adjacency: out-edges of v are outEdges[outStart[v] .. outStart[v + 1])
+    private int[] outStart;
+    private int[] outEdges;
+    private int[] inStart;
+    private int[] inEdges;
+    private boolean adjacencyValid;
+    private boolean sharedTopology;
+    // Consumers that want to hear about edge changes (view, statistics); never copied
+    private volatile DirtyEdges[] trackers = new DirtyEdges[0];
+
+    public CompactGraph() {
+    }
+
+    /** Graph over existing arrays, used by TopologySnapshot; the arrays are taken, not copied. */
+    CompactGraph(String[] nodeNames, int nodeCount, int[] edgeFrom, int[] edgeTo,
+                 double[] cost, double[] weight, double[] capacity, int edgeCount) {
+        this.nodeNames = nodeNames;
+        this.nodeCount = nodeCount;
+        this.edgeFrom = edgeFrom;
+        this.edgeTo = edgeTo;
+        this.cost = cost;
+        this.weight = weight;
+        this.capacity = capacity;
+        this.load = new double[edgeFrom.length];
+        this.edgeCount = edgeCount;
+    }
+
+    /**
+     * Copy for a search worker: topology, names, link costs and capacities are shared,
+     * weight and load are private so the copy can be rerouted independently. Copies
+     * cannot grow.
+     */
+    public CompactGraph copy() {
+        ensureAdjacency();
+        ensureIndices();
+        CompactGraph copy = new CompactGraph(this);
+        copy.weight = Arrays.copyOf(weight, weight.length);
+        copy.load = Arrays.copyOf(load, load.length);
+        return copy;
+    }
+
+    private CompactGraph(CompactGraph source) {
+        nodeIndex = source.nodeIndex;
+        edgeIndex = source.edgeIndex;
+        nodeNames = source.nodeNames;
+        nodeCount = source.nodeCount;
+        edgeCount = source.edgeCount;
+        edgeFrom = source.edgeFrom;
+        edgeTo = source.edgeTo;
+        cost = source.cost;
+        capacity = source.capacity;
+        outStart = source.outStart;
+        outEdges = source.outEdges;
+        inStart = source.inStart;
+        inEdges = source.inEdges;
+        adjacencyValid = true;
+        sharedTopology = true;
+    }
+
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    public int edgeCount() {
+        return edgeCount;
+    }
+
+    public int addNode(String name) {
+        ensureIndices();
+        Integer existing = nodeIndex.get(name);
+        if (existing != null) {
+            return existing;
+        }
+        checkGrowable();
+        if (nodeCount == nodeNames.length) {
+            nodeNames = Arrays.copyOf(nodeNames, Math.max(INITIAL_CAPACITY, nodeCount * 2));
+        }
+        int id = nodeCount++;
+        nodeNames[id] = name;
+        nodeIndex.put(name, id);
+        adjacencyValid = false;
+        return id;
+    }
+
+    /**
+     * Adds the directed edge "from-to", creating missing endpoints. Adding an edge
+     * that already exists only updates its link cost and returns the existing id. A new
+     * edge has weight 1 until one is set, as GraphStream assumes for a missing weight.
+     */
+    public int addEdge(String from, String to, double linkCost) {
+        int u = nodeId(from);
+        int v = nodeId(to);
+        if (u >= 0 && v >= 0) {
+            int existing = edgeId(u, v);
+            if (existing >= 0) {
+                cost[existing] = linkCost;
+                return existing;
+            }
+        }
+        checkGrowable();
+        return addEdge(addNode(from), addNode(to), linkCost);
+    }
+
+    /** addEdge(String, String, double) for endpoints that already have ids. */
+    public int addEdge(int u, int v, double linkCost) {
+        ensureIndices();
+        int existing = edgeIndex.get(u, v);
+        if (existing >= 0) {
+            cost[existing] = linkCost;
+            return existing;
+        }
+        checkGrowable();
+        if (edgeCount == edgeFrom.length) {
+            grow(Math.max(INITIAL_CAPACITY, edgeCount * 2));
+        }
+        int id = edgeCount++;
+        edgeFrom[id] = u;
+        edgeTo[id] = v;
+        cost[id] = linkCost;
+        weight[id] = 1.0;
+        capacity[id] = Double.NaN;
+        load[id] = 0.0;
+        edgeIndex.put(u, v, id);
+        adjacencyValid = false;
+        return id;
+    }
+
+    private void checkGrowable() {
+        if (sharedTopology) {
+            throw new UnsupportedOperationException("Cannot add nodes or edges to a graph copy");
+        }
+    }
+
+    private void grow(int size) {
+        edgeFrom = Arrays.copyOf(edgeFrom, size);
+        edgeTo = Arrays.copyOf(edgeTo, size);
+        weight = Arrays.copyOf(weight, size);
+        cost = Arrays.copyOf(cost, size);
+        capacity = Arrays.copyOf(capacity, size);
+        load = Arrays.copyOf(load, size);
+    }
+
+    /** Returns the node id for a name, or -1 if the node does not exist. */
+    public int nodeId(String name) {
+        ensureIndices();
+        Integer id = nodeIndex.get(name);
+        return id != null ? id : -1;
+    }
+
+    public String nodeName(int node) {
+        return nodeNames[node];
+    }
+
+    /** Returns the edge id for a "from-to" key, or -1 if the edge does not exist. */
+    public int edgeId(String key) {
+        // Node names never contain '-': the topology files use it as the separator
+        int dash = key.indexOf('-');
+        if (dash < 0) {
+            return -1;
+        }
+        int u = nodeId(key.substring(0, dash));
+        int v = nodeId(key.substring(dash + 1));
+        return u >= 0 && v >= 0 ? edgeId(u, v) : -1;
+    }
+
+    /** Returns the id of the edge u -> v, or -1 if there is none. */
+    public int edgeId(int u, int v) {
+        ensureIndices();
+        return edgeIndex.get(u, v);
+    }
+
+    /** The "from-to" key of an edge, built on demand (keys are not stored per edge). */
+    public String edgeKey(int edge) {
+        return nodeNames[edgeFrom[edge]] + "-" + nodeNames[edgeTo[edge]];
+    }
+
+    public boolean hasCapacity(int edge) {
+        return !Double.isNaN(capacity[edge]);
+    }
+
+    public double capacityOr(int edge, double fallback) {
+        double c = capacity[edge];
+        return Double.isNaN(c) ? fallback : c;
+    }
+
+    public void clearLoads() {
+        Arrays.fill(load, 0, edgeCount, 0.0);
+    }
+
+    public synchronized void addDirtyEdges(DirtyEdges tracker) {
+        DirtyEdges[] current = trackers;
+        DirtyEdges[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = tracker;
+        trackers = next;
+    }
+
+    public synchronized void removeDirtyEdges(DirtyEdges tracker) {
+        DirtyEdges[] current = trackers;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == tracker) {
+                DirtyEdges[] next = Arrays.copyOf(current, current.length - 1);
+                System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+                trackers = next;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Engines call this after committing a change to an edge's weight, capacity or load,
+     * i.e. after the new value is written, so a consumer that drains the mark sees it.
+     */
+    public void markDirty(int edge) {
+        for (DirtyEdges tracker : trackers) {
+            tracker.mark(edge);
+        }
+    }
+
+    public void markAllDirty() {
+        for (DirtyEdges tracker : trackers) {
+            tracker.markAll();
+        }
+    }
+
+    public int[] outStart() {
+        ensureAdjacency();
+        return outStart;
+    }
+
+    public int[] outEdges() {
+        ensureAdjacency();
+        return outEdges;
+    }
+
+    public int[] inStart() {
+        ensureAdjacency();
+        return inStart;
+    }
+
+    public int[] inEdges() {
+        ensureAdjacency();
+        return inEdges;
+    }
+
+    private void ensureIndices() {
+        if (nodeIndex != null) {
+            return;
+        }
+        nodeIndex = new HashMap<>(Math.max(16, nodeCount * 2));
+        for (int v = 0; v < nodeCount; v++) {
+            nodeIndex.put(nodeNames[v], v);
+        }
+        edgeIndex = new EdgeIndex(Math.max(INITIAL_CAPACITY, edgeCount));
+        for (int e = 0; e < edgeCount; e++) {
+            edgeIndex.put(edgeFrom[e], edgeTo[e], e);
+        }
+    }
+
+    private void ensureAdjacency() {
+        if (adjacencyValid) {
+            return;
+        }
+        outStart = new int[nodeCount + 1];
+        inStart = new int[nodeCount + 1];
+        for (int e = 0; e < edgeCount; e++) {
+            outStart[edgeFrom[e] + 1]++;
+            inStart[edgeTo[e] + 1]++;
+        }
+        for (int v = 0; v < nodeCount; v++) {
+            outStart[v + 1] += outStart[v];
+            inStart[v + 1] += inStart[v];
+        }
+        outEdges = new int[edgeCount];
+        inEdges = new int[edgeCount];
+        int[] outFill = Arrays.copyOf(outStart, nodeCount);
+        int[] inFill = Arrays.copyOf(inStart, nodeCount);
+        for (int e = 0; e < edgeCount; e++) {
+            outEdges[outFill[edgeFrom[e]]++] = e;
+            inEdges[inFill[edgeTo[e]]++] = e;
+        }
+        adjacencyValid = true;
+    }
+
+    /** Open-addressing map from the (from, to) pair of an edge to its id; no boxing. */
+    private static final class EdgeIndex {
+        private long[] keys;
+        private int[] ids; // id + 1, 0 marks an empty slot
+        private int size;
+
+        EdgeIndex(int expected) {
+            int slots = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+            keys = new long[slots];
+            ids = new int[slots];
+        }
+
+        int get(int u, int v) {
+            long key = pack(u, v);
+            int mask = keys.length - 1;
+            for (int i = slot(key, mask); ids[i] != 0; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return ids[i] - 1;
+                }
+            }
+            return -1;
+        }
+
+        void put(int u, int v, int id) {
+            if (2 * (size + 1) > keys.length) {
+                rehash(keys.length * 2);
+            }
+            long key = pack(u, v);
+            int mask = keys.length - 1;
+            int i = slot(key, mask);
+            while (ids[i] != 0 && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (ids[i] == 0) {
+                size++;
+            }
+            keys[i] = key;
+            ids[i] = id + 1;
+        }
+
+        private void rehash(int slots) {
+            long[] oldKeys = keys;
+            int[] oldIds = ids;
+            keys = new long[slots];
+            ids = new int[slots];
+            int mask = slots - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldIds[j] != 0) {
+                    int i = slot(oldKeys[j], mask);
+                    while (ids[i] != 0) {
+                        i = (i + 1) & mask;
+                    }
+                    keys[i] = oldKeys[j];
+                    ids[i] = oldIds[j];
+                }
+            }
+        }
+
+        private static long pack(int u, int v) {
+            return ((long) u << 32) | (v & 0xffffffffL);
+        }
+
+        private static int slot(long key, int mask) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package te;
+
+/**
+ * The piecewise-linear congestion cost (Phi) from the Fortz-Thorup paper, kept as per-link
+ * contributions plus a running total. After a routing change only the links listed by
+ * EcmpRouting.changedEdges() are rescored, and the last update can be rolled back so a
+ * trial weight is scored without disturbing the committed state.
+ */
+public final class CongestionCost {
+    // Re-sum the contributions now and then so the running total cannot drift
+    private static final int RESUM_INTERVAL = 4096;
+
+    private final CompactGraph graph;
+    private final double[] contribution;
+    private double total;
+    private int updatesSinceResum;
+
+    // Undo record for the last update()
+    private final int[] undoEdges;
+    private final double[] undoValues;
+    private int undoCount;
+    private double undoTotal;
+    private int undoUpdates;
+    private boolean canRollback;
+
+    public CongestionCost(CompactGraph graph) {
+        this.graph = graph;
+        this.contribution = new double[graph.edgeCount()];
+        this.undoEdges = new int[graph.edgeCount()];
+        this.undoValues = new double[graph.edgeCount()];
+        recomputeAll();
+    }
+
+    /** Piecewise linear cost of one link as a function of its utilization. */
+    public static double phi(double utilization) {
+        if (utilization < 1.0 / 3.0) {
+            return utilization;
+        } else if (utilization < 2.0 / 3.0) {
+            return 3 * utilization - 2.0 / 3.0;
+        } else if (utilization < 9.0 / 10.0) {
+            return 10 * utilization - 16.0 / 3.0;
+        } else if (utilization < 1.0) {
+            return 70 * utilization - 178.0 / 3.0;
+        } else if (utilization < 11.0 / 10.0) {
+            return 500 * utilization - 1468.0 / 3.0;
+        } else {
+            return 5000 * utilization - 16318.0 / 3.0;
+        }
+    }
+
+    /** Right derivative of phi at utilization: the slope of the piece that starts there. */
+    public static double slope(double utilization) {
+        if (utilization < 1.0 / 3.0) {
+            return 1;
+        } else if (utilization < 2.0 / 3.0) {
+            return 3;
+        } else if (utilization < 9.0 / 10.0) {
+            return 10;
+        } else if (utilization < 1.0) {
+            return 70;
+        } else if (utilization < 11.0 / 10.0) {
+            return 500;
+        } else {
+            return 5000;
+        }
+    }
+
+    /** Full Phi of the current loads; links without a capacity count as capacity 1. */
+    public static double evaluate(CompactGraph graph) {
+        double totalCost = 0.0;
+        for (int e = 0; e < graph.edgeCount(); e++) {
+            totalCost += phi(graph.load[e] / graph.capacityOr(e, 1.0));
+        }
+        return totalCost;
+    }
+
+    /** Highest load / capacity over all links (links without a capacity count as capacity 1). */
+    public static double maxUtilization(CompactGraph graph) {
+        double max = 0.0;
+        for (int e = 0; e < graph.edgeCount(); e++) {
+            max = Math.max(max, graph.load[e] / graph.capacityOr(e, 1.0));
+        }
+        return max;
+    }
+
+    public double total() {
+        return total;
+    }
+
+    public double contribution(int edge) {
+        return contribution[edge];
+    }
+
+    public double recomputeAll() {
+        double sum = 0.0;
+        for (int e = 0; e < graph.edgeCount(); e++) {
+            double c = phi(graph.load[e] / graph.capacityOr(e, 1.0));
+            contribution[e] = c;
+            sum += c;
+        }
+        total = sum;
+        updatesSinceResum = 0;
+        canRollback = false;
+        return total;
+    }
+
+    /** Rescores the given links after their load or capacity changed. O(count). */
+    public double update(int[] edges, int count) {
+        undoTotal = total;
+        undoUpdates = updatesSinceResum;
+        undoCount = 0;
+        for (int k = 0; k < count; k++) {
+            int e = edges[k];
+            double c = phi(graph.load[e] / graph.capacityOr(e, 1.0));
+            undoEdges[undoCount] = e;
+            undoValues[undoCount++] = contribution[e];
+            total += c - contribution[e];
+            contribution[e] = c;
+        }
+        canRollback = true;
+        if (++updatesSinceResum >= RESUM_INTERVAL) {
+            resum();
+        }
+        return total;
+    }
+
+    /** Restores the contributions and total from before the last update(). */
+    public void rollback() {
+        if (!canRollback) {
+            throw new IllegalStateException("No cost update to roll back");
+        }
+        for (int k = undoCount - 1; k >= 0; k--) {
+            contribution[undoEdges[k]] = undoValues[k];
+        }
+        total = undoTotal;
+        updatesSinceResum = undoUpdates; // probes must not shift the re-sum schedule
+        canRollback = false;
+    }
+
+    private void resum() {
+        double sum = 0.0;
+        for (int e = 0; e < graph.edgeCount(); e++) {
+            sum += contribution[e];
+        }
+        total = sum;
+        updatesSinceResum = 0;
+    }
+}
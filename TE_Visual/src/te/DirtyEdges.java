@@ -0,0 +1,54 @@
+package te;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free set of edge ids whose state changed since the last drain. Engines mark edges
+ * from their own threads; a single consumer (the view) drains them at its own pace, so
+ * any number of changes to one edge between two drains costs one redraw.
+ */
+public final class DirtyEdges {
+    private final AtomicLongArray words;
+    private final int size;
+
+    public DirtyEdges(int size) {
+        this.size = size;
+        this.words = new AtomicLongArray((size + 63) >>> 6);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void mark(int edge) {
+        int w = edge >>> 6;
+        long bit = 1L << edge;
+        long current = words.get(w);
+        while ((current & bit) == 0 && !words.compareAndSet(w, current, current | bit)) {
+            current = words.get(w);
+        }
+    }
+
+    public void markAll() {
+        for (int w = 0; w < words.length(); w++) {
+            int bits = Math.min(64, size - (w << 6));
+            words.set(w, bits == 64 ? -1L : (1L << bits) - 1);
+        }
+    }
+
+    /** Moves the marked ids into out (sized at least size()) and clears them; returns the count. */
+    public int drain(int[] out) {
+        int count = 0;
+        for (int w = 0; w < words.length(); w++) {
+            if (words.get(w) == 0) {
+                continue;
+            }
+            long bits = words.getAndSet(w, 0L);
+            while (bits != 0) {
+                out[count++] = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+            }
+        }
+        return count;
+    }
+}
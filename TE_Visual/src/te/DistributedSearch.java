@@ -0,0 +1,283 @@
+package te;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import te.monitor.ConsoleLog;
+
+/**
+ * Coordinator side of a WeightOptimizer run whose neighborhood is scored by worker
+ * processes (SearchWorkerServer, e.g. BatchOptimizer --method worker). Every iteration the
+ * move indices are split into one contiguous range per live worker; a worker returns the
+ * best move of its range and the optimizer combines them as it combines its threads, so
+ * the run does not depend on how many workers there are.
+ *
+ * The workers load the topology and traffic themselves and keep it between iterations.
+ * Only the starting weights and the visited set cross the wire once per run; after that
+ * each applied move is sent as a 9-byte weight delta. A worker that fails, times out or
+ * answers out of protocol is dropped, and its range is scored by the coordinator's own
+ * threads for that iteration and split over the survivors after it.
+ *
+ * <pre>
+ * setup     int magic "TEDS", int version, long problem hash, int maxWeight,
+ *           double sampleFraction, int c, int[c] candidate edges, int s, int[s] failure
+ *           scenarios, int m, double[m] weights, int k, k x (int index, long word) non-zero
+ *           words of the visited bitmap
+ *   reply   byte OK and the worker's hash of the weights, or byte ERROR and a UTF message
+ * evaluate  byte 'E', int from, int to, long sampling salt
+ *   reply   int move index (-1 when every move of the range was skipped), double Phi
+ * move      byte 'M', int edge, int weight (no reply)
+ * finish    byte 'F' (no reply; the worker waits for the next coordinator)
+ * </pre>
+ * All values are big-endian.
+ */
+public final class DistributedSearch {
+    static final int MAGIC = 0x54454453; // "TEDS"
+    static final int VERSION = 1;
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+    static final byte EVALUATE = 'E';
+    static final byte MOVE = 'M';
+    static final byte FINISH = 'F';
+
+    /** Scores a range of move indices locally, for ranges no worker could score. */
+    interface RangeSearch {
+        WeightOptimizer.Move best(int from, int to);
+    }
+
+    private final List<InetSocketAddress> addresses;
+    private int timeoutMillis = 120_000;
+    private final List<Link> links = new ArrayList<>();
+
+    public DistributedSearch(List<InetSocketAddress> addresses) {
+        this.addresses = List.copyOf(addresses);
+    }
+
+    /** How long to wait for a worker's answer before dropping it; default 120 s. */
+    public void setTimeout(double seconds) {
+        this.timeoutMillis = (int) Math.max(1, seconds * 1000);
+    }
+
+    /** Workers still taking part in the current run. */
+    public int liveWorkers() {
+        return links.size();
+    }
+
+    /** Identifies the problem a worker must have loaded: topology, capacities and traffic. */
+    static long problemHash(CompactGraph graph, TrafficMatrix demands, TrafficSeries series,
+                            RobustCost.Aggregate aggregate) {
+        long h = OptimizerCheckpoint.fingerprint(graph);
+        for (int e = 0; e < graph.edgeCount(); e++) {
+            h = (h ^ Double.doubleToLongBits(graph.capacity[e])) * 0x100000001b3L;
+        }
+        h = (h ^ demands.demandCount()) * 0x100000001b3L;
+        h = (h ^ Double.doubleToLongBits(demands.totalDemand())) * 0x100000001b3L;
+        if (series != null) {
+            h = (h ^ series.matrixCount()) * 0x100000001b3L;
+            h = (h ^ series.destStart()[series.destinationCount()]) * 0x100000001b3L;
+            h = (h ^ aggregate.ordinal()) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /**
+     * Connects to every worker and hands it the starting state (weights holds exactly one
+     * weight per edge); unreachable or mismatched workers are skipped.
+     */
+    void begin(WeightOptimizer optimizer, int[] candidateEdges, double[] weights, long hash, VisitedSolutions visited) {
+        finish();
+        long problem = optimizer.problemHash();
+        int[] scenarios = optimizer.failureScenarios();
+        for (InetSocketAddress address : addresses) {
+            Link link = null;
+            try {
+                link = new Link(address);
+                DataOutputStream out = link.out;
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(problem);
+                out.writeInt(optimizer.maxWeight());
+                out.writeDouble(optimizer.sampleFraction());
+                writeInts(out, candidateEdges);
+                writeInts(out, scenarios);
+                out.writeInt(weights.length);
+                for (double w : weights) {
+                    out.writeDouble(w);
+                }
+                long[] words = visited.words();
+                int nonZero = 0;
+                for (long word : words) {
+                    nonZero += word != 0 ? 1 : 0;
+                }
+                out.writeInt(nonZero);
+                for (int i = 0; i < words.length; i++) {
+                    if (words[i] != 0) {
+                        out.writeInt(i);
+                        out.writeLong(words[i]);
+                    }
+                }
+                out.flush();
+                if (link.in.readByte() != OK) {
+                    throw new IOException(link.in.readUTF());
+                }
+                if (link.in.readLong() != hash) {
+                    throw new IOException("worker weights differ from the coordinator's");
+                }
+                links.add(link);
+            } catch (IOException e) {
+                ConsoleLog.warn("Worker " + address + " not used: " + reason(e));
+                if (link != null) {
+                    link.close();
+                }
+            }
+        }
+        System.out.println("Distributed search on " + links.size() + " of " + addresses.size() + " workers");
+    }
+
+    /**
+     * Best move of each range, one range per live worker; ranges of workers that fail on
+     * the way are scored by local instead.
+     */
+    List<WeightOptimizer.Move> evaluate(int moveCount, long salt, RangeSearch local) {
+        List<WeightOptimizer.Move> moves = new ArrayList<>(links.size() + 1);
+        if (links.isEmpty()) {
+            moves.add(local.best(0, moveCount));
+            return moves;
+        }
+        int count = links.size();
+        Link[] sent = links.toArray(new Link[0]);
+        int[] from = new int[count];
+        int[] to = new int[count];
+        boolean[] failed = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            from[i] = (int) ((long) moveCount * i / count);
+            to[i] = (int) ((long) moveCount * (i + 1) / count);
+            try {
+                DataOutputStream out = sent[i].out;
+                out.writeByte(EVALUATE);
+                out.writeInt(from[i]);
+                out.writeInt(to[i]);
+                out.writeLong(salt);
+                out.flush();
+            } catch (IOException e) {
+                failed[i] = drop(sent[i], e);
+            }
+        }
+        // All workers score in parallel; the answers are collected in range order
+        for (int i = 0; i < count; i++) {
+            if (failed[i]) {
+                continue;
+            }
+            try {
+                int index = sent[i].in.readInt();
+                double cost = sent[i].in.readDouble();
+                if (index >= to[i] || (index >= 0 ? index < from[i] : index != -1)) {
+                    throw new IOException("move " + index + " outside its range");
+                }
+                moves.add(index >= 0 ? new WeightOptimizer.Move(index, cost) : null);
+            } catch (IOException e) {
+                failed[i] = drop(sent[i], e);
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            if (failed[i]) {
+                moves.add(local.best(from[i], to[i]));
+            }
+        }
+        return moves;
+    }
+
+    /** Sends an applied move to every live worker; it goes out with the next evaluate. */
+    void move(int edge, int weight) {
+        for (Link link : links.toArray(new Link[0])) {
+            try {
+                link.out.writeByte(MOVE);
+                link.out.writeInt(edge);
+                link.out.writeInt(weight);
+            } catch (IOException e) {
+                drop(link, e);
+            }
+        }
+    }
+
+    /** Releases the workers for the next run; they keep their topology loaded. */
+    void finish() {
+        for (Link link : links) {
+            try {
+                link.out.writeByte(FINISH);
+                link.out.flush();
+            } catch (IOException e) {
+                // Finished anyway; the worker notices the closed connection
+            }
+            link.close();
+        }
+        links.clear();
+    }
+
+    private boolean drop(Link link, IOException e) {
+        ConsoleLog.warn("Worker " + link.address + " dropped: " + reason(e));
+        links.remove(link);
+        link.close();
+        return true;
+    }
+
+    // EOFException and friends carry no message
+    private static String reason(IOException e) {
+        return e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int v : values) {
+            out.writeInt(v);
+        }
+    }
+
+    static int[] readInts(DataInputStream in, int limit) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > limit) {
+            throw new IOException("Bad array length " + length);
+        }
+        int[] values = new int[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    private final class Link {
+        final InetSocketAddress address;
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+
+        Link(InetSocketAddress address) throws IOException {
+            this.address = address;
+            this.socket = new Socket();
+            try {
+                socket.connect(address, timeoutMillis);
+                socket.setSoTimeout(timeoutMillis);
+                socket.setTcpNoDelay(true);
+                in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already gone
+            }
+        }
+    }
+}
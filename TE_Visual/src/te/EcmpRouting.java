@@ -0,0 +1,473 @@
+package te;
+
+import java.util.Arrays;
+
+/**
+ * Traffic-matrix load assignment with ECMP (Compute_link_load in the local search notes).
+ * For every destination one reverse Dijkstra yields the shortest-path DAG toward it; each
+ * node then splits the traffic it holds for that destination evenly over its equal-cost
+ * next hops. Loads are written into graph.load. Cost is O(destinations * E log V) and the
+ * engine allocates nothing after construction.
+ *
+ * <p>The per-destination distance vectors and node throughputs are kept between calls, so
+ * {@link #setWeight} can repair only the trees a single weight change touches and, within
+ * each of them, move only the traffic of the nodes downstream of the change. The last
+ * setWeight can be undone with {@link #rollback()}, which is how trial weights are probed
+ * without committing them.
+ */
+public final class EcmpRouting {
+    // Loads whose net change stays below this (relative) bound are treated as unchanged
+    private static final double LOAD_EPS = 1e-12;
+
+    private final CompactGraph graph;
+    private final double[] metric;
+    private final TrafficMatrix demands;
+    private final ShortestPathKernel kernel;
+
+    private final double[][] dist; // dist[d][v]: distance from v to destination index d
+    private final double[][] flow; // flow[d][v]: traffic toward destination index d passing v
+    private final double[] nodeFlow;
+    private final int[] pending;
+    private final int[] queue;
+    private double unroutedDemand;
+    private boolean computed;
+
+    // Scratch state for incremental updates
+    private final int[] affectedDestinations;
+    private int affectedCount;
+    private final double[] loadDelta;
+    private final int[] changedEdges;
+    private int changedCount;
+
+    // Region of one tree whose flows must be redone after a change (see rebalance)
+    private final boolean[] inRegion;
+    private final int[] region;
+    private final IndexedMinHeap order;
+    private final int[] hopStamp;
+    private final int[] hopCount;
+    private int stamp;
+
+    // Undo record for the last setWeight()
+    private final double[][] savedDist;
+    private final double[][] savedFlow;
+    private final double[] savedLoad;
+    private boolean canRollback;
+    private int undoEdge = -1;
+    private double undoWeight;
+    private double undoUnrouted;
+
+    /**
+     * @param metric per-edge routing metric, normally graph.weight (or graph.cost for
+     *               plain link-cost routing); values must be positive
+     */
+    public EcmpRouting(CompactGraph graph, double[] metric, TrafficMatrix demands) {
+        this.graph = graph;
+        this.metric = metric;
+        this.demands = demands;
+        this.kernel = new ShortestPathKernel(graph);
+        int n = graph.nodeCount();
+        this.dist = new double[demands.destinationCount()][n];
+        this.flow = new double[dist.length][n];
+        this.nodeFlow = new double[n];
+        this.pending = new int[n];
+        this.queue = new int[n];
+        this.affectedDestinations = new int[dist.length];
+        this.loadDelta = new double[graph.edgeCount()];
+        this.changedEdges = new int[graph.edgeCount()];
+        this.savedDist = new double[dist.length][];
+        this.savedFlow = new double[dist.length][];
+        this.inRegion = new boolean[n];
+        this.region = new int[n];
+        this.order = new IndexedMinHeap(n);
+        this.hopStamp = new int[n];
+        this.hopCount = new int[n];
+        this.savedLoad = new double[graph.edgeCount()];
+    }
+
+    public CompactGraph graph() {
+        return graph;
+    }
+
+    public double[] metric() {
+        return metric;
+    }
+
+    public TrafficMatrix demands() {
+        return demands;
+    }
+
+    /**
+     * Demand that could not be routed: its destination is unreachable, or it is caught on a
+     * cycle of zero-weight links that gives it no way out.
+     */
+    public double unroutedDemand() {
+        return unroutedDemand;
+    }
+
+    /** Recomputes all shortest-path DAGs and assigns every demand from scratch. */
+    public void computeAll() {
+        graph.clearLoads();
+        unroutedDemand = 0.0;
+        for (int d = 0; d < dist.length; d++) {
+            kernel.distancesTo(demands.destination(d), metric, dist[d]);
+            distribute(d, 1.0, graph.load);
+            System.arraycopy(nodeFlow, 0, flow[d], 0, graph.nodeCount());
+        }
+        Arrays.fill(nodeFlow, 0.0); // rebalance uses it as a zeroed scratch array
+        computed = true;
+        changedCount = 0;
+        canRollback = false;
+        graph.markAllDirty();
+    }
+
+    /**
+     * Changes metric[e] and updates routing and loads incrementally. Destinations whose
+     * DAG cannot be affected (e is neither tight before an increase nor tight-or-better
+     * after a decrease) are skipped entirely; for the others the distance vector is
+     * repaired and the traffic of the affected region is moved from the old DAG to the new
+     * one. Afterwards {@link #changedEdges()} lists the edges whose load moved.
+     */
+    public void setWeight(int e, double newWeight) {
+        double oldWeight = metric[e];
+        changedCount = 0;
+        affectedCount = 0;
+        if (!computed) {
+            metric[e] = newWeight;
+            computeAll();
+            return;
+        }
+        canRollback = true;
+        undoEdge = -1;
+        if (newWeight == oldWeight) {
+            return;
+        }
+        undoEdge = e;
+        undoWeight = oldWeight;
+        undoUnrouted = unroutedDemand;
+
+        int u = graph.edgeFrom[e];
+        int v = graph.edgeTo[e];
+        boolean increase = newWeight > oldWeight;
+        for (int d = 0; d < dist.length; d++) {
+            double[] distances = dist[d];
+            boolean touches = increase
+                    ? ShortestPathKernel.tight(oldWeight, distances[u], distances[v])
+                    : distances[v] != Double.POSITIVE_INFINITY
+                    && (newWeight + distances[v] < distances[u]
+                    || ShortestPathKernel.tight(newWeight, distances[u], distances[v]));
+            if (touches) {
+                affectedDestinations[affectedCount++] = d;
+            }
+        }
+        graph.markDirty(e);
+        if (affectedCount == 0) {
+            metric[e] = newWeight;
+            return;
+        }
+
+        metric[e] = newWeight;
+        int n = graph.nodeCount();
+        for (int k = 0; k < affectedCount; k++) {
+            int d = affectedDestinations[k];
+            if (savedDist[k] == null) {
+                savedDist[k] = new double[n];
+                savedFlow[k] = new double[n];
+            }
+            System.arraycopy(dist[d], 0, savedDist[k], 0, n);
+            System.arraycopy(flow[d], 0, savedFlow[k], 0, n);
+            if (increase) {
+                kernel.repairAfterIncrease(e, metric, dist[d]);
+            } else {
+                kernel.repairAfterDecrease(e, metric, dist[d]);
+            }
+            rebalance(d, savedDist[k], e, oldWeight);
+        }
+        applyLoadDelta();
+    }
+
+    // Folds loadDelta into graph.load, recording edges with a real change and resetting the delta
+    private void applyLoadDelta() {
+        double[] load = graph.load;
+        for (int e = 0; e < graph.edgeCount(); e++) {
+            double delta = loadDelta[e];
+            if (delta == 0.0) {
+                continue;
+            }
+            loadDelta[e] = 0.0;
+            if (Math.abs(delta) > LOAD_EPS * Math.max(1.0, Math.abs(load[e]))) {
+                savedLoad[changedCount] = load[e];
+                load[e] += delta;
+                changedEdges[changedCount++] = e;
+                graph.markDirty(e);
+            }
+        }
+    }
+
+    /**
+     * Undoes the last {@link #setWeight} exactly: the repaired distance vectors are swapped
+     * back and the changed loads restored. changedEdges() keeps listing the same edges so
+     * the caller can roll back anything derived from them.
+     */
+    public void rollback() {
+        if (!canRollback) {
+            throw new IllegalStateException("No weight change to roll back");
+        }
+        canRollback = false;
+        if (undoEdge < 0) {
+            return; // the last setWeight did not change anything
+        }
+        metric[undoEdge] = undoWeight;
+        graph.markDirty(undoEdge);
+        for (int k = 0; k < affectedCount; k++) {
+            int d = affectedDestinations[k];
+            double[] repaired = dist[d];
+            dist[d] = savedDist[k];
+            savedDist[k] = repaired;
+            double[] moved = flow[d];
+            flow[d] = savedFlow[k];
+            savedFlow[k] = moved;
+        }
+        double[] load = graph.load;
+        for (int k = 0; k < changedCount; k++) {
+            load[changedEdges[k]] = savedLoad[k];
+            graph.markDirty(changedEdges[k]);
+        }
+        unroutedDemand = undoUnrouted;
+    }
+
+    /** Edges whose load changed in the last {@link #setWeight} call, see {@link #changedEdgeCount()}. */
+    public int[] changedEdges() {
+        return changedEdges;
+    }
+
+    public int changedEdgeCount() {
+        return changedCount;
+    }
+
+    /** Number of destination trees the last {@link #setWeight} call had to repair. */
+    public int lastAffectedDestinations() {
+        return affectedCount;
+    }
+
+    boolean isTight(int e, double[] distances) {
+        return ShortestPathKernel.tight(metric[e], distances[graph.edgeFrom[e]], distances[graph.edgeTo[e]]);
+    }
+
+    /**
+     * Moves the traffic toward destination index d from the DAG of oldDist (with edge e at
+     * oldWeight) to the DAG of dist[d], into loadDelta. Only a region of the tree can
+     * change: the tail of e, every node whose distance moved and their predecessors (their
+     * set of tight next hops may differ), plus everything downstream of those in either
+     * DAG. Throughput outside the region is unchanged, so the region is withdrawn with its
+     * stored throughputs and then refilled in decreasing distance order, each node summing
+     * the shares its tight predecessors send it.
+     */
+    private void rebalance(int d, double[] oldDist, int e, double oldWeight) {
+        int n = graph.nodeCount();
+        int[] outStart = graph.outStart();
+        int[] outEdges = graph.outEdges();
+        int[] inStart = graph.inStart();
+        int[] inEdges = graph.inEdges();
+        int[] edgeFrom = graph.edgeFrom;
+        int[] edgeTo = graph.edgeTo;
+        double[] newDist = dist[d];
+        double[] through = flow[d];
+        int destination = demands.destination(d);
+
+        int size = 0;
+        region[size++] = edgeFrom[e];
+        inRegion[edgeFrom[e]] = true;
+        for (int v = 0; v < n; v++) {
+            if (oldDist[v] == newDist[v]) {
+                continue;
+            }
+            if (!inRegion[v]) {
+                inRegion[v] = true;
+                region[size++] = v;
+            }
+            for (int i = inStart[v]; i < inStart[v + 1]; i++) {
+                int y = edgeFrom[inEdges[i]];
+                if (!inRegion[y]) {
+                    inRegion[y] = true;
+                    region[size++] = y;
+                }
+            }
+        }
+        for (int k = 0; k < size; k++) {
+            int x = region[k];
+            for (int i = outStart[x]; i < outStart[x + 1]; i++) {
+                int h = outEdges[i];
+                int w = edgeTo[h];
+                if (!inRegion[w] && (tightOld(h, e, oldWeight, oldDist) || isTight(h, newDist))) {
+                    inRegion[w] = true;
+                    region[size++] = w;
+                }
+            }
+        }
+
+        // Withdraw what the region sent over the old DAG
+        for (int k = 0; k < size; k++) {
+            int x = region[k];
+            if (x == destination) {
+                continue;
+            }
+            if (oldDist[x] == Double.POSITIVE_INFINITY) {
+                unroutedDemand -= through[x];
+                continue;
+            }
+            int hops = 0;
+            for (int i = outStart[x]; i < outStart[x + 1]; i++) {
+                if (tightOld(outEdges[i], e, oldWeight, oldDist)) {
+                    hops++;
+                }
+            }
+            double share = through[x] / hops;
+            if (share == 0.0) {
+                continue;
+            }
+            for (int i = outStart[x]; i < outStart[x + 1]; i++) {
+                int h = outEdges[i];
+                if (tightOld(h, e, oldWeight, oldDist)) {
+                    loadDelta[h] -= share;
+                }
+            }
+        }
+
+        // Refill over the new DAG; predecessors outside the region still send what they did
+        demands.addDemandsTo(d, nodeFlow);
+        stamp++;
+        for (int k = 0; k < size; k++) {
+            int x = region[k];
+            order.offer(x, -newDist[x]);
+        }
+        while (!order.isEmpty()) {
+            int x = order.poll();
+            double total = nodeFlow[x];
+            for (int i = inStart[x]; i < inStart[x + 1]; i++) {
+                int g = inEdges[i];
+                if (isTight(g, newDist)) {
+                    int y = edgeFrom[g];
+                    total += through[y] / nextHops(y, newDist);
+                }
+            }
+            through[x] = total;
+            if (x == destination) {
+                continue;
+            }
+            if (newDist[x] == Double.POSITIVE_INFINITY) {
+                unroutedDemand += total;
+                continue;
+            }
+            double share = total / nextHops(x, newDist);
+            if (share == 0.0) {
+                continue;
+            }
+            for (int i = outStart[x]; i < outStart[x + 1]; i++) {
+                int h = outEdges[i];
+                if (isTight(h, newDist)) {
+                    loadDelta[h] += share;
+                }
+            }
+        }
+
+        demands.clearSources(d, nodeFlow);
+        for (int k = 0; k < size; k++) {
+            inRegion[region[k]] = false;
+        }
+    }
+
+    private boolean tightOld(int h, int e, double oldWeight, double[] oldDist) {
+        double w = h == e ? oldWeight : metric[h];
+        return ShortestPathKernel.tight(w, oldDist[graph.edgeFrom[h]], oldDist[graph.edgeTo[h]]);
+    }
+
+    // Tight out-degree of y under the new distances, counted once per rebalance
+    private int nextHops(int y, double[] distances) {
+        if (hopStamp[y] == stamp) {
+            return hopCount[y];
+        }
+        int[] outStart = graph.outStart();
+        int[] outEdges = graph.outEdges();
+        int hops = 0;
+        for (int i = outStart[y]; i < outStart[y + 1]; i++) {
+            if (isTight(outEdges[i], distances)) {
+                hops++;
+            }
+        }
+        hopStamp[y] = stamp;
+        hopCount[y] = hops;
+        return hops;
+    }
+
+    /**
+     * Adds (sign = 1) or removes (sign = -1) the loads of all demands toward destination
+     * index d into target, using the DAG implied by dist[d]. Nodes are processed in
+     * topological order (Kahn) so every node forwards its full transit traffic in one step.
+     */
+    void distribute(int d, double sign, double[] target) {
+        int n = graph.nodeCount();
+        int m = graph.edgeCount();
+        int[] outStart = graph.outStart();
+        int[] outEdges = graph.outEdges();
+        int[] edgeTo = graph.edgeTo;
+        double[] distances = dist[d];
+        int destination = demands.destination(d);
+
+        Arrays.fill(nodeFlow, 0, n, 0.0);
+        Arrays.fill(pending, 0, n, 0);
+        demands.addDemandsTo(d, nodeFlow);
+        for (int e = 0; e < m; e++) {
+            if (isTight(e, distances)) {
+                pending[edgeTo[e]]++;
+            }
+        }
+
+        int head = 0, tail = 0;
+        for (int v = 0; v < n; v++) {
+            if (pending[v] == 0) {
+                queue[tail++] = v;
+            }
+        }
+        while (head < tail) {
+            int v = queue[head++];
+            double flow = nodeFlow[v];
+            if (v == destination) {
+                continue;
+            }
+            if (distances[v] == Double.POSITIVE_INFINITY) {
+                unroutedDemand += sign * flow;
+                continue;
+            }
+            int nextHops = 0;
+            for (int i = outStart[v]; i < outStart[v + 1]; i++) {
+                if (isTight(outEdges[i], distances)) {
+                    nextHops++;
+                }
+            }
+            double share = flow / nextHops;
+            for (int i = outStart[v]; i < outStart[v + 1]; i++) {
+                int e = outEdges[i];
+                if (!isTight(e, distances)) {
+                    continue;
+                }
+                int w = edgeTo[e];
+                if (share != 0.0) {
+                    target[e] += sign * share;
+                    nodeFlow[w] += share;
+                }
+                if (--pending[w] == 0) {
+                    queue[tail++] = w;
+                }
+            }
+        }
+        // Nodes never released sit on a cycle of zero-weight tight links or behind one, so
+        // the traffic they hold cannot be split toward the destination
+        if (tail < n) {
+            for (int v = 0; v < n; v++) {
+                if (pending[v] > 0 && v != destination) {
+                    unroutedDemand += sign * nodeFlow[v];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package te;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import te.monitor.ConsoleLog;
+
+/**
+ * Append-only binary record of a run: link loads, weights and capacities, accepted optimizer
+ * moves, Phi values and the run's clock, for JournalReplay to play back later. Engines append
+ * 16-byte records to a direct buffer under a short lock; full buffers go to a background
+ * thread that writes them through a FileChannel, so the recording thread never waits for
+ * the disk unless the writer falls a whole queue of buffers behind.
+ *
+ * <pre>
+ * header   magic "TEJRNL01", version, record size, edgeCount, reserved,
+ *          start time in epoch milliseconds (32 bytes)
+ * record   int type, int element, double value (16 bytes), little-endian
+ * </pre>
+ * The first records are the weight, capacity and load of every link when the journal was
+ * opened. A TIME record sets the clock (seconds since the start of the run, or simulated
+ * seconds) for the records after it. A journal cut short by a crash is still readable up
+ * to its last whole record. Version 2 added CAPACITY records and the capacities in the
+ * opening records.
+ */
+public final class EventJournal implements AutoCloseable {
+    static final long MAGIC = 0x54454A524E4C3031L; // "TEJRNL01"
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 32;
+    static final int RECORD_BYTES = 16;
+
+    /** element: edge, value: load. */
+    public static final int LOAD = 1;
+    /** element: edge, value: weight. */
+    public static final int WEIGHT = 2;
+    /** An applied optimizer move; element: edge, value: its new weight. */
+    public static final int MOVE = 3;
+    /** element: iteration, value: Phi of the weights after that iteration's move. */
+    public static final int PHI = 4;
+    /** element: unused, value: clock in seconds. */
+    public static final int TIME = 5;
+    /** element: edge, value: capacity (NaN for none). */
+    public static final int CAPACITY = 6;
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final int QUEUED_BUFFERS = 64;
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final FileChannel channel;
+    private final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<>(QUEUED_BUFFERS + 1);
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final Thread writer;
+    private final long startNanos = System.nanoTime();
+    private final ReentrantLock lock = new ReentrantLock();
+    private ByteBuffer current = newBuffer();
+    private volatile IOException failure;
+    private boolean closed;
+
+    private EventJournal(FileChannel channel) {
+        this.channel = channel;
+        this.writer = new Thread(this::drain, "journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /** Creates (or truncates) filePath and records the current weights and loads of graph. */
+    public static EventJournal open(String filePath, CompactGraph graph) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putLong(MAGIC).putInt(VERSION).putInt(RECORD_BYTES).putInt(graph.edgeCount()).putInt(0)
+                .putLong(System.currentTimeMillis());
+        header.flip();
+        try {
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        EventJournal journal = new EventJournal(channel);
+        journal.time(0.0);
+        journal.snapshot(graph);
+        return journal;
+    }
+
+    /** Records the weight, capacity and load of every link, e.g. where a run replaces them all at once. */
+    public void snapshot(CompactGraph graph) {
+        for (int e = 0; e < graph.edgeCount(); e++) {
+            weight(e, graph.weight[e]);
+            capacity(e, graph.capacity[e]);
+            load(e, graph.load[e]);
+        }
+    }
+
+    /** Seconds since the journal was opened, for producers that record wall time. */
+    public double elapsed() {
+        return (System.nanoTime() - startNanos) / 1e9;
+    }
+
+    public void load(int edge, double value) {
+        append(LOAD, edge, value);
+    }
+
+    public void weight(int edge, double value) {
+        append(WEIGHT, edge, value);
+    }
+
+    public void capacity(int edge, double value) {
+        append(CAPACITY, edge, value);
+    }
+
+    public void move(int edge, double weight) {
+        append(MOVE, edge, weight);
+    }
+
+    public void phi(int iteration, double value) {
+        append(PHI, iteration, value);
+    }
+
+    public void time(double seconds) {
+        append(TIME, 0, seconds);
+    }
+
+    private void append(int type, int element, double value) {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            if (current.remaining() < RECORD_BYTES) {
+                handOff();
+            }
+            current.putInt(type).putInt(element).putDouble(value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Hands everything recorded so far to the writer thread. */
+    public void flush() {
+        lock.lock();
+        try {
+            if (!closed && current.position() > 0) {
+                handOff();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Queues the current buffer for writing and continues in a free one; blocks only when the writer is far behind
+    private void handOff() {
+        try {
+            full.put(current);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while recording the journal", e);
+        }
+        ByteBuffer next = free.poll();
+        current = next != null ? next : newBuffer();
+    }
+
+    private static ByteBuffer newBuffer() {
+        return ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void drain() {
+        while (true) {
+            ByteBuffer buffer;
+            try {
+                buffer = full.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (buffer == null) {
+                // A slow run still reaches the disk about once a second. Never wait for the
+                // lock here: its holder may be blocked handing a buffer to this thread.
+                if (lock.tryLock()) {
+                    try {
+                        if (!closed && current.position() > 0) {
+                            handOff();
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+                continue;
+            }
+            if (buffer == END) {
+                return;
+            }
+            buffer.flip();
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                if (failure == null) {
+                    ConsoleLog.warn("Journal write failed, later records are lost: " + e.getMessage());
+                }
+                failure = e;
+            }
+            buffer.clear();
+            free.offer(buffer);
+        }
+    }
+
+    /** Writes what is left and closes the file; rethrows the first write failure, if any. */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            if (current.position() > 0) {
+                handOff();
+            }
+            closed = true;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            full.put(END);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
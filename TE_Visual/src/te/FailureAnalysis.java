@@ -0,0 +1,213 @@
+package te;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Max utilization and Phi under every single-link or single-node failure for the current
+ * weights. A failure is an infinite weight on the failed links, applied with
+ * EcmpRouting.setWeight: only the destinations whose shortest-path DAG used a failed link
+ * are repaired and rerouted, every other tree is reused as it is, and the scenario is then
+ * rolled back. The scenarios are split into contiguous chunks, one per worker thread, each
+ * with its own copy of the routing state; the outcome list is in element order whatever
+ * the thread count.
+ */
+public final class FailureAnalysis {
+    public enum Kind {
+        LINK, NODE
+    }
+
+    /** State of the network with one element failed. */
+    public static final class Outcome {
+        public final Kind kind;
+        public final int element; // edge id or node id
+        public final double phi;
+        public final double maxUtilization;
+        public final double unroutedDemand;
+        public final int reroutedDestinations; // trees repaired, summed over the links of a failed node
+
+        Outcome(Kind kind, int element, double phi, double maxUtilization, double unroutedDemand,
+                int reroutedDestinations) {
+            this.kind = kind;
+            this.element = element;
+            this.phi = phi;
+            this.maxUtilization = maxUtilization;
+            this.unroutedDemand = unroutedDemand;
+            this.reroutedDestinations = reroutedDestinations;
+        }
+    }
+
+    /** Most critical first: stranded demand, then max utilization, then Phi; ties by element id. */
+    public static final Comparator<Outcome> CRITICAL_FIRST =
+            Comparator.comparingDouble((Outcome o) -> -o.unroutedDemand)
+                    .thenComparingDouble(o -> -o.maxUtilization)
+                    .thenComparingDouble(o -> -o.phi)
+                    .thenComparingInt(o -> o.element);
+
+    // Node scenarios revert with setWeight, not rollback; rebuild the state this often against drift
+    private static final int RESYNC_INTERVAL = 64;
+
+    private final CompactGraph graph;
+    private final TrafficMatrix demands;
+    private int threads = 1;
+
+    public FailureAnalysis(CompactGraph graph, TrafficMatrix demands) {
+        this.graph = graph;
+        this.demands = demands;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /** One outcome per link, indexed by edge id. Links already at infinite weight fail nothing new. */
+    public Outcome[] sweepLinks() {
+        return sweep(Kind.LINK, graph.edgeCount());
+    }
+
+    /** One outcome per node, indexed by node id; demand from or to the failed node counts as unrouted. */
+    public Outcome[] sweepNodes() {
+        return sweep(Kind.NODE, graph.nodeCount());
+    }
+
+    /** The k most critical outcomes, most critical first. */
+    public static Outcome[] mostCritical(Outcome[] outcomes, int k) {
+        Outcome[] sorted = outcomes.clone();
+        Arrays.sort(sorted, CRITICAL_FIRST);
+        return Arrays.copyOf(sorted, Math.min(k, sorted.length));
+    }
+
+    /** Edge ids of the k most critical link failures, for WeightOptimizer.setFailureScenarios. */
+    public static int[] criticalLinks(Outcome[] linkOutcomes, int k) {
+        Outcome[] top = mostCritical(linkOutcomes, k);
+        int[] links = new int[top.length];
+        for (int i = 0; i < top.length; i++) {
+            links[i] = top[i].element;
+        }
+        return links;
+    }
+
+    /** Ranked text table of outcomes, as printed by the GUI and BatchOptimizer. */
+    public static String table(CompactGraph graph, Outcome[] ranked) {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("%-4s %-20s %10s %16s %14s%n", "Rank", "Failed", "Max util", "Phi", "Unrouted"));
+        for (int i = 0; i < ranked.length; i++) {
+            Outcome o = ranked[i];
+            String name = o.kind == Kind.LINK ? graph.edgeKey(o.element) : graph.nodeName(o.element);
+            text.append(String.format("%-4d %-20s %9.1f%% %16.2f %14.2f%n",
+                    i + 1, name, 100 * o.maxUtilization, o.phi, o.unroutedDemand));
+        }
+        return text.toString();
+    }
+
+    private Outcome[] sweep(Kind kind, int count) {
+        Outcome[] outcomes = new Outcome[count];
+        int workerCount = Math.max(1, Math.min(threads, count));
+        List<Callable<Void>> tasks = new ArrayList<>(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            int from = (int) ((long) count * i / workerCount);
+            int to = (int) ((long) count * (i + 1) / workerCount);
+            tasks.add(() -> {
+                new Worker(graph.copy()).run(kind, from, to, outcomes);
+                return null;
+            });
+        }
+        ExecutorService pool = workerCount > 1 ? Executors.newFixedThreadPool(workerCount) : null;
+        try {
+            if (pool == null) {
+                tasks.get(0).call();
+            } else {
+                for (Future<Void> future : pool.invokeAll(tasks)) {
+                    future.get();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Failure sweep interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failure scenario evaluation failed", e.getCause());
+        } catch (Exception e) {
+            throw new IllegalStateException("Failure scenario evaluation failed", e);
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+        return outcomes;
+    }
+
+    // Private routing and Phi state for one thread
+    private final class Worker {
+        final CompactGraph graph;
+        final EcmpRouting routing;
+        final CongestionCost cost;
+        final int[] failed;
+        final double[] saved;
+
+        Worker(CompactGraph graph) {
+            this.graph = graph;
+            this.routing = new EcmpRouting(graph, graph.weight, demands);
+            routing.computeAll();
+            this.cost = new CongestionCost(graph);
+            this.failed = new int[2 * graph.edgeCount()]; // a self-loop is both an in- and an out-link
+            this.saved = new double[failed.length];
+        }
+
+        void run(Kind kind, int from, int to, Outcome[] outcomes) {
+            for (int element = from; element < to; element++) {
+                outcomes[element] = kind == Kind.LINK ? failLink(element) : failNode(element, element - from);
+            }
+        }
+
+        Outcome failLink(int e) {
+            routing.setWeight(e, Double.POSITIVE_INFINITY);
+            double phi = cost.update(routing.changedEdges(), routing.changedEdgeCount());
+            Outcome outcome = new Outcome(Kind.LINK, e, phi, CongestionCost.maxUtilization(graph),
+                    routing.unroutedDemand(), routing.lastAffectedDestinations());
+            cost.rollback();
+            routing.rollback();
+            return outcome;
+        }
+
+        Outcome failNode(int v, int done) {
+            if (done > 0 && done % RESYNC_INTERVAL == 0) {
+                routing.computeAll();
+                cost.recomputeAll();
+            }
+            int count = 0;
+            int[] outStart = graph.outStart();
+            int[] outEdges = graph.outEdges();
+            int[] inStart = graph.inStart();
+            int[] inEdges = graph.inEdges();
+            for (int i = outStart[v]; i < outStart[v + 1]; i++) {
+                failed[count++] = outEdges[i];
+            }
+            for (int i = inStart[v]; i < inStart[v + 1]; i++) {
+                failed[count++] = inEdges[i];
+            }
+            int rerouted = 0;
+            double phi = cost.total();
+            for (int k = 0; k < count; k++) {
+                int e = failed[k];
+                saved[k] = graph.weight[e];
+                routing.setWeight(e, Double.POSITIVE_INFINITY);
+                phi = cost.update(routing.changedEdges(), routing.changedEdgeCount());
+                rerouted += routing.lastAffectedDestinations();
+            }
+            Outcome outcome = new Outcome(Kind.NODE, v, phi, CongestionCost.maxUtilization(graph),
+                    routing.unroutedDemand(), rerouted);
+            for (int k = count - 1; k >= 0; k--) {
+                routing.setWeight(failed[k], saved[k]);
+                cost.update(routing.changedEdges(), routing.changedEdgeCount());
+            }
+            return outcome;
+        }
+    }
+}
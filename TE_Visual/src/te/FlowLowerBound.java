@@ -0,0 +1,296 @@
+package te;
+
+import java.util.Arrays;
+import te.monitor.EngineMetrics;
+
+/**
+ * Lower bound on the Phi of any routing of a traffic matrix, weight-based or not: the
+ * optimal multicommodity flow for the same piecewise-linear cost. The bound comes from the
+ * Lagrangian dual with one price per link: for any prices, the demand routed on the
+ * cheapest paths plus, per link, the minimum of Phi(f) - price * f is at most the optimum.
+ * The prices are improved by projected subgradient ascent with Polyak steps. The step
+ * length needs an upper bound, which comes from Frank-Wolfe on the fractional flow (one
+ * all-or-nothing assignment and an exact line search per iteration). The solve stops when
+ * the two are within the tolerance or after the iteration limit; the best dual value seen
+ * is the bound.
+ *
+ * Demands without any path are left out, as they are by the routings.
+ */
+public final class FlowLowerBound {
+    private static final int LINE_SEARCH_STEPS = 50;
+    private static final int WARM_UP_ITERATIONS = 20; // Frank-Wolfe only, until the upper bound can size dual steps
+    private static final int STALL_ITERATIONS = 20; // halve the dual step after this many without a better bound
+    private static final double MAX_SLOPE = 5000; // slope of the last piece; higher prices make the dual -infinity
+    private static final double[] BREAKPOINTS = {0.0, 1.0 / 3.0, 2.0 / 3.0, 9.0 / 10.0, 1.0, 11.0 / 10.0};
+
+    private final CompactGraph graph;
+    private final TrafficMatrix demands;
+    private int maxIterations = 300;
+    private double tolerance = 0.001;
+
+    private double lowerBound;
+    private double upperBound;
+    private int iterationsRun;
+
+    // Scratch for the all-or-nothing assignment
+    private final IndexedMinHeap heap;
+    private final double[] dist;
+    private final int[] nextHop;
+    private final int[] settled;
+    private final double[] nodeFlow;
+
+    public FlowLowerBound(CompactGraph graph, TrafficMatrix demands) {
+        this.graph = graph;
+        this.demands = demands;
+        int n = graph.nodeCount();
+        this.heap = new IndexedMinHeap(n);
+        this.dist = new double[n];
+        this.nextHop = new int[n];
+        this.settled = new int[n];
+        this.nodeFlow = new double[n];
+    }
+
+    public void setMaxIterations(int maxIterations) {
+        this.maxIterations = Math.max(1, maxIterations);
+    }
+
+    /** Stop once (upper - lower) / lower is at most this. */
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /** Runs the solver and returns the lower bound. */
+    public double solve() {
+        int m = graph.edgeCount();
+        double[] capacity = new double[m];
+        for (int e = 0; e < m; e++) {
+            capacity[e] = graph.capacityOr(e, 1.0);
+        }
+        double[] flow = new double[m];
+        double[] target = new double[m];
+        double[] length = new double[m];
+        double[] price = new double[m];
+        double[] breakpointFlow = new double[m];
+        double[] averageRouted = new double[m];
+        int dualSteps = 0;
+
+        // Start from shortest paths on the empty network and the prices of the first pieces
+        for (int e = 0; e < m; e++) {
+            length[e] = CongestionCost.slope(0) / capacity[e];
+            price[e] = length[e];
+        }
+        allOrNothing(length, flow);
+        upperBound = cost(flow, capacity);
+        lowerBound = 0.0; // Phi is non-negative
+        double stepScale = 2.0;
+        int sinceImprovement = 0;
+        iterationsRun = 0;
+        while (iterationsRun < maxIterations && upperBound - lowerBound > tolerance * lowerBound) {
+            iterationsRun++;
+
+            // Primal: one Frank-Wolfe step on the flow
+            for (int e = 0; e < m; e++) {
+                length[e] = CongestionCost.slope(flow[e] / capacity[e]) / capacity[e];
+            }
+            allOrNothing(length, target);
+            double step = lineSearch(flow, target, capacity);
+            for (int e = 0; e < m; e++) {
+                flow[e] += step * (target[e] - flow[e]);
+            }
+            upperBound = Math.min(upperBound, cost(flow, capacity));
+
+            if (iterationsRun <= Math.min(WARM_UP_ITERATIONS, maxIterations / 4)) {
+                continue;
+            }
+            // Dual: one projected subgradient step on the link prices, Polyak step length
+            double value = dual(price, capacity, target, breakpointFlow);
+            if (value > lowerBound) {
+                lowerBound = value;
+                sinceImprovement = 0;
+            } else if (++sinceImprovement >= STALL_ITERATIONS) {
+                stepScale /= 2;
+                sinceImprovement = 0;
+            }
+            // The average of the dual's shortest-path flows is a feasible flow too, often better than Frank-Wolfe's
+            dualSteps++;
+            for (int e = 0; e < m; e++) {
+                averageRouted[e] += (target[e] - averageRouted[e]) / dualSteps;
+            }
+            upperBound = Math.min(upperBound, cost(averageRouted, capacity));
+            double norm = 0.0;
+            for (int e = 0; e < m; e++) {
+                double g = target[e] - breakpointFlow[e];
+                norm += g * g;
+            }
+            if (norm == 0.0) {
+                upperBound = Math.min(upperBound, value); // the prices are optimal
+                break;
+            }
+            double t = stepScale * (upperBound - value) / norm;
+            for (int e = 0; e < m; e++) {
+                double p = price[e] + t * (target[e] - breakpointFlow[e]);
+                price[e] = Math.max(0.0, Math.min(MAX_SLOPE / capacity[e], p));
+            }
+        }
+        return lowerBound;
+    }
+
+    public double lowerBound() {
+        return lowerBound;
+    }
+
+    /** Phi of the best fractional flow found, at least the optimum. */
+    public double upperBound() {
+        return upperBound;
+    }
+
+    public int iterationsRun() {
+        return iterationsRun;
+    }
+
+    /**
+     * Bound on the aggregated Phi of weights scored against a whole series: the worst case
+     * is at least the largest per-matrix bound, the mean at least the mean bound.
+     */
+    public static double of(CompactGraph graph, TrafficSeries series, RobustCost.Aggregate aggregate, int maxIterations) {
+        double worst = 0.0;
+        double sum = 0.0;
+        for (int k = 0; k < series.matrixCount(); k++) {
+            FlowLowerBound bound = new FlowLowerBound(graph, series.matrix(k));
+            bound.setMaxIterations(maxIterations);
+            double b = bound.solve();
+            worst = Math.max(worst, b);
+            sum += b;
+        }
+        return aggregate == RobustCost.Aggregate.WORST ? worst : sum / series.matrixCount();
+    }
+
+    /** Relative distance of a solution's Phi above the bound. */
+    public static double gap(double phi, double lowerBound) {
+        return lowerBound > 0 ? (phi - lowerBound) / lowerBound : (phi > 0 ? Double.POSITIVE_INFINITY : 0.0);
+    }
+
+    private static double cost(double[] flow, double[] capacity) {
+        double total = 0.0;
+        for (int e = 0; e < flow.length; e++) {
+            total += CongestionCost.phi(flow[e] / capacity[e]);
+        }
+        return total;
+    }
+
+    /**
+     * Lagrangian dual for link prices: the demand routed on shortest paths for the prices
+     * (flows into routed), plus for each link the minimum of Phi(f) - price * f over f >= 0,
+     * reached at a breakpoint (flow into breakpointFlow). Below the optimum for any price in
+     * [0, last slope]; routed - breakpointFlow is a supergradient.
+     */
+    private double dual(double[] price, double[] capacity, double[] routed, double[] breakpointFlow) {
+        double value = allOrNothing(price, routed);
+        for (int e = 0; e < price.length; e++) {
+            double c = capacity[e];
+            double best = 0.0;
+            double bestU = 0.0;
+            for (double u : BREAKPOINTS) {
+                double v = CongestionCost.phi(u) - price[e] * c * u;
+                if (v < best) {
+                    best = v;
+                    bestU = u;
+                }
+            }
+            value += best;
+            breakpointFlow[e] = bestU * c;
+        }
+        return value;
+    }
+
+    // Minimizes the convex Phi(x + t (y - x)) over t in [0, 1] by bisection on its right derivative
+    private static double lineSearch(double[] flow, double[] target, double[] capacity) {
+        if (derivative(flow, target, capacity, 0.0) >= 0.0) {
+            return 0.0;
+        }
+        if (derivative(flow, target, capacity, 1.0) <= 0.0) {
+            return 1.0;
+        }
+        double lo = 0.0;
+        double hi = 1.0;
+        for (int i = 0; i < LINE_SEARCH_STEPS; i++) {
+            double mid = 0.5 * (lo + hi);
+            if (derivative(flow, target, capacity, mid) < 0.0) {
+                lo = mid;
+            } else {
+                hi = mid;
+            }
+        }
+        return hi;
+    }
+
+    private static double derivative(double[] flow, double[] target, double[] capacity, double t) {
+        double d = 0.0;
+        for (int e = 0; e < flow.length; e++) {
+            double direction = target[e] - flow[e];
+            if (direction != 0.0) {
+                double u = (flow[e] + t * direction) / capacity[e];
+                // Moving backwards along a link uses the slope of the piece below the point
+                double s = direction > 0 ? CongestionCost.slope(u) : CongestionCost.slope(Math.nextDown(u));
+                d += s * direction / capacity[e];
+            }
+        }
+        return d;
+    }
+
+    // Routes every demand on one shortest path for length; link flows into out, returns the total length of the flow
+    private double allOrNothing(double[] length, double[] out) {
+        double total = 0.0;
+        int n = graph.nodeCount();
+        int[] inStart = graph.inStart();
+        int[] inEdges = graph.inEdges();
+        int[] edgeFrom = graph.edgeFrom;
+        int[] edgeTo = graph.edgeTo;
+        Arrays.fill(out, 0.0);
+        for (int d = 0; d < demands.destinationCount(); d++) {
+            int dest = demands.destination(d);
+            // Reverse Dijkstra, remembering the settle order and each node's first hop
+            Arrays.fill(dist, 0, n, Double.POSITIVE_INFINITY);
+            dist[dest] = 0.0;
+            nextHop[dest] = -1;
+            heap.offer(dest, 0.0);
+            int settledCount = 0;
+            while (!heap.isEmpty()) {
+                int x = heap.poll();
+                settled[settledCount++] = x;
+                double dx = dist[x];
+                for (int i = inStart[x]; i < inStart[x + 1]; i++) {
+                    int e = inEdges[i];
+                    int y = edgeFrom[e];
+                    double nd = dx + length[e];
+                    if (nd < dist[y]) {
+                        dist[y] = nd;
+                        nextHop[y] = e;
+                        heap.offer(y, nd);
+                    }
+                }
+            }
+            EngineMetrics.spfComputed();
+            demands.addDemandsTo(d, nodeFlow);
+            for (int k = 1; k < settledCount; k++) {
+                int x = settled[k];
+                total += nodeFlow[x] * dist[x];
+            }
+            // Farthest first, so a node has collected all flow through it before passing it on
+            for (int k = settledCount - 1; k > 0; k--) {
+                int x = settled[k];
+                double f = nodeFlow[x];
+                if (f != 0.0) {
+                    int e = nextHop[x];
+                    out[e] += f;
+                    nodeFlow[edgeTo[e]] += f;
+                    nodeFlow[x] = 0.0;
+                }
+            }
+            nodeFlow[dest] = 0.0;
+            // Demand from sources that cannot reach dest was never routed
+            demands.clearSources(d, nodeFlow);
+        }
+        return total;
+    }
+}
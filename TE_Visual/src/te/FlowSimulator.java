@@ -0,0 +1,399 @@
+package te;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import te.monitor.EngineMetrics;
+import te.monitor.SimulationTickEvent;
+
+/**
+ * Discrete-event fluid simulation of transfers over fixed paths. Between two events every
+ * active flow sends at a constant rate; rates are the max-min fair allocation of link
+ * capacity (progressive filling) and are recomputed only when a flow starts or finishes.
+ * The next event is the earliest of the next arrival, the next completion and, when a
+ * listener wants periodic updates, the next tick - so simulated time jumps straight from
+ * event to event instead of following the wall clock. Pacing against the wall clock is
+ * optional and only meant for showing a run in the UI.
+ *
+ * Active flows with a positive rate sit in a min-heap on their projected finish time, and
+ * a flow's remaining bytes are only brought up to date when its rate changes, so an event
+ * costs a heap operation per finished or re-rated flow rather than a pass over every
+ * active flow. The max-min fair allocation itself is recomputed in full on each change,
+ * since one arrival or completion can move the rate of every flow it shares a link with.
+ *
+ * Link loads (the current aggregate rate in bytes per second) are kept in graph.load.
+ * With an EventJournal set, every reallocation records the simulated time and the loads
+ * of the links whose rate it changed. Simulated time is shifted so each run continues
+ * from the journal's clock, as a journal may hold several runs.
+ */
+public final class FlowSimulator {
+    /** Called on the simulation thread after rates change and on every tick. */
+    public interface Listener {
+        void onUpdate(double time, FlowSimulator simulator);
+    }
+
+    private static final double DONE_EPS = 1e-9;
+
+    private final CompactGraph graph;
+    private Listener listener;
+    private EventJournal journal;
+    private int[] previousLinks; // links in use before the last reallocation, while journaling
+    private double journalOffset; // journal clock minus simulated time, fixed per run
+    private double tickInterval;    // 0 = no ticks
+    private double pacing;          // simulated seconds per wall second, 0 = unpaced
+
+    private int flowCount;
+    private int[][] path = new int[16][];
+    private double[] size = new double[16];
+    private double[] start = new double[16];
+    private double[] remaining = new double[16];
+    private double[] rate = new double[16];
+    private double[] finish = new double[16];
+    private double[] since = new double[16]; // time remaining was last brought up to date
+    private double[] fairRate = new double[16];
+
+    private int[] active = new int[16];
+    private int[] activeIndex = new int[16];
+    private int activeCount;
+    private IndexedMinHeap completions; // flows with a positive rate, by projected finish time
+    private double now;
+
+    // Progressive-filling scratch space, per link
+    private final double[] residual;
+    private final int[] unfrozen;
+    private final int[] linkFlowCount;
+    private final int[] linkFlowStart;
+    private int[] linkFlows = new int[16];
+    private final int[] touchedLinks;
+    private int touchedCount;
+    private final IndexedMinHeap shares; // links with unfrozen flows, by residual / unfrozen
+    private boolean[] frozen = new boolean[16];
+
+    public FlowSimulator(CompactGraph graph) {
+        this.graph = graph;
+        int m = graph.edgeCount();
+        this.residual = new double[m];
+        this.unfrozen = new int[m];
+        this.linkFlowCount = new int[m];
+        this.linkFlowStart = new int[m];
+        this.touchedLinks = new int[m];
+        this.shares = new IndexedMinHeap(m);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** Records the loads of the following runs in journal, on simulated time; null stops recording. */
+    public void setJournal(EventJournal journal) {
+        this.journal = journal;
+        if (journal != null && previousLinks == null) {
+            previousLinks = new int[graph.edgeCount()];
+        }
+    }
+
+    /** Invoke the listener every interval simulated seconds in addition to rate changes. */
+    public void setTickInterval(double interval) {
+        this.tickInterval = interval;
+    }
+
+    /** Replay at the given speed-up over the wall clock; 0 runs as fast as possible. */
+    public void setPacing(double simulatedSecondsPerWallSecond) {
+        this.pacing = simulatedSecondsPerWallSecond;
+    }
+
+    /** Adds a transfer of bytes over the given edges, starting at startTime. Returns its id. */
+    public int addFlow(int[] edges, double bytes, double startTime) {
+        if (flowCount == size.length) {
+            int n = flowCount * 2;
+            path = Arrays.copyOf(path, n);
+            size = Arrays.copyOf(size, n);
+            start = Arrays.copyOf(start, n);
+            remaining = Arrays.copyOf(remaining, n);
+            rate = Arrays.copyOf(rate, n);
+            finish = Arrays.copyOf(finish, n);
+            since = Arrays.copyOf(since, n);
+            fairRate = Arrays.copyOf(fairRate, n);
+            frozen = Arrays.copyOf(frozen, n);
+            active = Arrays.copyOf(active, n);
+            activeIndex = Arrays.copyOf(activeIndex, n);
+            completions = null; // rebuilt at the next run with room for the new ids
+        }
+        int id = flowCount++;
+        path[id] = edges;
+        size[id] = bytes;
+        start[id] = startTime;
+        remaining[id] = bytes;
+        finish[id] = Double.NaN;
+        return id;
+    }
+
+    public int flowCount() {
+        return flowCount;
+    }
+
+    public int activeFlowCount() {
+        return activeCount;
+    }
+
+    public double time() {
+        return now;
+    }
+
+    public double remaining(int flow) {
+        return Double.isNaN(finish[flow]) ? remainingAt(flow, now) : 0.0;
+    }
+
+    public double rate(int flow) {
+        return rate[flow];
+    }
+
+    /** Completion time of the flow, NaN while it has not finished. */
+    public double completionTime(int flow) {
+        return finish[flow];
+    }
+
+    /**
+     * Runs until every flow finished, time reaches until, or no active flow can make
+     * progress (a zero-capacity link on its path). Returns the simulated time reached.
+     */
+    public double run(double until) throws InterruptedException {
+        int[] order = arrivalOrder();
+        int nextArrival = 0;
+        long wallStart = System.nanoTime();
+        double simStart = now;
+        if (journal != null) {
+            journalOffset = Math.max(0.0, journal.elapsed() - now);
+        }
+        double nextTick = tickInterval > 0 ? now + tickInterval : Double.POSITIVE_INFINITY;
+        if (completions == null) {
+            completions = new IndexedMinHeap(size.length);
+            for (int i = 0; i < activeCount; i++) {
+                int f = active[i];
+                if (rate[f] > 0) {
+                    completions.offer(f, since[f] + remaining[f] / rate[f]);
+                }
+            }
+        }
+
+        while (true) {
+            double nextCompletion = completions.isEmpty() ? Double.POSITIVE_INFINITY : completions.peekKey();
+            // Flows added with a start time in the past of a resumed run start right away
+            double arrivalTime = nextArrival < order.length
+                    ? Math.max(now, start[order[nextArrival]]) : Double.POSITIVE_INFINITY;
+            double eventTime = Math.min(Math.min(nextCompletion, arrivalTime), until);
+            if (eventTime == Double.POSITIVE_INFINITY) {
+                break; // nothing left that can progress
+            }
+            boolean tick = nextTick <= eventTime;
+            if (tick) {
+                eventTime = nextTick;
+                nextTick += tickInterval;
+            }
+            if (activeCount == 0 && arrivalTime == Double.POSITIVE_INFINITY) {
+                break;
+            }
+
+            if (pacing > 0) {
+                long dueNanos = wallStart + (long) ((eventTime - simStart) / pacing * 1e9);
+                long waitNanos = dueNanos - System.nanoTime();
+                if (waitNanos > 0) {
+                    Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+                }
+            }
+
+            SimulationTickEvent event = new SimulationTickEvent();
+            event.begin();
+            boolean changed = advanceTo(eventTime);
+            while (nextArrival < order.length && start[order[nextArrival]] <= now) {
+                int f = order[nextArrival++];
+                if (path[f].length == 0) {
+                    remaining[f] = 0.0; // source and destination coincide
+                    finish[f] = now;
+                } else {
+                    activeIndex[f] = activeCount;
+                    active[activeCount++] = f;
+                    rate[f] = 0.0;
+                    since[f] = now;
+                }
+                changed = true;
+            }
+            if (changed) {
+                allocateRates();
+            }
+            EngineMetrics.simulationTick();
+            if (event.shouldCommit()) {
+                event.simulatedTime = now;
+                event.activeFlows = activeCount;
+                event.reallocated = changed;
+                event.commit();
+            }
+            if ((changed || tick) && listener != null) {
+                listener.onUpdate(now, this);
+            }
+            if (now >= until) {
+                break;
+            }
+        }
+        return now;
+    }
+
+    public double run() throws InterruptedException {
+        return run(Double.POSITIVE_INFINITY);
+    }
+
+    private int[] arrivalOrder() {
+        boolean[] started = new boolean[flowCount];
+        for (int i = 0; i < activeCount; i++) {
+            started[active[i]] = true;
+        }
+        int count = 0;
+        Integer[] pending = new Integer[flowCount];
+        for (int f = 0; f < flowCount; f++) {
+            if (!started[f] && Double.isNaN(finish[f])) {
+                pending[count++] = f;
+            }
+        }
+        Integer[] sorted = Arrays.copyOf(pending, count);
+        Arrays.sort(sorted, Comparator.comparingDouble(f -> start[f])); // stable, ties keep id order
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = sorted[i];
+        }
+        return order;
+    }
+
+    // Bytes the flow still has to send at time t, at its current rate
+    private double remainingAt(int f, double t) {
+        return Math.max(0.0, remaining[f] - rate[f] * (t - since[f]));
+    }
+
+    // Moves the clock to t and retires the flows done by then; returns true if any finished
+    private boolean advanceTo(double t) {
+        now = t;
+        boolean finished = false;
+        while (!completions.isEmpty()) {
+            int f = completions.peek();
+            if (completions.peekKey() > t && remainingAt(f, t) > DONE_EPS * Math.max(1.0, size[f])) {
+                break;
+            }
+            completions.poll();
+            remaining[f] = 0.0;
+            since[f] = t;
+            finish[f] = t;
+            int last = active[--activeCount];
+            active[activeIndex[f]] = last;
+            activeIndex[last] = activeIndex[f];
+            finished = true;
+        }
+        return finished;
+    }
+
+    /**
+     * Max-min fair rates by progressive filling: repeatedly take the link with the
+     * smallest fair share among flows not yet fixed off the shares heap, fix those flows
+     * at that share and remove their rate from every link they cross. Only flows whose
+     * rate changed are re-keyed in the completion heap.
+     */
+    private void allocateRates() {
+        double[] load = graph.load;
+        int previousCount = touchedCount;
+        if (journal != null) {
+            System.arraycopy(touchedLinks, 0, previousLinks, 0, touchedCount);
+        }
+        for (int k = 0; k < touchedCount; k++) {
+            int e = touchedLinks[k];
+            load[e] = 0.0;
+            linkFlowCount[e] = 0;
+            graph.markDirty(e);
+        }
+        touchedCount = 0;
+
+        // Link -> flows incidence (CSR over the links in use)
+        for (int i = 0; i < activeCount; i++) {
+            int f = active[i];
+            frozen[f] = false;
+            fairRate[f] = 0.0;
+            for (int e : path[f]) {
+                if (linkFlowCount[e]++ == 0) {
+                    touchedLinks[touchedCount++] = e;
+                }
+            }
+        }
+        int total = 0;
+        for (int k = 0; k < touchedCount; k++) {
+            int e = touchedLinks[k];
+            linkFlowStart[e] = total;
+            total += linkFlowCount[e];
+            unfrozen[e] = 0;
+            residual[e] = Math.max(0.0, graph.capacityOr(e, 0.0));
+        }
+        if (linkFlows.length < total) {
+            linkFlows = new int[Math.max(total, linkFlows.length * 2)];
+        }
+        for (int i = 0; i < activeCount; i++) {
+            int f = active[i];
+            for (int e : path[f]) {
+                linkFlows[linkFlowStart[e] + unfrozen[e]++] = f;
+            }
+        }
+
+        shares.clear();
+        for (int k = 0; k < touchedCount; k++) {
+            int e = touchedLinks[k];
+            shares.offer(e, residual[e] / unfrozen[e]);
+        }
+        while (!shares.isEmpty()) {
+            double share = shares.peekKey();
+            int bottleneck = shares.poll();
+            int from = linkFlowStart[bottleneck];
+            for (int j = from; j < from + linkFlowCount[bottleneck]; j++) {
+                int f = linkFlows[j];
+                if (frozen[f]) {
+                    continue;
+                }
+                frozen[f] = true;
+                fairRate[f] = share;
+                for (int e : path[f]) {
+                    residual[e] = Math.max(0.0, residual[e] - share);
+                    unfrozen[e]--;
+                    load[e] += share;
+                    if (e == bottleneck) {
+                        continue;
+                    }
+                    if (unfrozen[e] == 0) {
+                        shares.remove(e);
+                    } else {
+                        shares.update(e, residual[e] / unfrozen[e]);
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < activeCount; i++) {
+            int f = active[i];
+            if (fairRate[f] != rate[f]) {
+                remaining[f] = remainingAt(f, now);
+                since[f] = now;
+                rate[f] = fairRate[f];
+                if (rate[f] > 0) {
+                    completions.update(f, now + remaining[f] / rate[f]);
+                } else {
+                    completions.remove(f);
+                }
+            }
+        }
+        for (int k = 0; k < touchedCount; k++) {
+            graph.markDirty(touchedLinks[k]);
+        }
+        if (journal != null) {
+            journal.time(now + journalOffset);
+            for (int k = 0; k < previousCount; k++) {
+                if (linkFlowCount[previousLinks[k]] == 0) {
+                    journal.load(previousLinks[k], 0.0); // no longer in use
+                }
+            }
+            for (int k = 0; k < touchedCount; k++) {
+                journal.load(touchedLinks[k], load[touchedLinks[k]]);
+            }
+        }
+    }
+}
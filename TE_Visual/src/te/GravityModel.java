@@ -0,0 +1,72 @@
+package te;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Gravity-model traffic matrices: demand(s, d) is proportional to mass(s) * mass(d), where a
+ * node's mass is its outgoing capacity times a random factor. To keep routing cost bounded on
+ * large graphs only the maxDestinations heaviest nodes receive traffic.
+ */
+public final class GravityModel {
+    private GravityModel() {
+    }
+
+    public static TrafficMatrix generate(CompactGraph graph, double totalDemand, int maxDestinations, long seed) {
+        Random random = new Random(seed);
+        int n = graph.nodeCount();
+        double[] mass = new double[n];
+        for (int e = 0; e < graph.edgeCount(); e++) {
+            mass[graph.edgeFrom[e]] += graph.capacityOr(e, 1.0);
+        }
+        for (int v = 0; v < n; v++) {
+            mass[v] *= 0.5 + random.nextDouble();
+        }
+
+        int[] destinations = heaviest(mass, Math.min(n, maxDestinations));
+        double sourceMass = 0.0;
+        for (double m : mass) {
+            sourceMass += m;
+        }
+        double destMass = 0.0;
+        for (int d : destinations) {
+            destMass += mass[d];
+        }
+
+        TrafficMatrix matrix = new TrafficMatrix(n);
+        if (sourceMass == 0.0 || destMass == 0.0) {
+            return matrix;
+        }
+        double scale = totalDemand / (sourceMass * destMass);
+        for (int d : destinations) {
+            for (int s = 0; s < n; s++) {
+                matrix.add(s, d, scale * mass[s] * mass[d]);
+            }
+        }
+        return matrix;
+    }
+
+    /** Total demand that loads the network to about the given fraction of its capacity. */
+    public static double demandForLoad(CompactGraph graph, double fraction) {
+        double capacity = 0.0;
+        for (int e = 0; e < graph.edgeCount(); e++) {
+            capacity += graph.capacityOr(e, 1.0);
+        }
+        // Each unit of demand crosses several links; sqrt(n) is a rough mean hop count
+        return fraction * capacity / Math.max(1.0, Math.sqrt(graph.nodeCount()));
+    }
+
+    private static int[] heaviest(double[] mass, int count) {
+        Integer[] order = new Integer[mass.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(mass[b], mass[a]));
+        int[] result = new int[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = order[i];
+        }
+        Arrays.sort(result);
+        return result;
+    }
+}
@@ -0,0 +1,145 @@
+package te;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap over ids 0..n-1 (nodes, links or flows) with double keys and
+ * decrease-key; update and remove also move an id the other way or take it out.
+ * All storage is allocated once, so repeated shortest-path runs do not allocate.
+ */
+final class IndexedMinHeap {
+    private final int[] heap;
+    private final int[] position; // index in heap, -1 when not queued
+    private final double[] key;
+    private int size;
+
+    IndexedMinHeap(int capacity) {
+        heap = new int[capacity];
+        position = new int[capacity];
+        key = new double[capacity];
+        Arrays.fill(position, -1);
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    boolean contains(int node) {
+        return position[node] >= 0;
+    }
+
+    /** Inserts the node, or lowers its key if it is already queued with a larger one. */
+    void offer(int node, double k) {
+        int pos = position[node];
+        if (pos < 0) {
+            pos = size++;
+            heap[pos] = node;
+            position[node] = pos;
+            key[node] = k;
+            siftUp(pos);
+        } else if (k < key[node]) {
+            key[node] = k;
+            siftUp(pos);
+        }
+    }
+
+    /** Sets the key of the id, queued or not, and restores the heap order either way. */
+    void update(int id, double k) {
+        int pos = position[id];
+        if (pos < 0) {
+            offer(id, k);
+            return;
+        }
+        double old = key[id];
+        key[id] = k;
+        if (k < old) {
+            siftUp(pos);
+        } else if (k > old) {
+            siftDown(pos);
+        }
+    }
+
+    /** Takes the id out of the heap; a no-op when it is not queued. */
+    void remove(int id) {
+        int pos = position[id];
+        if (pos < 0) {
+            return;
+        }
+        position[id] = -1;
+        int last = heap[--size];
+        if (pos < size) {
+            heap[pos] = last;
+            position[last] = pos;
+            siftUp(pos);
+            siftDown(position[last]);
+        }
+    }
+
+    /** The id with the smallest key; the heap must not be empty. */
+    int peek() {
+        return heap[0];
+    }
+
+    double peekKey() {
+        return key[heap[0]];
+    }
+
+    int poll() {
+        int top = heap[0];
+        position[top] = -1;
+        int last = heap[--size];
+        if (size > 0) {
+            heap[0] = last;
+            position[last] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            position[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    private void siftUp(int pos) {
+        int node = heap[pos];
+        double k = key[node];
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            int p = heap[parent];
+            if (key[p] <= k) {
+                break;
+            }
+            heap[pos] = p;
+            position[p] = pos;
+            pos = parent;
+        }
+        heap[pos] = node;
+        position[node] = pos;
+    }
+
+    private void siftDown(int pos) {
+        int node = heap[pos];
+        double k = key[node];
+        int half = size >>> 1;
+        while (pos < half) {
+            int child = 2 * pos + 1;
+            int c = heap[child];
+            int right = child + 1;
+            if (right < size && key[heap[right]] < key[c]) {
+                child = right;
+                c = heap[child];
+            }
+            if (k <= key[c]) {
+                break;
+            }
+            heap[pos] = c;
+            position[c] = pos;
+            pos = child;
+        }
+        heap[pos] = node;
+        position[node] = pos;
+    }
+}
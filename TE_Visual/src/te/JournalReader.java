@@ -0,0 +1,93 @@
+package te;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only view of an EventJournal file through a memory mapping, in windows of 1 GB so
+ * journals of any length can be read. Records are addressed by index; a trailing partial
+ * record (a run that was killed mid-write) is not counted.
+ */
+public final class JournalReader {
+    private static final int CHUNK_SHIFT = 30; // a multiple of the record size, so no record straddles two windows
+    private static final long MASK = (1L << CHUNK_SHIFT) - 1;
+
+    private final int edgeCount;
+    private final long startMillis;
+    private final long recordCount;
+    private final ByteBuffer[] chunks;
+
+    private JournalReader(int edgeCount, long startMillis, long recordCount, ByteBuffer[] chunks) {
+        this.edgeCount = edgeCount;
+        this.startMillis = startMillis;
+        this.recordCount = recordCount;
+        this.chunks = chunks;
+    }
+
+    public static JournalReader open(String filePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < EventJournal.HEADER_BYTES) {
+                throw new IOException("Not an event journal: " + filePath);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, EventJournal.HEADER_BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getLong() != EventJournal.MAGIC) {
+                throw new IOException("Not an event journal: " + filePath);
+            }
+            int version = header.getInt();
+            int recordBytes = header.getInt();
+            // Version 1 lacks only the CAPACITY records, so it replays as is
+            if (version < 1 || version > EventJournal.VERSION || recordBytes != EventJournal.RECORD_BYTES) {
+                throw new IOException("Unsupported journal version " + version + ": " + filePath);
+            }
+            int edgeCount = header.getInt();
+            header.getInt();
+            long startMillis = header.getLong();
+
+            long length = size - EventJournal.HEADER_BYTES;
+            long records = length / EventJournal.RECORD_BYTES;
+            length = records * EventJournal.RECORD_BYTES;
+            ByteBuffer[] chunks = new ByteBuffer[(int) ((length + MASK) >>> CHUNK_SHIFT)];
+            for (int c = 0; c < chunks.length; c++) {
+                long offset = (long) c << CHUNK_SHIFT;
+                chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, EventJournal.HEADER_BYTES + offset,
+                        Math.min(1L << CHUNK_SHIFT, length - offset)).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            return new JournalReader(edgeCount, startMillis, records, chunks);
+        }
+    }
+
+    public int edgeCount() {
+        return edgeCount;
+    }
+
+    /** When the recording started, in epoch milliseconds. */
+    public long startMillis() {
+        return startMillis;
+    }
+
+    public long recordCount() {
+        return recordCount;
+    }
+
+    /** One of EventJournal.LOAD, WEIGHT, CAPACITY, MOVE, PHI or TIME. */
+    public int type(long record) {
+        long offset = record * EventJournal.RECORD_BYTES;
+        return chunks[(int) (offset >>> CHUNK_SHIFT)].getInt((int) (offset & MASK));
+    }
+
+    public int element(long record) {
+        long offset = record * EventJournal.RECORD_BYTES + 4;
+        return chunks[(int) (offset >>> CHUNK_SHIFT)].getInt((int) (offset & MASK));
+    }
+
+    public double value(long record) {
+        long offset = record * EventJournal.RECORD_BYTES + 8;
+        return chunks[(int) (offset >>> CHUNK_SHIFT)].getDouble((int) (offset & MASK));
+    }
+}
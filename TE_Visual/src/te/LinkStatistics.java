@@ -0,0 +1,322 @@
+package te;
+
+import java.util.Arrays;
+
+/**
+ * Link load statistics kept up to date from dirty-edge marks instead of rescanned. Engines
+ * only mark edges (see CompactGraph.markDirty); a reader folds the marked edges in before
+ * answering, so a read costs O(changes * log m) plus O(1) for sums, min and max, a constant
+ * histogram scan for percentiles and O(K log K) for the K most-loaded links.
+ *
+ * Per link it tracks the load in Bps and the utilization in percent of capacity (links
+ * without a capacity count as capacity 1, like the statistics window always did). Min and
+ * max come from tournament trees over the link ids; percentiles from a utilization
+ * histogram with 0.1% bins below 100% and bins 0.1% apart in relative terms above it
+ * (overloaded links during a search easily reach several hundred percent). The congestion cost (Phi) is
+ * kept as a running sum of the per-link CongestionCost.phi terms.
+ */
+public final class LinkStatistics implements AutoCloseable {
+    private static final int BINS_PER_PERCENT = 10;
+    private static final int LINEAR_BINS = 100 * BINS_PER_PERCENT;
+    private static final double LOG_RATIO = Math.log(1.001);
+    // Geometric bins from 100% up to 10^6 %, then one overflow bin
+    private static final int OVERFLOW_BIN = LINEAR_BINS + (int) Math.ceil(Math.log(1e4) / LOG_RATIO);
+    // Running sums are rebuilt exactly this often to stop rounding drift, as in CongestionCost
+    private static final int RESUM_INTERVAL = 4096;
+
+    private final CompactGraph graph;
+    private final DirtyEdges dirty;
+    private final int[] drained;
+    private final int linkCount;
+    private final int leaves;
+
+    private final double[] utilization;
+    private final double[] load;
+    private final double[] phi;
+    private final int[] bin;
+    private final long[] histogram = new long[OVERFLOW_BIN + 1];
+    private double utilizationSum;
+    private double loadSum;
+    private double phiSum;
+    private int updatesSinceResum;
+
+    // Tournament trees: node i holds the winning link id of its subtree, -1 for padding
+    private final int[] maxUtilization;
+    private final int[] minUtilization;
+    private final int[] maxLoad;
+    private final int[] minLoad;
+
+    public LinkStatistics(CompactGraph graph) {
+        this.graph = graph;
+        this.linkCount = graph.edgeCount();
+        this.dirty = new DirtyEdges(linkCount);
+        this.drained = new int[linkCount];
+        this.leaves = Integer.highestOneBit(Math.max(1, linkCount - 1)) << 1;
+        this.utilization = new double[linkCount];
+        this.load = new double[linkCount];
+        this.phi = new double[linkCount];
+        this.bin = new int[linkCount];
+        this.maxUtilization = new int[2 * leaves];
+        this.minUtilization = new int[2 * leaves];
+        this.maxLoad = new int[2 * leaves];
+        this.minLoad = new int[2 * leaves];
+        graph.addDirtyEdges(dirty);
+        rebuild();
+    }
+
+    /** Stops listening to the graph. */
+    @Override
+    public void close() {
+        graph.removeDirtyEdges(dirty);
+    }
+
+    public int linkCount() {
+        return linkCount;
+    }
+
+    public synchronized double averageUtilization() {
+        refresh();
+        return linkCount > 0 ? utilizationSum / linkCount : 0.0;
+    }
+
+    public synchronized double minUtilization() {
+        refresh();
+        return linkCount > 0 ? utilization[minUtilization[1]] : 0.0;
+    }
+
+    public synchronized double maxUtilization() {
+        refresh();
+        return linkCount > 0 ? utilization[maxUtilization[1]] : 0.0;
+    }
+
+    public synchronized double averageLoad() {
+        refresh();
+        return linkCount > 0 ? loadSum / linkCount : 0.0;
+    }
+
+    public synchronized double minLoad() {
+        refresh();
+        return linkCount > 0 ? load[minLoad[1]] : 0.0;
+    }
+
+    public synchronized double maxLoad() {
+        refresh();
+        return linkCount > 0 ? load[maxLoad[1]] : 0.0;
+    }
+
+    /** Same value as CongestionCost.evaluate, without the pass over all links. */
+    public synchronized double phi() {
+        refresh();
+        return phiSum;
+    }
+
+    /**
+     * Nearest-rank utilization percentile (p in 0..100), exact to the bin width.
+     * Values beyond the histogram range report the maximum utilization.
+     */
+    public synchronized double percentileUtilization(double p) {
+        refresh();
+        if (linkCount == 0) {
+            return 0.0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(p / 100.0 * linkCount));
+        long seen = 0;
+        for (int b = 0; b < OVERFLOW_BIN; b++) {
+            seen += histogram[b];
+            if (seen >= rank) {
+                // Upper edge of the bin, but never above what any link actually has
+                return Math.min(upperEdge(b), utilization[maxUtilization[1]]);
+            }
+        }
+        return utilization[maxUtilization[1]];
+    }
+
+    /** The k links with the highest utilization, most loaded first. */
+    public synchronized int[] mostLoaded(int k) {
+        refresh();
+        k = Math.min(k, linkCount);
+        int[] result = new int[k];
+        if (k == 0) {
+            return result;
+        }
+        // Best-first walk down the max tree: a heap of tree nodes keyed by their winner
+        int[] heap = new int[2 * k + 2];
+        int size = 0;
+        heap[size++] = 1;
+        for (int found = 0; found < k; ) {
+            int node = heap[0];
+            heap[0] = heap[--size];
+            siftDown(heap, size, 0);
+            if (node >= leaves) {
+                result[found++] = maxUtilization[node];
+                continue;
+            }
+            if (size + 2 > heap.length) {
+                heap = Arrays.copyOf(heap, heap.length * 2);
+            }
+            for (int child = 2 * node; child <= 2 * node + 1; child++) {
+                if (maxUtilization[child] >= 0) {
+                    heap[size] = child;
+                    siftUp(heap, size++);
+                }
+            }
+        }
+        return result;
+    }
+
+    // Folds in every link marked since the last read
+    private void refresh() {
+        int count = dirty.drain(drained);
+        for (int k = 0; k < count; k++) {
+            set(drained[k]);
+        }
+        updatesSinceResum += count;
+        if (updatesSinceResum >= RESUM_INTERVAL) {
+            resum();
+        }
+    }
+
+    private void rebuild() {
+        Arrays.fill(histogram, 0);
+        Arrays.fill(maxUtilization, -1);
+        Arrays.fill(minUtilization, -1);
+        Arrays.fill(maxLoad, -1);
+        Arrays.fill(minLoad, -1);
+        for (int e = 0; e < linkCount; e++) {
+            utilization[e] = utilizationOf(e);
+            load[e] = graph.load[e];
+            phi[e] = phiOf(e);
+            bin[e] = binOf(utilization[e]);
+            histogram[bin[e]]++;
+            int leaf = leaves + e;
+            maxUtilization[leaf] = minUtilization[leaf] = maxLoad[leaf] = minLoad[leaf] = e;
+        }
+        for (int node = leaves - 1; node >= 1; node--) {
+            pull(node);
+        }
+        resum();
+    }
+
+    private void set(int e) {
+        double u = utilizationOf(e);
+        double l = graph.load[e];
+        double c = phiOf(e);
+        utilizationSum += u - utilization[e];
+        loadSum += l - load[e];
+        phiSum += c - phi[e];
+        utilization[e] = u;
+        load[e] = l;
+        phi[e] = c;
+        int b = binOf(u);
+        if (b != bin[e]) {
+            histogram[bin[e]]--;
+            histogram[b]++;
+            bin[e] = b;
+        }
+        for (int node = (leaves + e) >>> 1; node >= 1; node >>>= 1) {
+            pull(node);
+        }
+    }
+
+    private void pull(int node) {
+        int a = 2 * node;
+        int b = a + 1;
+        maxUtilization[node] = pick(maxUtilization[a], maxUtilization[b], utilization, true);
+        minUtilization[node] = pick(minUtilization[a], minUtilization[b], utilization, false);
+        maxLoad[node] = pick(maxLoad[a], maxLoad[b], load, true);
+        minLoad[node] = pick(minLoad[a], minLoad[b], load, false);
+    }
+
+    // Winner of two subtrees; ties go to the lower link id so results are reproducible
+    private static int pick(int a, int b, double[] values, boolean max) {
+        if (a < 0) {
+            return b;
+        }
+        if (b < 0) {
+            return a;
+        }
+        int c = Double.compare(values[a], values[b]);
+        if (c == 0) {
+            return Math.min(a, b);
+        }
+        return (c > 0) == max ? a : b;
+    }
+
+    private void resum() {
+        utilizationSum = 0.0;
+        loadSum = 0.0;
+        phiSum = 0.0;
+        for (int e = 0; e < linkCount; e++) {
+            utilizationSum += utilization[e];
+            loadSum += load[e];
+            phiSum += phi[e];
+        }
+        updatesSinceResum = 0;
+    }
+
+    private double utilizationOf(int e) {
+        double capacity = graph.capacityOr(e, 1.0);
+        return capacity > 0 ? graph.load[e] / capacity * 100 : 0.0;
+    }
+
+    private double phiOf(int e) {
+        return CongestionCost.phi(graph.load[e] / graph.capacityOr(e, 1.0));
+    }
+
+    private static int binOf(double utilization) {
+        if (!(utilization >= 0)) {
+            return 0;
+        }
+        if (utilization < 100) {
+            return (int) (utilization * BINS_PER_PERCENT);
+        }
+        return (int) Math.min(OVERFLOW_BIN, LINEAR_BINS + Math.log(utilization / 100) / LOG_RATIO);
+    }
+
+    private static double upperEdge(int bin) {
+        return bin < LINEAR_BINS ? (bin + 1.0) / BINS_PER_PERCENT : 100 * Math.exp((bin - LINEAR_BINS + 1) * LOG_RATIO);
+    }
+
+    private void siftUp(int[] heap, int i) {
+        int node = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!before(node, heap[parent])) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = node;
+    }
+
+    private void siftDown(int[] heap, int size, int i) {
+        if (size == 0) {
+            return;
+        }
+        int node = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && before(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!before(heap[child], node)) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = node;
+    }
+
+    // Heap order for the top-K walk: higher utilization first, then lower link id
+    private boolean before(int nodeA, int nodeB) {
+        int a = maxUtilization[nodeA];
+        int b = maxUtilization[nodeB];
+        int c = Double.compare(utilization[a], utilization[b]);
+        return c != 0 ? c > 0 : a < b;
+    }
+}
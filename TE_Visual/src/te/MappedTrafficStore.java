@@ -0,0 +1,371 @@
+package te;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Traffic matrices kept in a memory-mapped file instead of on the Java heap, so a
+ * 5,000-node dense matrix (25 M values) or a day of them costs the heap only a few arrays
+ * of node size. The demands are grouped by destination, as the routings consume them, and
+ * all matrices of the file sit side by side: the K values of one (source, destination)
+ * pair are adjacent, like in TrafficSeries. One destination of every matrix is therefore
+ * one sequential read.
+ *
+ * Two layouts: SPARSE stores the pairs that have demand in some matrix (CSR per
+ * destination, one source index per pair); DENSE stores every pair, n values per
+ * destination and matrix, and no indices at all. Values are doubles, or floats to halve
+ * the file.
+ *
+ * <pre>
+ * header   magic "TETRAF01", version, layout, value bytes, nodeCount, matrixCount,
+ *          destinationCount, pairCount (64 bytes)
+ * sparse   int[D] destinations, int[D + 1] destStart, int[S] sources (each padded to 8)
+ * values   float or double [S * K], pair-major, matrix index fastest
+ * </pre>
+ *
+ * matrix(k) and series() return views over the mapping; the routings read them through
+ * TrafficMatrix.addDemandsTo and TrafficSeries.addDemandsTo without copying.
+ */
+public final class MappedTrafficStore {
+    public enum Layout {
+        SPARSE, DENSE
+    }
+
+    private static final long MAGIC = 0x5445545241463031L; // "TETRAF01"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int CHUNK_SHIFT = 30; // sections are mapped in windows of 1 GB
+    private static final int WRITE_BUFFER_BYTES = 1 << 20;
+
+    private final Layout layout;
+    private final int nodeCount;
+    private final int matrixCount;
+    private final int[] destinations;
+    private final int[] destStart; // pair index range of each destination; d * n when dense
+    private final Region sources; // null when dense
+    private final Region values;
+    private final boolean singlePrecision;
+
+    private MappedTrafficStore(Layout layout, int nodeCount, int matrixCount, int[] destinations, int[] destStart,
+                               Region sources, Region values, boolean singlePrecision) {
+        this.layout = layout;
+        this.nodeCount = nodeCount;
+        this.matrixCount = matrixCount;
+        this.destinations = destinations;
+        this.destStart = destStart;
+        this.sources = sources;
+        this.values = values;
+        this.singlePrecision = singlePrecision;
+    }
+
+    public Layout layout() {
+        return layout;
+    }
+
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    public int matrixCount() {
+        return matrixCount;
+    }
+
+    /** Stored pairs: n * n when dense. */
+    public long pairCount() {
+        return destStart[destinations.length];
+    }
+
+    /** Matrix k, read from the mapping. */
+    public TrafficMatrix matrix(int k) {
+        if (k < 0 || k >= matrixCount) {
+            throw new IndexOutOfBoundsException("Matrix " + k + " of " + matrixCount);
+        }
+        return new TrafficMatrix(this, k);
+    }
+
+    /** All matrices as one series, read from the mapping. */
+    public TrafficSeries series() {
+        return new TrafficSeries(this);
+    }
+
+    int[] destinations() {
+        return destinations;
+    }
+
+    int[] destStart() {
+        return destStart;
+    }
+
+    int source(int pair, int d) {
+        return sources != null ? sources.getInt(pair) : pair - destStart[d];
+    }
+
+    double value(int pair, int k) {
+        long index = (long) pair * matrixCount + k;
+        return singlePrecision ? values.getFloat(index) : values.getDouble(index);
+    }
+
+    /** Adds the demand of matrix k toward destination index d to nodeFlow[source]. */
+    void addDemandsTo(int d, int k, double[] nodeFlow) {
+        int start = destStart[d];
+        int end = destStart[d + 1];
+        for (int i = start; i < end; i++) {
+            double amount = value(i, k);
+            if (amount != 0.0) {
+                nodeFlow[source(i, d)] += amount;
+            }
+        }
+    }
+
+    /** Adds the demand of every matrix toward destination index d to nodeFlow[source * K + k]. */
+    void addDemandsTo(int d, double[] nodeFlow) {
+        int start = destStart[d];
+        int end = destStart[d + 1];
+        for (int i = start; i < end; i++) {
+            int base = source(i, d) * matrixCount;
+            long index = (long) i * matrixCount;
+            for (int k = 0; k < matrixCount; k++) {
+                nodeFlow[base + k] += singlePrecision ? values.getFloat(index + k) : values.getDouble(index + k);
+            }
+        }
+    }
+
+    /** Sets nodeFlow[source] to 0 for every source with a pair toward destination index d. */
+    void clearSources(int d, double[] nodeFlow) {
+        for (int i = destStart[d]; i < destStart[d + 1]; i++) {
+            nodeFlow[source(i, d)] = 0.0;
+        }
+    }
+
+    /**
+     * Writes series to a store file: a temporary file moved into place, streamed through a
+     * small buffer. singlePrecision stores floats, which round amounts to 24 bits.
+     */
+    public static void write(String filePath, TrafficSeries series, Layout layout, boolean singlePrecision)
+            throws IOException {
+        int n = series.nodeCount();
+        int k = series.matrixCount();
+        int destinationCount = layout == Layout.DENSE ? n : series.destinationCount();
+        long pairCount = layout == Layout.DENSE ? (long) n * n : series.destStart()[series.destinationCount()];
+        if (pairCount > Integer.MAX_VALUE) {
+            throw new IOException("Too many node pairs for a traffic store: " + pairCount);
+        }
+
+        Path target = Paths.get(filePath);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Out out = new Out(channel);
+            out.reserve(HEADER_BYTES);
+            out.buffer.putLong(MAGIC).putInt(VERSION).putInt(layout.ordinal()).putInt(singlePrecision ? 4 : 8)
+                    .putInt(n).putInt(k).putInt(destinationCount).putLong(pairCount);
+            out.pad(HEADER_BYTES);
+            if (layout == Layout.SPARSE) {
+                out.ints(series.destinations(), destinationCount);
+                out.ints(series.destStart(), destinationCount + 1);
+                out.ints(series.destSources(), (int) pairCount);
+                double[] amounts = series.amounts();
+                for (long i = 0; i < pairCount * k; i++) {
+                    out.value(amounts[(int) i], singlePrecision);
+                }
+            } else {
+                writeDense(out, series, singlePrecision);
+            }
+            out.flush();
+            channel.force(true);
+        }
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // One destination at a time: scatter its pairs into an n x K block, then stream the block
+    private static void writeDense(Out out, TrafficSeries series, boolean singlePrecision) throws IOException {
+        int n = series.nodeCount();
+        int k = series.matrixCount();
+        int[] destStart = series.destStart();
+        int[] destSources = series.destSources();
+        double[] amounts = series.amounts();
+        double[] block = new double[n * k];
+        int d = 0;
+        for (int v = 0; v < n; v++) {
+            Arrays.fill(block, 0.0);
+            if (d < series.destinationCount() && series.destination(d) == v) {
+                for (int i = destStart[d]; i < destStart[d + 1]; i++) {
+                    System.arraycopy(amounts, i * k, block, destSources[i] * k, k);
+                }
+                d++;
+            }
+            for (double value : block) {
+                out.value(value, singlePrecision);
+            }
+        }
+    }
+
+    public static MappedTrafficStore open(String filePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                throw new IOException("Not a traffic store: " + filePath);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getLong() != MAGIC) {
+                throw new IOException("Not a traffic store: " + filePath);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported traffic store version " + version + ": " + filePath);
+            }
+            int layoutIndex = header.getInt();
+            int valueBytes = header.getInt();
+            int n = header.getInt();
+            int k = header.getInt();
+            int destinationCount = header.getInt();
+            long pairCount = header.getLong();
+            if (layoutIndex < 0 || layoutIndex >= Layout.values().length || (valueBytes != 4 && valueBytes != 8)
+                    || n < 0 || k < 1 || destinationCount < 0 || pairCount < 0 || pairCount > Integer.MAX_VALUE) {
+                throw new IOException("Corrupt traffic store header: " + filePath);
+            }
+            Layout layout = Layout.values()[layoutIndex];
+
+            long position = HEADER_BYTES;
+            int[] destinations;
+            int[] destStart;
+            Region sources = null;
+            if (layout == Layout.SPARSE) {
+                long indexBytes = align(4L * destinationCount) + align(4L * (destinationCount + 1)) + align(4L * pairCount);
+                if (size < position + indexBytes) {
+                    throw new IOException("Truncated traffic store: " + filePath);
+                }
+                destinations = readInts(channel, position, destinationCount);
+                position += align(4L * destinationCount);
+                destStart = readInts(channel, position, destinationCount + 1);
+                position += align(4L * (destinationCount + 1));
+                sources = new Region(channel, position, 4L * pairCount);
+                position += align(4L * pairCount);
+            } else {
+                destinations = new int[n];
+                destStart = new int[n + 1];
+                for (int v = 0; v < n; v++) {
+                    destinations[v] = v;
+                    destStart[v + 1] = (v + 1) * n;
+                }
+            }
+            long valueSection = pairCount * k * valueBytes;
+            if (size < position + valueSection || destStart[destinationCount] != pairCount) {
+                throw new IOException("Truncated traffic store: " + filePath);
+            }
+            Region values = new Region(channel, position, valueSection);
+            return new MappedTrafficStore(layout, n, k, destinations, destStart, sources, values, valueBytes == 4);
+        }
+    }
+
+    private static int[] readInts(FileChannel channel, long position, int count) throws IOException {
+        int[] values = new int[count];
+        channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * count).order(ByteOrder.LITTLE_ENDIAN)
+                .asIntBuffer().get(values);
+        return values;
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    // A file section mapped in 1 GB windows; element sizes divide the window, so no value straddles two
+    private static final class Region {
+        private static final long MASK = (1L << CHUNK_SHIFT) - 1;
+
+        private final ByteBuffer[] chunks;
+
+        Region(FileChannel channel, long position, long length) throws IOException {
+            int count = (int) ((length + MASK) >>> CHUNK_SHIFT);
+            chunks = new ByteBuffer[count];
+            for (int c = 0; c < count; c++) {
+                long offset = (long) c << CHUNK_SHIFT;
+                chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, position + offset,
+                        Math.min(1L << CHUNK_SHIFT, length - offset)).order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+
+        int getInt(long index) {
+            long offset = index << 2;
+            return chunks[(int) (offset >>> CHUNK_SHIFT)].getInt((int) (offset & MASK));
+        }
+
+        float getFloat(long index) {
+            long offset = index << 2;
+            return chunks[(int) (offset >>> CHUNK_SHIFT)].getFloat((int) (offset & MASK));
+        }
+
+        double getDouble(long index) {
+            long offset = index << 3;
+            return chunks[(int) (offset >>> CHUNK_SHIFT)].getDouble((int) (offset & MASK));
+        }
+    }
+
+    // Sequential little-endian writes through one reusable buffer
+    private static final class Out {
+        private final FileChannel channel;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        private long written;
+
+        Out(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void reserve(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void ints(int[] values, int count) throws IOException {
+            for (int i = 0; i < count; i++) {
+                reserve(4);
+                buffer.putInt(values[i]);
+            }
+            pad(align(position()));
+        }
+
+        void value(double value, boolean singlePrecision) throws IOException {
+            reserve(8);
+            if (singlePrecision) {
+                buffer.putFloat((float) value);
+            } else {
+                buffer.putDouble(value);
+            }
+        }
+
+        // Zero-fills up to the absolute file offset end
+        void pad(long end) throws IOException {
+            while (position() < end) {
+                reserve(1);
+                buffer.put((byte) 0);
+            }
+        }
+
+        long position() {
+            return written + buffer.position();
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
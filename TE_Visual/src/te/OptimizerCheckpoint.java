@@ -0,0 +1,170 @@
+package te;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * State of a WeightOptimizer run that is enough to continue it: current and best weights,
+ * the next iteration, the random generator state, the candidate edges and the search
+ * memory. Stored as a small little-endian binary file with a CRC, written to a temporary
+ * file and moved into place, so a crash during a write leaves the previous checkpoint.
+ *
+ * <pre>
+ * header   magic "TECKPT01", version, edgeCount, maxWeight, iteration, candidateCount,
+ *          memoryCount, topology fingerprint, seed, random state, best Phi (64 bytes)
+ * body     double[m] current weights, double[m] best weights, int[c] candidate edges
+ *          (padded to 8 bytes), long[k] memory
+ * trailer  CRC32 of everything before it (8 bytes)
+ * </pre>
+ */
+public final class OptimizerCheckpoint {
+    private static final long MAGIC = 0x5445434B50543031L; // "TECKPT01"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+
+    final long fingerprint;
+    final int maxWeight;
+    final int iteration;
+    final long seed;
+    final long randomState;
+    final double bestCost;
+    final double[] currentWeights;
+    final double[] bestWeights;
+    final int[] candidateEdges;
+    final long[] memory;
+
+    OptimizerCheckpoint(long fingerprint, int maxWeight, int iteration, long seed, long randomState, double bestCost,
+                        double[] currentWeights, double[] bestWeights, int[] candidateEdges, long[] memory) {
+        this.fingerprint = fingerprint;
+        this.maxWeight = maxWeight;
+        this.iteration = iteration;
+        this.seed = seed;
+        this.randomState = randomState;
+        this.bestCost = bestCost;
+        this.currentWeights = currentWeights;
+        this.bestWeights = bestWeights;
+        this.candidateEdges = candidateEdges;
+        this.memory = memory;
+    }
+
+    /** Iterations completed when the checkpoint was taken. */
+    public int iteration() {
+        return iteration;
+    }
+
+    public double bestCost() {
+        return bestCost;
+    }
+
+    /** The candidate edges of the checkpointed run; resuming continues over the same set. */
+    public int[] candidateEdges() {
+        return candidateEdges.clone();
+    }
+
+    /** Identifies the topology (node count and edge endpoints) a checkpoint belongs to. */
+    static long fingerprint(CompactGraph graph) {
+        long h = 0xcbf29ce484222325L;
+        h = (h ^ graph.nodeCount()) * 0x100000001b3L;
+        h = (h ^ graph.edgeCount()) * 0x100000001b3L;
+        for (int e = 0; e < graph.edgeCount(); e++) {
+            h = (h ^ graph.edgeFrom[e]) * 0x100000001b3L;
+            h = (h ^ graph.edgeTo[e]) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    public void write(String filePath) throws IOException {
+        int m = currentWeights.length;
+        int bytes = HEADER_BYTES + 16 * m + (int) align(4L * candidateEdges.length) + 8 * memory.length + 8;
+        ByteBuffer buffer = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putLong(MAGIC).putInt(VERSION).putInt(m).putInt(maxWeight).putInt(iteration)
+                .putInt(candidateEdges.length).putInt(memory.length).putLong(fingerprint).putLong(seed)
+                .putLong(randomState).putDouble(bestCost);
+        buffer.position(HEADER_BYTES);
+        buffer.asDoubleBuffer().put(currentWeights);
+        buffer.position(buffer.position() + 8 * m);
+        buffer.asDoubleBuffer().put(bestWeights);
+        buffer.position(buffer.position() + 8 * m);
+        buffer.asIntBuffer().put(candidateEdges);
+        buffer.position(buffer.position() + (int) align(4L * candidateEdges.length));
+        buffer.asLongBuffer().put(memory);
+        buffer.position(buffer.position() + 8 * memory.length);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putLong(crc.getValue());
+        buffer.flip();
+
+        Path target = Paths.get(filePath);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    public static OptimizerCheckpoint read(String filePath) throws IOException {
+        byte[] data = Files.readAllBytes(Paths.get(filePath));
+        ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        if (data.length < HEADER_BYTES + 8 || buffer.getLong() != MAGIC) {
+            throw new IOException("Not an optimizer checkpoint: " + filePath);
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported checkpoint version " + version + ": " + filePath);
+        }
+        int m = buffer.getInt();
+        int maxWeight = buffer.getInt();
+        int iteration = buffer.getInt();
+        int candidateCount = buffer.getInt();
+        int memoryCount = buffer.getInt();
+        long fingerprint = buffer.getLong();
+        long seed = buffer.getLong();
+        long randomState = buffer.getLong();
+        double bestCost = buffer.getDouble();
+        long expected = HEADER_BYTES + 16L * m + align(4L * candidateCount) + 8L * memoryCount + 8;
+        if (m < 0 || candidateCount < 0 || memoryCount < 0 || data.length != expected) {
+            throw new IOException("Truncated optimizer checkpoint: " + filePath);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 8);
+        if (buffer.getLong(data.length - 8) != crc.getValue()) {
+            throw new IOException("Corrupt optimizer checkpoint: " + filePath);
+        }
+
+        buffer.position(HEADER_BYTES);
+        double[] currentWeights = new double[m];
+        double[] bestWeights = new double[m];
+        int[] candidateEdges = new int[candidateCount];
+        long[] memory = new long[memoryCount];
+        buffer.asDoubleBuffer().get(currentWeights);
+        buffer.position(buffer.position() + 8 * m);
+        buffer.asDoubleBuffer().get(bestWeights);
+        buffer.position(buffer.position() + 8 * m);
+        buffer.asIntBuffer().get(candidateEdges);
+        buffer.position(buffer.position() + (int) align(4L * candidateCount));
+        buffer.asLongBuffer().get(memory);
+        return new OptimizerCheckpoint(fingerprint, maxWeight, iteration, seed, randomState, bestCost,
+                currentWeights, bestWeights, candidateEdges, memory);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+}
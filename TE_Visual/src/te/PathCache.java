@@ -0,0 +1,168 @@
+package te;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import te.monitor.EngineMetrics;
+
+/**
+ * Shortest-path trees for interactive path queries, one tree per source and one cache
+ * per metric (link cost or weight). Trees are built on first use and evicted least
+ * recently used first.
+ *
+ * The cache listens for dirty-edge marks and compares the marked edges against the metric
+ * values its trees were built with; every real change bumps version(). A changed edge u->v
+ * only drops the trees it can affect: a raised edge the trees whose path to v uses it, a
+ * lowered edge the trees where it now gives v a shorter distance. Every other tree is still
+ * a shortest-path tree under the new metric and is kept.
+ */
+public final class PathCache implements AutoCloseable {
+    public enum Metric {
+        LINK_COST, WEIGHT
+    }
+
+    private final CompactGraph graph;
+    private final Metric metric;
+    private final ShortestPathKernel kernel;
+    private final DirtyEdges dirty;
+    private final int[] changed;
+    private final double[] previous;
+    private final double[] known; // metric values the cached trees were built with
+    private final Map<Integer, Tree> trees;
+    private long version;
+    private long hits;
+    private long misses;
+
+    private static final class Tree {
+        final double[] dist;
+        final int[] parent;
+
+        Tree(int n) {
+            dist = new double[n];
+            parent = new int[n];
+        }
+    }
+
+    public PathCache(CompactGraph graph, Metric metric, int maxSources) {
+        this.graph = graph;
+        this.metric = metric;
+        this.kernel = new ShortestPathKernel(graph);
+        int m = graph.edgeCount();
+        this.dirty = new DirtyEdges(m);
+        this.changed = new int[m];
+        this.previous = new double[m];
+        this.known = Arrays.copyOf(values(), m);
+        this.trees = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Tree> eldest) {
+                return size() > maxSources;
+            }
+        };
+        graph.addDirtyEdges(dirty);
+    }
+
+    @Override
+    public void close() {
+        graph.removeDirtyEdges(dirty);
+    }
+
+    /** Shortest path as edge ids (empty when source == target), or null when target is unreachable. */
+    public synchronized int[] path(int source, int target) {
+        Tree tree = tree(source);
+        if (tree.dist[target] == Double.POSITIVE_INFINITY) {
+            return null;
+        }
+        int length = 0;
+        for (int v = target; v != source; v = graph.edgeFrom[tree.parent[v]]) {
+            length++;
+        }
+        int[] edges = new int[length];
+        for (int v = target; v != source; v = graph.edgeFrom[tree.parent[v]]) {
+            edges[--length] = tree.parent[v];
+        }
+        return edges;
+    }
+
+    public synchronized double distance(int source, int target) {
+        return tree(source).dist[target];
+    }
+
+    /** Number of metric changes seen so far. */
+    public synchronized long version() {
+        sync();
+        return version;
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    private Tree tree(int source) {
+        sync();
+        Tree tree = trees.get(source);
+        if (tree != null) {
+            hits++;
+            EngineMetrics.cacheHit();
+            return tree;
+        }
+        misses++;
+        EngineMetrics.cacheMiss();
+        tree = new Tree(graph.nodeCount());
+        kernel.distancesFrom(source, values(), tree.dist, tree.parent);
+        trees.put(source, tree);
+        return tree;
+    }
+
+    // Folds marked edges in: keeps only real metric changes and drops the trees they affect
+    private void sync() {
+        double[] values = values();
+        int count = dirty.drain(changed);
+        int real = 0;
+        for (int k = 0; k < count; k++) {
+            int e = changed[k];
+            if (Double.compare(values[e], known[e]) != 0) {
+                previous[real] = known[e];
+                changed[real++] = e;
+                known[e] = values[e];
+            }
+        }
+        if (real == 0) {
+            return;
+        }
+        version++;
+        if (real > graph.edgeCount() / 16) {
+            trees.clear(); // a bulk change, e.g. new weights from the optimizer
+            return;
+        }
+        for (Iterator<Tree> it = trees.values().iterator(); it.hasNext(); ) {
+            Tree tree = it.next();
+            for (int k = 0; k < real; k++) {
+                if (affects(tree, changed[k], previous[k], values[changed[k]])) {
+                    it.remove();
+                    break;
+                }
+            }
+        }
+    }
+
+    private boolean affects(Tree tree, int e, double oldValue, double newValue) {
+        int u = graph.edgeFrom[e];
+        int v = graph.edgeTo[e];
+        if (newValue > oldValue) {
+            return tree.parent[v] == e;
+        }
+        double du = tree.dist[u];
+        double candidate = du + newValue;
+        return du != Double.POSITIVE_INFINITY
+                && candidate < tree.dist[v] - ShortestPathKernel.EPS * Math.max(1.0, candidate);
+    }
+
+    private double[] values() {
+        return metric == Metric.WEIGHT ? graph.weight : graph.cost;
+    }
+}
@@ -0,0 +1,286 @@
+package te;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Many independent WeightOptimizer searches at once, one virtual thread each. Search i has
+ * its own seed derived from the portfolio seed and its own start, cycling through random,
+ * unit, inverse-capacity and the graph's current weights. Every improvement is published
+ * to a shared incumbent with a compare-and-set, no lock.
+ *
+ * The searches run in epochs of setEpoch iterations and wait for each other at the end of
+ * every epoch. There, a search whose best Phi is worse than the incumbent by more than the
+ * prune margin is stopped and its thread is free for the others. Because these decisions
+ * are only taken at epoch boundaries, where every search has reached the same iteration,
+ * and the incumbent breaks ties by search index, a given seed yields the same result
+ * however the threads are scheduled. With a gap stop, every search also stops at the first
+ * epoch boundary where the incumbent is within the gap of the lower bound.
+ */
+public final class PortfolioOptimizer {
+    public enum Start {
+        RANDOM, UNIT, INVERSE_CAPACITY, CURRENT
+    }
+
+    private static final Start[] STARTS = Start.values();
+
+    /** What one search of the portfolio did. */
+    public static final class SearchOutcome {
+        public final int index;
+        public final long seed;
+        public final Start start;
+        public final double bestCost;
+        public final int iterations;
+        public final boolean pruned;
+
+        SearchOutcome(int index, long seed, Start start, double bestCost, int iterations, boolean pruned) {
+            this.index = index;
+            this.seed = seed;
+            this.start = start;
+            this.bestCost = bestCost;
+            this.iterations = iterations;
+            this.pruned = pruned;
+        }
+    }
+
+    // Best solution found by any search; replaced as a whole, never modified
+    private static final class Incumbent {
+        final double cost;
+        final int search;
+        final double[] weights;
+
+        Incumbent(double cost, int search, double[] weights) {
+            this.cost = cost;
+            this.search = search;
+            this.weights = weights;
+        }
+
+        boolean isBeatenBy(double otherCost, int otherSearch) {
+            return otherCost < cost || (otherCost == cost && otherSearch < search);
+        }
+    }
+
+    private final CompactGraph graph;
+    private final TrafficMatrix demands;
+    private int searches = 8;
+    private int maxWeight = 20;
+    private int iterations = 5000;
+    private int epoch = 250;
+    private double pruneMargin = 0.25;
+    private long seed = System.nanoTime();
+    private double sampleFraction = 1.0;
+    private int restartAfter;
+    private double lowerBound = Double.NaN;
+    private double gap;
+    private TrafficSeries series;
+    private RobustCost.Aggregate aggregate = RobustCost.Aggregate.WORST;
+
+    private final AtomicReference<Incumbent> incumbent = new AtomicReference<>();
+    private SearchOutcome[] outcomes = new SearchOutcome[0];
+
+    public PortfolioOptimizer(CompactGraph graph, TrafficMatrix demands) {
+        this.graph = graph;
+        this.demands = demands;
+    }
+
+    public void setSearches(int searches) {
+        this.searches = Math.max(1, searches);
+    }
+
+    public void setMaxWeight(int maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    public void setIterations(int iterations) {
+        this.iterations = iterations;
+    }
+
+    /** Iterations between two pruning decisions. */
+    public void setEpoch(int epoch) {
+        this.epoch = Math.max(1, epoch);
+    }
+
+    /** A search is stopped when its best Phi exceeds the incumbent's by more than this fraction. */
+    public void setPruneMargin(double pruneMargin) {
+        this.pruneMargin = pruneMargin;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public void setSampleFraction(double sampleFraction) {
+        this.sampleFraction = sampleFraction;
+    }
+
+    public void setRestartAfter(int restartAfter) {
+        this.restartAfter = restartAfter;
+    }
+
+    /** Ends every search once the incumbent is at most (1 + gap) times lowerBound. */
+    public void setGapStop(double lowerBound, double gap) {
+        this.lowerBound = lowerBound;
+        this.gap = gap;
+    }
+
+    public void setTrafficSeries(TrafficSeries series, RobustCost.Aggregate aggregate) {
+        this.series = series;
+        this.aggregate = aggregate;
+    }
+
+    /** Seed of search i, a fixed function of the portfolio seed. */
+    public long searchSeed(int i) {
+        return SearchRandom.mix(seed + (i + 1) * 0x9E3779B97F4A7C15L);
+    }
+
+    /** Best Phi published so far by any search; callable from any thread while optimize runs. */
+    public double incumbentCost() {
+        Incumbent best = incumbent.get();
+        return best != null ? best.cost : Double.POSITIVE_INFINITY;
+    }
+
+    /** Outcomes of the last optimize, in search order. */
+    public SearchOutcome[] outcomes() {
+        return outcomes.clone();
+    }
+
+    /**
+     * Runs the portfolio over moves on candidateEdges and leaves the best weights found by
+     * any search (and their loads) in the graph. Returns the Phi of that solution.
+     */
+    public double optimize(int[] candidateEdges) {
+        incumbent.set(null);
+        double[] epochBest = new double[searches];
+        boolean[] stopped = new boolean[searches];
+        boolean[] closeEnough = new boolean[1]; // the incumbent reached the gap stop
+        Phaser barrier = new Phaser(searches) {
+            @Override
+            protected boolean onAdvance(int phase, int registeredParties) {
+                // Runs once per epoch while every live search waits; the incumbent cannot move meanwhile
+                double limit = incumbentCost() * (1 + pruneMargin);
+                closeEnough[0] = incumbentCost() <= lowerBound * (1 + gap);
+                for (int i = 0; i < epochBest.length; i++) {
+                    if (epochBest[i] > limit) {
+                        stopped[i] = true;
+                    }
+                }
+                return registeredParties == 0;
+            }
+        };
+
+        SearchOutcome[] results = new SearchOutcome[searches];
+        List<Future<?>> futures = new ArrayList<>(searches);
+        try (ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < searches; i++) {
+                int index = i;
+                futures.add(threads.submit(() -> {
+                    try {
+                        results[index] = runSearch(index, candidateEdges, barrier, epochBest, stopped, closeEnough);
+                    } finally {
+                        barrier.arriveAndDeregister();
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Portfolio search interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Portfolio search failed", e.getCause());
+        }
+        outcomes = results;
+
+        Incumbent best = incumbent.get();
+        System.arraycopy(best.weights, 0, graph.weight, 0, graph.edgeCount());
+        WeightOptimizer.routeFinal(graph, demands, series, aggregate);
+        return best.cost;
+    }
+
+    private SearchOutcome runSearch(int index, int[] candidateEdges, Phaser barrier, double[] epochBest,
+                                    boolean[] stopped, boolean[] closeEnough) {
+        CompactGraph copy = graph.copy();
+        WeightOptimizer optimizer = new WeightOptimizer(copy, demands);
+        optimizer.setMaxWeight(maxWeight);
+        optimizer.setIterations(iterations);
+        optimizer.setSeed(searchSeed(index));
+        optimizer.setSampleFraction(sampleFraction);
+        optimizer.setRestartAfter(restartAfter);
+        if (!Double.isNaN(lowerBound)) {
+            optimizer.setGapStop(lowerBound, gap);
+        }
+        if (series != null) {
+            optimizer.setTrafficSeries(series, aggregate);
+        }
+        Start start = STARTS[index % STARTS.length];
+        applyStart(start, copy, optimizer);
+
+        int[] done = new int[1];
+        boolean[] pruned = new boolean[1];
+        optimizer.setSearchControl((iterationsDone, bestCost, bestWeights, improved) -> {
+            done[0] = iterationsDone;
+            if (improved || iterationsDone == 1) {
+                publish(index, bestCost, bestWeights);
+            }
+            if (iterationsDone % epoch != 0) {
+                return true;
+            }
+            epochBest[index] = bestCost;
+            barrier.arriveAndAwaitAdvance();
+            pruned[0] = stopped[index];
+            return !pruned[0] && !closeEnough[0];
+        });
+        double bestCost = optimizer.optimize(candidateEdges);
+        // A search that ends without an iteration has published nothing yet
+        publish(index, bestCost, copy.weight);
+        epochBest[index] = bestCost;
+        return new SearchOutcome(index, searchSeed(index), start, bestCost, done[0], pruned[0]);
+    }
+
+    private void applyStart(Start start, CompactGraph copy, WeightOptimizer optimizer) {
+        switch (start) {
+            case RANDOM:
+                optimizer.randomizeWeights();
+                break;
+            case UNIT:
+                for (int e = 0; e < copy.edgeCount(); e++) {
+                    copy.weight[e] = 1;
+                }
+                break;
+            case INVERSE_CAPACITY:
+                // The classic default metric: fastest link 1, slower links proportionally more
+                double maxCapacity = 0;
+                for (int e = 0; e < copy.edgeCount(); e++) {
+                    maxCapacity = Math.max(maxCapacity, copy.capacity[e]);
+                }
+                for (int e = 0; e < copy.edgeCount(); e++) {
+                    double w = copy.capacity[e] > 0 ? Math.rint(maxCapacity / copy.capacity[e]) : maxWeight;
+                    copy.weight[e] = Math.max(1, Math.min(maxWeight, w));
+                }
+                break;
+            case CURRENT:
+                break;
+        }
+    }
+
+    private void publish(int search, double cost, double[] weights) {
+        Incumbent current = incumbent.get();
+        Incumbent candidate = null;
+        while (current == null || current.isBeatenBy(cost, search)) {
+            if (candidate == null) {
+                candidate = new Incumbent(cost, search, weights.clone());
+            }
+            if (incumbent.compareAndSet(current, candidate)) {
+                return;
+            }
+            current = incumbent.get();
+        }
+    }
+}
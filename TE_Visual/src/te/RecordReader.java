@@ -0,0 +1,310 @@
+package te;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Single-pass reader for "SRC-DST,value" lines. The file is memory-mapped in windows and
+ * parsed in place: a line only yields byte offsets, node names are resolved straight from
+ * the mapped bytes and plain decimals are parsed without building a String. Strings are
+ * only created for new node names and for messages about bad lines.
+ *
+ * Field rules follow the old String.split parsing: a record has exactly one ',' and a key
+ * with exactly one '-', every part is trimmed, and a record with an empty node name or
+ * value is not a record.
+ */
+final class RecordReader implements AutoCloseable {
+    private static final long WINDOW = 1L << 30;
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private MappedByteBuffer buffer;
+    private long windowStart;
+    private int position;
+
+    // Current line, as offsets into buffer
+    private int lineStart;
+    private int lineEnd;
+    private int commas;
+    private int dashes;
+    private int fromStart, fromEnd, toStart, toEnd, valueStart, valueEnd;
+
+    RecordReader(String filePath) throws IOException {
+        channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+        fileSize = channel.size();
+        map(0);
+    }
+
+    private void map(long start) throws IOException {
+        windowStart = start;
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW, fileSize - start));
+        position = 0;
+    }
+
+    /** Advances to the next line; false at end of file. */
+    boolean next() throws IOException {
+        if (windowStart + position >= fileSize) {
+            return false;
+        }
+        int end = findLineEnd();
+        if (end == buffer.limit() && windowStart + end < fileSize) {
+            map(windowStart + position); // line crosses the window, restart the window at it
+            end = findLineEnd();
+        }
+        lineStart = position;
+        lineEnd = end > lineStart && buffer.get(end - 1) == '\r' ? end - 1 : end;
+        position = end < buffer.limit() ? end + 1 : end;
+        split();
+        return true;
+    }
+
+    private int findLineEnd() {
+        int limit = buffer.limit();
+        int i = position;
+        while (i < limit && buffer.get(i) != '\n') {
+            i++;
+        }
+        return i;
+    }
+
+    private void split() {
+        commas = 0;
+        dashes = 0;
+        int comma = -1;
+        int dash = -1;
+        for (int i = lineStart; i < lineEnd; i++) {
+            byte b = buffer.get(i);
+            if (b == ',') {
+                if (commas++ == 0) {
+                    comma = i;
+                }
+            } else if (b == '-' && commas == 0) {
+                if (dashes++ == 0) {
+                    dash = i;
+                }
+            }
+        }
+        if (commas != 1) {
+            return;
+        }
+        valueStart = skipSpace(comma + 1, lineEnd);
+        valueEnd = trimEnd(valueStart, lineEnd);
+        if (dashes != 1) {
+            return;
+        }
+        fromStart = skipSpace(lineStart, dash);
+        fromEnd = trimEnd(fromStart, dash);
+        toStart = skipSpace(dash + 1, comma);
+        toEnd = trimEnd(toStart, comma);
+    }
+
+    private int skipSpace(int from, int to) {
+        while (from < to && (buffer.get(from) & 0xff) <= ' ') {
+            from++;
+        }
+        return from;
+    }
+
+    private int trimEnd(int from, int to) {
+        while (to > from && (buffer.get(to - 1) & 0xff) <= ' ') {
+            to--;
+        }
+        return to;
+    }
+
+    /** True when the line has exactly one ',' (a key and a value). */
+    boolean hasValue() {
+        return commas == 1;
+    }
+
+    /** True when the line is a full "SRC-DST,value" record with no empty field. */
+    boolean isRecord() {
+        return commas == 1 && dashes == 1 && fromEnd > fromStart && toEnd > toStart && valueEnd > valueStart;
+    }
+
+    /** True when the part before the ',' has exactly one '-'. */
+    boolean hasEdgeKey() {
+        return dashes == 1;
+    }
+
+    int from(Names names) {
+        return names.find(buffer, fromStart, fromEnd);
+    }
+
+    int to(Names names) {
+        return names.find(buffer, toStart, toEnd);
+    }
+
+    int fromOrAdd(Names names) {
+        return names.findOrAdd(buffer, fromStart, fromEnd);
+    }
+
+    int toOrAdd(Names names) {
+        return names.findOrAdd(buffer, toStart, toEnd);
+    }
+
+    /** The trimmed "SRC-DST" key, for messages. */
+    String key() {
+        return text(fromStart, fromEnd) + "-" + text(toStart, toEnd);
+    }
+
+    String line() {
+        return text(lineStart, lineEnd);
+    }
+
+    /** Parses the value like Double.parseDouble and throws NumberFormatException the same way. */
+    double value() {
+        // Fast path: [-]digits[.digits] with at most 15 significant digits is exact as m / 10^k
+        int i = valueStart;
+        boolean negative = false;
+        if (i < valueEnd && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fraction = -1;
+        boolean anyDigit = false;
+        for (; i < valueEnd; i++) {
+            byte b = buffer.get(i);
+            if (b >= '0' && b <= '9') {
+                anyDigit = true;
+                if (mantissa != 0 || b != '0') {
+                    digits++;
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                if (fraction >= 0) {
+                    fraction++;
+                }
+            } else if (b == '.' && fraction < 0) {
+                fraction = 0;
+            } else {
+                break;
+            }
+        }
+        if (i == valueEnd && anyDigit && digits <= 15 && fraction <= 22) {
+            double v = fraction > 0 ? mantissa / POW10[fraction] : mantissa;
+            return negative ? -v : v;
+        }
+        return Double.parseDouble(text(valueStart, valueEnd));
+    }
+
+    private String text(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Node names of a graph keyed by their UTF-8 bytes, so names can be looked up straight
+     * from a mapped file. New names are added to the graph as well.
+     */
+    static final class Names {
+        private final CompactGraph graph;
+        private byte[][] bytes;
+        private int[] slots; // node id + 1, 0 = empty
+        private int count;
+
+        Names(CompactGraph graph) {
+            this.graph = graph;
+            int n = graph.nodeCount();
+            slots = new int[Integer.highestOneBit(Math.max(8, n * 2)) << 1];
+            bytes = new byte[Math.max(16, n)][];
+            for (int v = 0; v < n; v++) {
+                insert(graph.nodeName(v).getBytes(StandardCharsets.UTF_8), v);
+            }
+        }
+
+        int find(MappedByteBuffer buffer, int start, int end) {
+            int mask = slots.length - 1;
+            for (int i = hash(buffer, start, end) & mask; slots[i] != 0; i = (i + 1) & mask) {
+                if (matches(bytes[slots[i] - 1], buffer, start, end)) {
+                    return slots[i] - 1;
+                }
+            }
+            return -1;
+        }
+
+        int findOrAdd(MappedByteBuffer buffer, int start, int end) {
+            int id = find(buffer, start, end);
+            if (id >= 0) {
+                return id;
+            }
+            byte[] name = new byte[end - start];
+            buffer.get(start, name);
+            id = graph.addNode(new String(name, StandardCharsets.UTF_8));
+            insert(name, id);
+            return id;
+        }
+
+        private void insert(byte[] name, int id) {
+            if (2 * (count + 1) > slots.length) {
+                int[] old = slots;
+                slots = new int[old.length * 2];
+                for (int s : old) {
+                    if (s != 0) {
+                        place(bytes[s - 1], s);
+                    }
+                }
+            }
+            if (id >= bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(id + 1, bytes.length * 2));
+            }
+            bytes[id] = name;
+            place(name, id + 1);
+            count++;
+        }
+
+        private void place(byte[] name, int slotValue) {
+            int mask = slots.length - 1;
+            int i = hash(name) & mask;
+            while (slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = slotValue;
+        }
+
+        private static boolean matches(byte[] name, MappedByteBuffer buffer, int start, int end) {
+            if (name.length != end - start) {
+                return false;
+            }
+            for (int k = 0; k < name.length; k++) {
+                if (name[k] != buffer.get(start + k)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // FNV-1a, the same over mapped bytes and stored names
+        private static int hash(MappedByteBuffer buffer, int start, int end) {
+            int h = 0x811c9dc5;
+            for (int i = start; i < end; i++) {
+                h = (h ^ (buffer.get(i) & 0xff)) * 0x01000193;
+            }
+            return h ^ (h >>> 16);
+        }
+
+        private static int hash(byte[] name) {
+            int h = 0x811c9dc5;
+            for (byte b : name) {
+                h = (h ^ (b & 0xff)) * 0x01000193;
+            }
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package te;
+
+import java.util.Arrays;
+
+/**
+ * Congestion cost (Phi) of a weight setting across all matrices of a BatchRouting, reduced
+ * to one number: the worst matrix or the mean over the matrices. Works like CongestionCost
+ * - per-link, per-matrix contributions plus one running total per matrix, rescored only on
+ * the links a setWeight changed, with a one-step rollback for probing.
+ */
+public final class RobustCost {
+    public enum Aggregate {
+        WORST, MEAN
+    }
+
+    // Re-sum the contributions now and then so the running totals cannot drift
+    private static final int RESUM_INTERVAL = 4096;
+
+    private final BatchRouting routing;
+    private final CompactGraph graph;
+    private final Aggregate aggregate;
+    private final int matrixCount;
+    private final double[] contribution; // contribution[e * matrixCount + k]
+    private final double[] phi; // total per matrix
+    private int updatesSinceResum;
+
+    // Undo record for the last update()
+    private final int[] undoEdges;
+    private final double[] undoValues;
+    private final double[] undoPhi;
+    private int undoCount;
+    private int undoUpdates;
+    private boolean canRollback;
+
+    public RobustCost(BatchRouting routing, Aggregate aggregate) {
+        this.routing = routing;
+        this.graph = routing.graph();
+        this.aggregate = aggregate;
+        this.matrixCount = routing.matrixCount();
+        int m = graph.edgeCount();
+        this.contribution = new double[Math.multiplyExact(m, matrixCount)];
+        this.phi = new double[matrixCount];
+        this.undoEdges = new int[m];
+        this.undoValues = new double[contribution.length];
+        this.undoPhi = new double[matrixCount];
+        recomputeAll();
+    }
+
+    public Aggregate aggregate() {
+        return aggregate;
+    }
+
+    /** The aggregated Phi: the largest per-matrix Phi, or their mean. */
+    public double total() {
+        if (aggregate == Aggregate.WORST) {
+            return phi[worstMatrix()];
+        }
+        double sum = 0.0;
+        for (int k = 0; k < matrixCount; k++) {
+            sum += phi[k];
+        }
+        return sum / matrixCount;
+    }
+
+    /** Phi of matrix k alone. */
+    public double phi(int k) {
+        return phi[k];
+    }
+
+    /** Index of the matrix with the highest Phi (the lowest index on ties). */
+    public int worstMatrix() {
+        int worst = 0;
+        for (int k = 1; k < matrixCount; k++) {
+            if (phi[k] > phi[worst]) {
+                worst = k;
+            }
+        }
+        return worst;
+    }
+
+    public double recomputeAll() {
+        double[] load = routing.loads();
+        Arrays.fill(phi, 0.0);
+        for (int e = 0; e < graph.edgeCount(); e++) {
+            double capacity = graph.capacityOr(e, 1.0);
+            int base = e * matrixCount;
+            for (int k = 0; k < matrixCount; k++) {
+                double c = CongestionCost.phi(load[base + k] / capacity);
+                contribution[base + k] = c;
+                phi[k] += c;
+            }
+        }
+        updatesSinceResum = 0;
+        canRollback = false;
+        return total();
+    }
+
+    /** Rescores the given links in every matrix after their loads changed. O(count * K). */
+    public double update(int[] edges, int count) {
+        System.arraycopy(phi, 0, undoPhi, 0, matrixCount);
+        undoUpdates = updatesSinceResum;
+        undoCount = 0;
+        double[] load = routing.loads();
+        for (int i = 0; i < count; i++) {
+            int e = edges[i];
+            double capacity = graph.capacityOr(e, 1.0);
+            int base = e * matrixCount;
+            System.arraycopy(contribution, base, undoValues, undoCount * matrixCount, matrixCount);
+            undoEdges[undoCount++] = e;
+            for (int k = 0; k < matrixCount; k++) {
+                double c = CongestionCost.phi(load[base + k] / capacity);
+                phi[k] += c - contribution[base + k];
+                contribution[base + k] = c;
+            }
+        }
+        canRollback = true;
+        if (++updatesSinceResum >= RESUM_INTERVAL) {
+            resum();
+        }
+        return total();
+    }
+
+    /** Restores the contributions and totals from before the last update(). */
+    public void rollback() {
+        if (!canRollback) {
+            throw new IllegalStateException("No cost update to roll back");
+        }
+        for (int i = undoCount - 1; i >= 0; i--) {
+            System.arraycopy(undoValues, i * matrixCount, contribution, undoEdges[i] * matrixCount, matrixCount);
+        }
+        System.arraycopy(undoPhi, 0, phi, 0, matrixCount);
+        updatesSinceResum = undoUpdates; // probes must not shift the re-sum schedule
+        canRollback = false;
+    }
+
+    private void resum() {
+        Arrays.fill(phi, 0.0);
+        for (int e = 0; e < graph.edgeCount(); e++) {
+            int base = e * matrixCount;
+            for (int k = 0; k < matrixCount; k++) {
+                phi[k] += contribution[base + k];
+            }
+        }
+        updatesSinceResum = 0;
+    }
+}
@@ -0,0 +1,49 @@
+package te;
+
+/**
+ * SplitMix64 generator for the optimizer. Unlike java.util.Random its whole state is one
+ * long that can be read and restored, so a checkpointed search resumes with exactly the
+ * random stream it would have continued with. Not thread-safe.
+ */
+final class SearchRandom {
+    private long state;
+
+    SearchRandom(long seed) {
+        this.state = seed;
+    }
+
+    long state() {
+        return state;
+    }
+
+    void setState(long state) {
+        this.state = state;
+    }
+
+    long nextLong() {
+        return mix(state += 0x9E3779B97F4A7C15L);
+    }
+
+    /** The SplitMix64 output function: a well-spread 64-bit hash of z. */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /** Uniform in [0, bound), bound > 0, without modulo bias. */
+    int nextInt(int bound) {
+        while (true) {
+            long r = nextLong() >>> 1;
+            long value = r % bound;
+            if (r - value + (bound - 1) >= 0) { // reject the last, partial run of bound values
+                return (int) value;
+            }
+        }
+    }
+
+    /** Uniform in [0, 1). */
+    double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+}
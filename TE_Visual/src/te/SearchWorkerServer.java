@@ -0,0 +1,214 @@
+package te;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import te.monitor.ConsoleLog;
+
+/**
+ * Worker side of DistributedSearch. Holds one loaded problem (topology, capacities and the
+ * traffic matrix or series) for the life of the process and serves coordinators one after
+ * the other: each connection gets a fresh WeightOptimizer.Replica built from the weights
+ * it sends, scores the ranges it asks for and applies the moves it reports.
+ *
+ * The optimizer passed in carries the local configuration (traffic series, aggregate,
+ * threads); maxWeight, the sampling fraction and the failure scenarios come from the
+ * coordinator with every run.
+ *
+ * The protocol has no authentication, so the server listens on the loopback interface
+ * unless given another address. Every id and parameter a coordinator sends is checked
+ * before use; a request out of range is refused and the next coordinator accepted.
+ */
+public final class SearchWorkerServer {
+    static final int MAX_WEIGHT = 65535; // largest link metric a coordinator may ask for
+
+    private final CompactGraph graph;
+    private final WeightOptimizer optimizer;
+    private final InetAddress bindAddress;
+    private final int port;
+    private volatile ServerSocket server;
+
+    /** Listens on the loopback interface only. */
+    public SearchWorkerServer(CompactGraph graph, WeightOptimizer optimizer, int port) {
+        this(graph, optimizer, InetAddress.getLoopbackAddress(), port);
+    }
+
+    /** Listens on bindAddress, e.g. the wildcard address for coordinators on other hosts. */
+    public SearchWorkerServer(CompactGraph graph, WeightOptimizer optimizer, InetAddress bindAddress, int port) {
+        this.graph = graph;
+        this.optimizer = optimizer;
+        this.bindAddress = bindAddress;
+        this.port = port;
+    }
+
+    /** The port actually listened on, once serve has bound it (useful with port 0). */
+    public int port() {
+        ServerSocket s = server;
+        return s != null ? s.getLocalPort() : port;
+    }
+
+    /** Accepts coordinators until close; a failed run is logged and the next one accepted. */
+    public void serve() throws IOException {
+        try (ServerSocket s = new ServerSocket(port, 1, bindAddress)) {
+            server = s;
+            System.out.println("Search worker listening on " + bindAddress.getHostAddress() + " port " + s.getLocalPort());
+            while (!s.isClosed()) {
+                Socket socket;
+                try {
+                    socket = s.accept();
+                } catch (IOException e) {
+                    if (s.isClosed()) {
+                        return;
+                    }
+                    throw e;
+                }
+                try (Socket connection = socket) {
+                    connection.setTcpNoDelay(true);
+                    run(new DataInputStream(new BufferedInputStream(connection.getInputStream())),
+                            new DataOutputStream(new BufferedOutputStream(connection.getOutputStream())));
+                } catch (IOException e) {
+                    ConsoleLog.warn("Coordinator " + socket.getRemoteSocketAddress() + " lost: " + e.getMessage());
+                } catch (RuntimeException e) {
+                    // A request the checks let through must still not end the worker
+                    ConsoleLog.warn("Run for " + socket.getRemoteSocketAddress() + " failed: " + e);
+                }
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        ServerSocket s = server;
+        if (s != null) {
+            s.close();
+        }
+    }
+
+    private void run(DataInputStream in, DataOutputStream out) throws IOException {
+        if (in.readInt() != DistributedSearch.MAGIC) {
+            throw new IOException("Not a search coordinator");
+        }
+        int version = in.readInt();
+        if (version != DistributedSearch.VERSION) {
+            refuse(out, "Unsupported protocol version " + version);
+            return;
+        }
+        long problem = in.readLong();
+        int maxWeight = in.readInt();
+        double sampleFraction = in.readDouble();
+        int m = graph.edgeCount();
+        int[] candidateEdges = DistributedSearch.readInts(in, m);
+        int[] scenarios = DistributedSearch.readInts(in, m);
+        if (in.readInt() != m) {
+            refuse(out, "Topology has " + m + " links");
+            return;
+        }
+        double[] weights = new double[m];
+        for (int e = 0; e < m; e++) {
+            weights[e] = in.readDouble();
+        }
+        long[] visited = new long[VisitedSolutions.WORDS];
+        int words = in.readInt();
+        for (int k = 0; k < words; k++) {
+            int index = in.readInt();
+            long word = in.readLong();
+            if (index < 0 || index >= visited.length) {
+                throw new IOException("Bad visited word " + index);
+            }
+            visited[index] = word;
+        }
+        if (problem != optimizer.problemHash()) {
+            refuse(out, "Worker has a different topology, capacities or traffic loaded");
+            return;
+        }
+        String invalid = invalidSetup(maxWeight, sampleFraction, candidateEdges, scenarios, weights);
+        if (invalid != null) {
+            refuse(out, invalid);
+            return;
+        }
+
+        optimizer.setMaxWeight(maxWeight);
+        optimizer.setSampleFraction(sampleFraction);
+        optimizer.setFailureScenarios(scenarios);
+        long start = System.nanoTime();
+        int evaluations = 0;
+        try (WeightOptimizer.Replica replica = optimizer.replica(candidateEdges, weights, visited)) {
+            out.writeByte(DistributedSearch.OK);
+            out.writeLong(replica.currentHash());
+            out.flush();
+            int moveCount = candidateEdges.length * maxWeight;
+            while (true) {
+                byte op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException e) {
+                    throw new IOException("connection closed mid-run");
+                }
+                if (op == DistributedSearch.MOVE) {
+                    int edge = in.readInt();
+                    int weight = in.readInt();
+                    if (edge < 0 || edge >= m || weight < 1 || weight > maxWeight) {
+                        throw new IOException("Bad move " + edge + " -> " + weight);
+                    }
+                    replica.apply(edge, weight);
+                } else if (op == DistributedSearch.EVALUATE) {
+                    int from = in.readInt();
+                    int to = in.readInt();
+                    long salt = in.readLong();
+                    if (from < 0 || to > moveCount || from > to) {
+                        throw new IOException("Bad range " + from + ".." + to);
+                    }
+                    WeightOptimizer.Move best = replica.bestMove(from, to, salt);
+                    out.writeInt(best != null ? best.index : -1);
+                    out.writeDouble(best != null ? best.cost : Double.NaN);
+                    out.flush();
+                    evaluations++;
+                } else if (op == DistributedSearch.FINISH) {
+                    break;
+                } else {
+                    throw new IOException("Unknown operation " + op);
+                }
+            }
+        }
+        System.out.printf("Run finished: %d evaluations in %.1f s%n", evaluations, (System.nanoTime() - start) / 1e9);
+    }
+
+    // Why the setup cannot be run, or null if it can
+    private static String invalidSetup(int maxWeight, double sampleFraction, int[] candidateEdges, int[] scenarios,
+                                       double[] weights) {
+        if (maxWeight < 1 || maxWeight > MAX_WEIGHT) {
+            return "Max weight " + maxWeight + " outside 1.." + MAX_WEIGHT;
+        }
+        if (!(sampleFraction > 0.0 && sampleFraction <= 1.0)) {
+            return "Sample fraction " + sampleFraction + " outside (0, 1]";
+        }
+        for (int e : candidateEdges) {
+            if (e < 0 || e >= weights.length) {
+                return "Bad candidate link " + e;
+            }
+        }
+        for (int e : scenarios) {
+            if (e < 0 || e >= weights.length) {
+                return "Bad failure scenario link " + e;
+            }
+        }
+        for (int e = 0; e < weights.length; e++) {
+            if (!(weights[e] > 0.0) || Double.isInfinite(weights[e])) {
+                return "Bad weight " + weights[e] + " on link " + e;
+            }
+        }
+        return null;
+    }
+
+    private static void refuse(DataOutputStream out, String message) throws IOException {
+        ConsoleLog.warn("Refused coordinator: " + message);
+        out.writeByte(DistributedSearch.ERROR);
+        out.writeUTF(message);
+        out.flush();
+    }
+}
@@ -0,0 +1,401 @@
+package te;
+
+import java.util.Arrays;
+import te.monitor.EngineMetrics;
+import te.monitor.SpfEvent;
+
+/**
+ * Dijkstra over a CompactGraph with an arbitrary per-edge metric array, plus dynamic
+ * repair of a distance-to-target vector after a single edge metric change
+ * (Ramalingam-Reps). One instance owns its scratch arrays, so it is cheap to reuse
+ * but not thread-safe.
+ *
+ * Full runs check the metric first: when every finite weight is an integer in
+ * 0..MAX_BUCKET_WEIGHT (the optimizer's 1..maxWeight weights), they use Dial's algorithm
+ * with a circular bucket queue instead of the heap, O(E + V * maxWeight) per run.
+ *
+ * Every full run and every repair that changes distances is counted in EngineMetrics and,
+ * when a recording enables it, emitted as a te.Spf JFR event.
+ */
+public final class ShortestPathKernel {
+    static final double EPS = 1e-9;
+    /** Largest weight for which full runs use the bucket queue; one bucket per distance step. */
+    public static final int MAX_BUCKET_WEIGHT = 1024;
+
+    private final CompactGraph graph;
+    private final IndexedMinHeap heap;
+    private final boolean[] affected;
+    private final int[] stack;
+    private final int[] affectedNodes;
+
+    // Bucket queue: bucket b holds the queued nodes at distance = b (mod maxWeight + 1) as a
+    // doubly linked list through nextInBucket / previousInBucket
+    private final int[] bucketHead = new int[MAX_BUCKET_WEIGHT + 1];
+    private final int[] nextInBucket;
+    private final int[] previousInBucket;
+    private final int[] intDist;
+    private boolean bucketQueue = true;
+
+    public ShortestPathKernel(CompactGraph graph) {
+        this.graph = graph;
+        int n = graph.nodeCount();
+        this.heap = new IndexedMinHeap(n);
+        this.affected = new boolean[n];
+        this.stack = new int[n];
+        this.affectedNodes = new int[n];
+        this.nextInBucket = new int[n];
+        this.previousInBucket = new int[n];
+        this.intDist = new int[n];
+        Arrays.fill(bucketHead, -1);
+    }
+
+    /** Turns the bucket queue off so every full run uses the heap; on by default. */
+    public void setBucketQueue(boolean enabled) {
+        this.bucketQueue = enabled;
+    }
+
+    /** True when an edge of length w from a node at distance du to one at dv lies on a shortest path. */
+    static boolean tight(double w, double du, double dv) {
+        return dv != Double.POSITIVE_INFINITY && Math.abs(w + dv - du) <= EPS * Math.max(1.0, du);
+    }
+
+    private static boolean shorter(double candidate, double current) {
+        return candidate < current - EPS * Math.max(1.0, candidate);
+    }
+
+    /** Fills dist[v] with the distance from v to target (infinity when unreachable). */
+    public void distancesTo(int target, double[] metric, double[] dist) {
+        SpfEvent event = new SpfEvent();
+        event.begin();
+        int[] inStart = graph.inStart();
+        int[] inEdges = graph.inEdges();
+        int[] edgeFrom = graph.edgeFrom;
+
+        int maxWeight = bucketWeightLimit(metric);
+        if (maxWeight >= 0) {
+            bucketRun(target, inStart, inEdges, edgeFrom, maxWeight, metric, dist, null);
+            recordSpf(event, "to", target);
+            return;
+        }
+        Arrays.fill(dist, 0, graph.nodeCount(), Double.POSITIVE_INFINITY);
+        dist[target] = 0.0;
+        heap.offer(target, 0.0);
+        while (!heap.isEmpty()) {
+            int x = heap.poll();
+            double dx = dist[x];
+            for (int i = inStart[x]; i < inStart[x + 1]; i++) {
+                int e = inEdges[i];
+                int y = edgeFrom[e];
+                double nd = dx + metric[e];
+                if (nd < dist[y]) {
+                    dist[y] = nd;
+                    heap.offer(y, nd);
+                }
+            }
+        }
+        recordSpf(event, "to", target);
+    }
+
+    /**
+     * Forward Dijkstra: dist[v] is the distance from source to v and parent[v] the last
+     * edge of one shortest path (-1 for the source and unreachable nodes).
+     */
+    public void distancesFrom(int source, double[] metric, double[] dist, int[] parent) {
+        SpfEvent event = new SpfEvent();
+        event.begin();
+        int[] outStart = graph.outStart();
+        int[] outEdges = graph.outEdges();
+        int[] edgeTo = graph.edgeTo;
+
+        int maxWeight = bucketWeightLimit(metric);
+        if (maxWeight >= 0) {
+            bucketRun(source, outStart, outEdges, edgeTo, maxWeight, metric, dist, parent);
+            recordSpf(event, "from", source);
+            return;
+        }
+        Arrays.fill(dist, 0, graph.nodeCount(), Double.POSITIVE_INFINITY);
+        Arrays.fill(parent, 0, graph.nodeCount(), -1);
+        dist[source] = 0.0;
+        heap.offer(source, 0.0);
+        while (!heap.isEmpty()) {
+            int x = heap.poll();
+            double dx = dist[x];
+            for (int i = outStart[x]; i < outStart[x + 1]; i++) {
+                int e = outEdges[i];
+                int y = edgeTo[e];
+                double nd = dx + metric[e];
+                if (nd < dist[y]) {
+                    dist[y] = nd;
+                    parent[y] = e;
+                    heap.offer(y, nd);
+                }
+            }
+        }
+        recordSpf(event, "from", source);
+    }
+
+    /**
+     * Largest finite weight when every finite weight is an integer in 0..MAX_BUCKET_WEIGHT
+     * and no path length can overflow an int, otherwise -1. Infinite weights (failed links)
+     * are skipped by the bucket run like they never relax anything in the heap run.
+     */
+    private int bucketWeightLimit(double[] metric) {
+        if (!bucketQueue) {
+            return -1;
+        }
+        int max = 0;
+        for (int e = 0, m = graph.edgeCount(); e < m; e++) {
+            double w = metric[e];
+            if (w == Double.POSITIVE_INFINITY) {
+                continue;
+            }
+            int iw = (int) w;
+            if (iw != w || iw < 0 || iw > MAX_BUCKET_WEIGHT) {
+                return -1; // also rejects NaN
+            }
+            max = Math.max(max, iw);
+        }
+        return (long) max * graph.nodeCount() < Integer.MAX_VALUE ? max : -1;
+    }
+
+    /**
+     * Dial's algorithm from root along the given adjacency (in-edges for distances to the
+     * root, out-edges for distances from it). Every queued distance lies in
+     * [current, current + maxWeight], so maxWeight + 1 circular buckets never collide.
+     */
+    private void bucketRun(int root, int[] start, int[] adjacent, int[] far, int maxWeight,
+                           double[] metric, double[] dist, int[] parent) {
+        int n = graph.nodeCount();
+        int buckets = maxWeight + 1;
+        int[] d = intDist;
+        Arrays.fill(d, 0, n, Integer.MAX_VALUE);
+        if (parent != null) {
+            Arrays.fill(parent, 0, n, -1);
+        }
+        d[root] = 0;
+        pushBucket(root, 0);
+        int queued = 1;
+        int current = 0;
+        int b = 0;
+        while (queued > 0) {
+            while (bucketHead[b] < 0) {
+                current++;
+                b = b + 1 == buckets ? 0 : b + 1;
+            }
+            int x = bucketHead[b];
+            unlinkBucket(x, b);
+            queued--;
+            for (int i = start[x]; i < start[x + 1]; i++) {
+                int e = adjacent[i];
+                double w = metric[e];
+                if (w == Double.POSITIVE_INFINITY) {
+                    continue;
+                }
+                int y = far[e];
+                int nd = current + (int) w;
+                int old = d[y];
+                if (nd < old) {
+                    if (old == Integer.MAX_VALUE) {
+                        queued++;
+                    } else {
+                        unlinkBucket(y, old % buckets);
+                    }
+                    d[y] = nd;
+                    pushBucket(y, nd % buckets);
+                    if (parent != null) {
+                        parent[y] = e;
+                    }
+                }
+            }
+        }
+        for (int v = 0; v < n; v++) {
+            dist[v] = d[v] == Integer.MAX_VALUE ? Double.POSITIVE_INFINITY : d[v];
+        }
+    }
+
+    private void pushBucket(int node, int b) {
+        int head = bucketHead[b];
+        nextInBucket[node] = head;
+        previousInBucket[node] = -1;
+        if (head >= 0) {
+            previousInBucket[head] = node;
+        }
+        bucketHead[b] = node;
+    }
+
+    private void unlinkBucket(int node, int b) {
+        int prev = previousInBucket[node];
+        int next = nextInBucket[node];
+        if (prev >= 0) {
+            nextInBucket[prev] = next;
+        } else {
+            bucketHead[b] = next;
+        }
+        if (next >= 0) {
+            previousInBucket[next] = prev;
+        }
+    }
+
+    /**
+     * Repairs dist (distances to a fixed target) after metric[e] was lowered. Only nodes
+     * whose distance actually shrinks are touched.
+     */
+    public void repairAfterDecrease(int e, double[] metric, double[] dist) {
+        int[] inStart = graph.inStart();
+        int[] inEdges = graph.inEdges();
+        int[] edgeFrom = graph.edgeFrom;
+
+        int u = edgeFrom[e];
+        double nd = metric[e] + dist[graph.edgeTo[e]];
+        if (!shorter(nd, dist[u])) {
+            return;
+        }
+        SpfEvent event = new SpfEvent();
+        event.begin();
+        dist[u] = nd;
+        heap.offer(u, nd);
+        while (!heap.isEmpty()) {
+            int x = heap.poll();
+            double dx = dist[x];
+            for (int i = inStart[x]; i < inStart[x + 1]; i++) {
+                int f = inEdges[i];
+                int y = edgeFrom[f];
+                double c = dx + metric[f];
+                if (shorter(c, dist[y])) {
+                    dist[y] = c;
+                    heap.offer(y, c);
+                }
+            }
+        }
+        recordSpf(event, "repair-decrease", e);
+    }
+
+    /**
+     * Repairs dist after metric[e] was raised. First collects the nodes that lost every
+     * shortest path to the target (those whose remaining tight next hops all lead into
+     * the affected set), then reruns Dijkstra restricted to that set, seeded from its
+     * boundary with the unaffected part of the tree.
+     */
+    public void repairAfterIncrease(int e, double[] metric, double[] dist) {
+        int[] outStart = graph.outStart();
+        int[] outEdges = graph.outEdges();
+        int[] inStart = graph.inStart();
+        int[] inEdges = graph.inEdges();
+        int[] edgeFrom = graph.edgeFrom;
+        int[] edgeTo = graph.edgeTo;
+
+        int u = edgeFrom[e];
+        if (hasTightNextHop(u, metric, dist)) {
+            return; // u keeps an equal-cost alternative, no distance changes
+        }
+        SpfEvent event = new SpfEvent();
+        event.begin();
+
+        int affectedCount = 0;
+        int top = 0;
+        affected[u] = true;
+        stack[top++] = u;
+        while (top > 0) {
+            int x = stack[--top];
+            affectedNodes[affectedCount++] = x;
+            for (int i = inStart[x]; i < inStart[x + 1]; i++) {
+                int f = inEdges[i];
+                int y = edgeFrom[f];
+                if (affected[y] || !tight(metric[f], dist[y], dist[x])) {
+                    continue;
+                }
+                if (!hasTightNextHop(y, metric, dist)) {
+                    affected[y] = true;
+                    stack[top++] = y;
+                }
+            }
+        }
+
+        // Seed every affected node with its best exit into the unaffected tree
+        for (int k = 0; k < affectedCount; k++) {
+            int x = affectedNodes[k];
+            double best = Double.POSITIVE_INFINITY;
+            for (int i = outStart[x]; i < outStart[x + 1]; i++) {
+                int g = outEdges[i];
+                int w = edgeTo[g];
+                if (!affected[w]) {
+                    best = Math.min(best, metric[g] + dist[w]);
+                }
+            }
+            dist[x] = best;
+            if (best != Double.POSITIVE_INFINITY) {
+                heap.offer(x, best);
+            }
+        }
+        while (!heap.isEmpty()) {
+            int x = heap.poll();
+            double dx = dist[x];
+            for (int i = inStart[x]; i < inStart[x + 1]; i++) {
+                int f = inEdges[i];
+                int y = edgeFrom[f];
+                double c = dx + metric[f];
+                if (affected[y] && c < dist[y]) {
+                    dist[y] = c;
+                    heap.offer(y, c);
+                }
+            }
+        }
+        for (int k = 0; k < affectedCount; k++) {
+            affected[affectedNodes[k]] = false;
+        }
+        recordSpf(event, "repair-increase", e);
+    }
+
+    private static void recordSpf(SpfEvent event, String kind, int element) {
+        EngineMetrics.spfComputed();
+        if (event.shouldCommit()) {
+            event.kind = kind;
+            event.element = element;
+            event.commit();
+        }
+    }
+
+    // True when x still has a tight out-edge into a node outside the affected set
+    private boolean hasTightNextHop(int x, double[] metric, double[] dist) {
+        int[] outStart = graph.outStart();
+        int[] outEdges = graph.outEdges();
+        int[] edgeTo = graph.edgeTo;
+        for (int i = outStart[x]; i < outStart[x + 1]; i++) {
+            int g = outEdges[i];
+            int w = edgeTo[g];
+            if (!affected[w] && tight(metric[g], dist[x], dist[w])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * One shortest path from source to target as edge ids (first equal-cost next hop at
+     * every node), or null when target is unreachable.
+     */
+    public int[] path(int source, int target, double[] metric) {
+        double[] dist = new double[graph.nodeCount()];
+        distancesTo(target, metric, dist);
+        if (dist[source] == Double.POSITIVE_INFINITY) {
+            return null;
+        }
+        int[] outStart = graph.outStart();
+        int[] outEdges = graph.outEdges();
+        int[] hops = new int[graph.nodeCount()];
+        int length = 0;
+        int v = source;
+        while (v != target) {
+            int next = -1;
+            for (int i = outStart[v]; i < outStart[v + 1] && next < 0; i++) {
+                int e = outEdges[i];
+                if (tight(metric[e], dist[v], dist[graph.edgeTo[e]])) {
+                    next = e;
+                }
+            }
+            hops[length++] = next;
+            v = graph.edgeTo[next];
+        }
+        return Arrays.copyOf(hops, length);
+    }
+}
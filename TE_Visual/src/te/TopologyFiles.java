@@ -0,0 +1,117 @@
+package te;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import te.monitor.ConsoleLog;
+
+/**
+ * Readers and writers for the "SRC-DST,value" text files (linkcosts.txt, weights.txt,
+ * linkcapacities.txt). They only touch the CompactGraph, so headless tools can load a
+ * topology without GraphStream or Swing. Each file is read in one pass over a memory
+ * mapping (see RecordReader); for repeated loads of large topologies use TopologySnapshot.
+ */
+public final class TopologyFiles {
+    private TopologyFiles() {
+    }
+
+    /** Adds one edge per line; returns the number of edges read. */
+    public static int readLinkCosts(String filePath, CompactGraph graph) throws IOException {
+        int count = 0;
+        RecordReader.Names names = new RecordReader.Names(graph);
+        try (RecordReader in = new RecordReader(filePath)) {
+            while (in.next()) {
+                if (in.isRecord()) {
+                    double cost;
+                    try {
+                        cost = in.value();
+                    } catch (NumberFormatException e) {
+                        ConsoleLog.warn("Skipping invalid line: " + in.line());
+                        continue;
+                    }
+                    graph.addEdge(in.fromOrAdd(names), in.toOrAdd(names), cost);
+                    count++;
+                }
+            }
+        }
+        ConsoleLog.flush();
+        return count;
+    }
+
+    public static void readWeights(String filePath, CompactGraph graph) throws IOException {
+        RecordReader.Names names = new RecordReader.Names(graph);
+        try (RecordReader in = new RecordReader(filePath)) {
+            while (in.next()) {
+                if (in.isRecord()) {
+                    double weight;
+                    try {
+                        weight = in.value();
+                    } catch (NumberFormatException e) {
+                        ConsoleLog.warn("Skipping invalid line: " + in.line());
+                        continue;
+                    }
+                    if (!(weight > 0)) {
+                        // A zero-weight cycle would trap traffic; the link keeps its weight
+                        ConsoleLog.warn("Skipping non-positive weight: " + in.line());
+                        continue;
+                    }
+                    int id = edgeId(in, names, graph);
+                    if (id >= 0) {
+                        graph.weight[id] = weight;
+                    } else {
+                        ConsoleLog.warn("Edge " + in.key() + " not found for weight.");
+                    }
+                }
+            }
+        }
+        ConsoleLog.flush();
+    }
+
+    public static void readLinkCapacities(String filePath, CompactGraph graph) throws IOException {
+        RecordReader.Names names = new RecordReader.Names(graph);
+        try (RecordReader in = new RecordReader(filePath)) {
+            while (in.next()) {
+                if (!in.hasValue()) {
+                    ConsoleLog.warn("Skipping invalid line: " + in.line());
+                    continue;
+                }
+                if (!in.hasEdgeKey()) {
+                    ConsoleLog.warn("Invalid edge format: " + in.line());
+                    continue;
+                }
+                try {
+                    double capacityValue = in.value();
+                    int id = edgeId(in, names, graph);
+                    if (id >= 0) {
+                        graph.capacity[id] = capacityValue;
+                    } else {
+                        ConsoleLog.warn("Edge " + in.key() + " not found for capacity.");
+                    }
+                } catch (NumberFormatException e) {
+                    ConsoleLog.warn("Invalid capacity value: " + in.line());
+                }
+            }
+        }
+        ConsoleLog.flush();
+    }
+
+    // Resolves the record's key from the mapped bytes, without building the "SRC-DST" string
+    private static int edgeId(RecordReader in, RecordReader.Names names, CompactGraph graph) {
+        int u = in.from(names);
+        int v = in.to(names);
+        return u >= 0 && v >= 0 ? graph.edgeId(u, v) : -1;
+    }
+
+    /** Writes the weights in weights.txt layout; integral weights are written without a fraction. */
+    public static void writeWeights(String filePath, CompactGraph graph) throws IOException {
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(filePath))) {
+            for (int e = 0; e < graph.edgeCount(); e++) {
+                double w = graph.weight[e];
+                out.write(graph.edgeKey(e));
+                out.write(',');
+                out.write(w == Math.rint(w) ? Long.toString((long) w) : Double.toString(w));
+                out.newLine();
+            }
+        }
+    }
+}
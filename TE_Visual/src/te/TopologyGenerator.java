@@ -0,0 +1,140 @@
+package te;
+
+import java.util.Random;
+
+/**
+ * Synthetic topologies for benchmarks and experiments. All links are added in both
+ * directions with link cost and weight 1; nodes are named n0..n(N-1). Every generator is
+ * deterministic for a given seed.
+ */
+public final class TopologyGenerator {
+    private static final double[] CAPACITIES = {1000, 2500, 10000};
+
+    private TopologyGenerator() {
+    }
+
+    public enum Kind {
+        WAXMAN, RING_OF_RINGS, FAT_TREE
+    }
+
+    /** Builds a topology of the given kind with roughly (fat-tree: at least) n nodes. */
+    public static CompactGraph generate(Kind kind, int n, long seed) {
+        switch (kind) {
+            case WAXMAN:
+                return waxman(n, 4.0, 0.2, seed);
+            case RING_OF_RINGS:
+                int rings = Math.max(2, (int) Math.ceil(Math.sqrt(n)));
+                return ringOfRings(rings, Math.max(2, (n + rings - 1) / rings), seed);
+            case FAT_TREE:
+                int k = 2;
+                while (5 * k * k / 4 < n) {
+                    k += 2;
+                }
+                return fatTree(k, seed);
+            default:
+                throw new IllegalArgumentException("Unknown topology kind: " + kind);
+        }
+    }
+
+    /**
+     * Waxman random graph: nodes uniform in the unit square, a link between u and v with
+     * probability alpha * exp(-d(u, v) / (beta * L)). alpha is calibrated to the requested
+     * average degree, and a random spanning tree is laid first so the graph is connected.
+     */
+    public static CompactGraph waxman(int n, double averageDegree, double beta, long seed) {
+        Random random = new Random(seed);
+        CompactGraph graph = nodes(n);
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = random.nextDouble();
+            y[i] = random.nextDouble();
+        }
+        double scale = beta * Math.sqrt(2.0);
+
+        for (int i = 1; i < n; i++) {
+            link(graph, i, random.nextInt(i), random);
+        }
+
+        // Mean of exp(-d / scale) over random pairs, to turn the degree target into alpha
+        double mean = 0.0;
+        int samples = Math.min(10000, n * n);
+        for (int s = 0; s < samples; s++) {
+            int u = random.nextInt(n);
+            int v = random.nextInt(n);
+            mean += Math.exp(-Math.hypot(x[u] - x[v], y[u] - y[v]) / scale);
+        }
+        mean /= samples;
+        double extraDegree = Math.max(0.0, averageDegree - 2.0);
+        double alpha = Math.min(1.0, extraDegree / Math.max(1e-12, (n - 1) * mean));
+
+        for (int u = 0; u < n; u++) {
+            for (int v = u + 1; v < n; v++) {
+                double p = alpha * Math.exp(-Math.hypot(x[u] - x[v], y[u] - y[v]) / scale);
+                if (random.nextDouble() < p) {
+                    link(graph, u, v, random);
+                }
+            }
+        }
+        return graph;
+    }
+
+    /** rings cycles of ringSize nodes each; node 0 of every ring sits on a backbone cycle. */
+    public static CompactGraph ringOfRings(int rings, int ringSize, long seed) {
+        Random random = new Random(seed);
+        CompactGraph graph = nodes(rings * ringSize);
+        for (int r = 0; r < rings; r++) {
+            int base = r * ringSize;
+            for (int i = 0; i < ringSize; i++) {
+                link(graph, base + i, base + (i + 1) % ringSize, random);
+            }
+            link(graph, base, ((r + 1) % rings) * ringSize, random);
+        }
+        return graph;
+    }
+
+    /** Switch-level k-ary fat tree: (k/2)^2 core, k pods of k/2 aggregation and k/2 edge switches. */
+    public static CompactGraph fatTree(int k, long seed) {
+        if (k < 2 || k % 2 != 0) {
+            throw new IllegalArgumentException("Fat-tree arity must be even and at least 2: " + k);
+        }
+        Random random = new Random(seed);
+        int half = k / 2;
+        int cores = half * half;
+        CompactGraph graph = nodes(cores + k * k);
+        for (int pod = 0; pod < k; pod++) {
+            int aggBase = cores + pod * k;
+            int edgeBase = aggBase + half;
+            for (int a = 0; a < half; a++) {
+                for (int c = 0; c < half; c++) {
+                    link(graph, aggBase + a, a * half + c, random);
+                }
+                for (int e = 0; e < half; e++) {
+                    link(graph, aggBase + a, edgeBase + e, random);
+                }
+            }
+        }
+        return graph;
+    }
+
+    private static CompactGraph nodes(int n) {
+        CompactGraph graph = new CompactGraph();
+        for (int i = 0; i < n; i++) {
+            graph.addNode("n" + i);
+        }
+        return graph;
+    }
+
+    private static void link(CompactGraph graph, int u, int v, Random random) {
+        if (u == v) {
+            return;
+        }
+        double capacity = CAPACITIES[random.nextInt(CAPACITIES.length)];
+        String a = graph.nodeName(u);
+        String b = graph.nodeName(v);
+        int forward = graph.addEdge(a, b, 1.0);
+        int backward = graph.addEdge(b, a, 1.0);
+        graph.weight[forward] = graph.weight[backward] = 1.0;
+        graph.capacity[forward] = graph.capacity[backward] = capacity;
+    }
+}
@@ -0,0 +1,276 @@
+package te;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary image of a loaded network: node names, edge endpoints, link costs, weights,
+ * capacities and the destination-grouped traffic matrix. Every section is a flat
+ * little-endian array aligned to 8 bytes, so loading maps the file and bulk-copies each
+ * section straight into the arrays the engines use - no parsing and no per-edge objects.
+ *
+ * <pre>
+ * header   magic "TESNAP01", version, nodeCount, edgeCount, destinationCount,
+ *          demandCount, nameBytes (64 bytes)
+ * names    int[nodeCount + 1] offsets, byte[nameBytes] UTF-8
+ * edges    int[m] from, int[m] to, double[m] cost, double[m] weight, double[m] capacity
+ * demands  int[D] destinations, int[D + 1] destStart, int[S] sources, double[S] amounts
+ * </pre>
+ */
+public final class TopologySnapshot {
+    private static final long MAGIC = 0x5445534E41503031L; // "TESNAP01"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int CHUNK_BYTES = 1 << 28; // largest mapping per bulk copy
+
+    private final CompactGraph graph;
+    private final TrafficMatrix demands;
+
+    private TopologySnapshot(CompactGraph graph, TrafficMatrix demands) {
+        this.graph = graph;
+        this.demands = demands;
+    }
+
+    public CompactGraph graph() {
+        return graph;
+    }
+
+    public TrafficMatrix demands() {
+        return demands;
+    }
+
+    /** Writes the snapshot to a temporary file and moves it into place, so readers never see half a file. */
+    public static void write(String filePath, CompactGraph graph, TrafficMatrix demands) throws IOException {
+        int n = graph.nodeCount();
+        int m = graph.edgeCount();
+        byte[][] names = new byte[n][];
+        int[] nameOffsets = new int[n + 1];
+        long nameBytes = 0;
+        for (int v = 0; v < n; v++) {
+            names[v] = graph.nodeName(v).getBytes(StandardCharsets.UTF_8);
+            nameBytes += names[v].length;
+            if (nameBytes > Integer.MAX_VALUE) {
+                throw new IOException("Node names too large for a snapshot");
+            }
+            nameOffsets[v + 1] = (int) nameBytes;
+        }
+        int destinationCount = demands.destinationCount();
+        int demandCount = demands.destStart()[destinationCount];
+
+        Path target = Paths.get(filePath);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Out out = new Out(channel);
+            out.buffer.putLong(MAGIC).putInt(VERSION).putInt(n).putInt(m)
+                    .putInt(destinationCount).putInt(demandCount).putInt((int) nameBytes);
+            out.pad(HEADER_BYTES);
+            out.ints(nameOffsets, n + 1);
+            for (byte[] name : names) {
+                out.bytes(name);
+            }
+            out.align();
+            out.ints(graph.edgeFrom, m);
+            out.ints(graph.edgeTo, m);
+            out.doubles(graph.cost, m);
+            out.doubles(graph.weight, m);
+            out.doubles(graph.capacity, m);
+            out.ints(demands.destinations(), destinationCount);
+            out.ints(demands.destStart(), destinationCount + 1);
+            out.ints(demands.destSources(), demandCount);
+            out.doubles(demands.destAmounts(), demandCount);
+            out.flush();
+            channel.force(true);
+        }
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    public static TopologySnapshot read(String filePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException("Not a topology snapshot: " + filePath);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getLong() != MAGIC) {
+                throw new IOException("Not a topology snapshot: " + filePath);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + ": " + filePath);
+            }
+            int n = header.getInt();
+            int m = header.getInt();
+            int destinationCount = header.getInt();
+            int demandCount = header.getInt();
+            int nameBytes = header.getInt();
+            long expected = HEADER_BYTES + align(4L * (n + 1)) + align(nameBytes) + align(4L * m) * 2 + 24L * m
+                    + align(4L * destinationCount) + align(4L * (destinationCount + 1))
+                    + align(4L * demandCount) + 8L * demandCount;
+            if (channel.size() < expected) {
+                throw new IOException("Truncated topology snapshot: " + filePath);
+            }
+
+            In in = new In(channel, HEADER_BYTES);
+            int[] nameOffsets = in.ints(n + 1);
+            MappedByteBuffer nameBuffer = channel.map(FileChannel.MapMode.READ_ONLY, in.position, nameBytes);
+            byte[] nameData = new byte[nameBytes];
+            nameBuffer.get(nameData);
+            in.skip(nameBytes);
+            String[] names = new String[Math.max(16, n)];
+            for (int v = 0; v < n; v++) {
+                names[v] = new String(nameData, nameOffsets[v], nameOffsets[v + 1] - nameOffsets[v],
+                        StandardCharsets.UTF_8);
+            }
+
+            int[] from = in.ints(m);
+            int[] to = in.ints(m);
+            double[] cost = in.doubles(m);
+            double[] weight = in.doubles(m);
+            double[] capacity = in.doubles(m);
+            CompactGraph graph = new CompactGraph(names, n, from, to, cost, weight, capacity, m);
+
+            int[] destinations = in.ints(destinationCount);
+            int[] destStart = in.ints(destinationCount + 1);
+            int[] sources = in.ints(demandCount);
+            double[] amounts = in.doubles(demandCount);
+            TrafficMatrix demands = new TrafficMatrix(n, destinations, destStart, sources, amounts);
+            return new TopologySnapshot(graph, demands);
+        }
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    // Sequential bulk reads, one mapping per chunk of a section
+    private static final class In {
+        private final FileChannel channel;
+        private long position;
+
+        In(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        int[] ints(int count) throws IOException {
+            int[] values = new int[count];
+            int done = 0;
+            while (done < count) {
+                int k = Math.min(count - done, CHUNK_BYTES / 4);
+                map(4L * k).asIntBuffer().get(values, done, k);
+                position += 4L * k;
+                done += k;
+            }
+            position = align(position);
+            return values;
+        }
+
+        double[] doubles(int count) throws IOException {
+            double[] values = new double[count];
+            int done = 0;
+            while (done < count) {
+                int k = Math.min(count - done, CHUNK_BYTES / 8);
+                map(8L * k).asDoubleBuffer().get(values, done, k);
+                position += 8L * k;
+                done += k;
+            }
+            return values;
+        }
+
+        void skip(long bytes) {
+            position = align(position + bytes);
+        }
+
+        private ByteBuffer map(long length) throws IOException {
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, length).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    // Sequential writes through one reusable direct buffer
+    private static final class Out {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        private long written;
+
+        Out(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void ints(int[] values, int count) throws IOException {
+            int done = 0;
+            while (done < count) {
+                makeRoom();
+                int k = Math.min(count - done, buffer.remaining() / 4);
+                buffer.asIntBuffer().put(values, done, k);
+                buffer.position(buffer.position() + 4 * k);
+                done += k;
+            }
+            align();
+        }
+
+        void doubles(double[] values, int count) throws IOException {
+            int done = 0;
+            while (done < count) {
+                makeRoom();
+                int k = Math.min(count - done, buffer.remaining() / 8);
+                buffer.asDoubleBuffer().put(values, done, k);
+                buffer.position(buffer.position() + 8 * k);
+                done += k;
+            }
+        }
+
+        void bytes(byte[] values) throws IOException {
+            int done = 0;
+            while (done < values.length) {
+                makeRoom();
+                int k = Math.min(values.length - done, buffer.remaining());
+                buffer.put(values, done, k);
+                done += k;
+            }
+        }
+
+        void align() throws IOException {
+            pad(TopologySnapshot.align(offset()));
+        }
+
+        void pad(long to) throws IOException {
+            while (offset() < to) {
+                makeRoom();
+                buffer.put((byte) 0);
+            }
+        }
+
+        private long offset() {
+            return written + buffer.position();
+        }
+
+        private void makeRoom() throws IOException {
+            if (buffer.remaining() < 8) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package te;
+
+import java.io.IOException;
+import java.util.Arrays;
+import te.monitor.ConsoleLog;
+
+/**
+ * Origin-destination demands over the nodes of a CompactGraph. Demands are kept
+ * grouped by destination (CSR) because load assignment routes one destination at a time.
+ */
+public final class TrafficMatrix {
+    private final int nodeCount;
+    // Demands in insertion order; null for a matrix restored already grouped, until add()
+    private int[] source = new int[16];
+    private int[] target = new int[16];
+    private double[] amount = new double[16];
+    private int size;
+
+    // Grouped view, rebuilt lazily after additions
+    private int[] destinations;
+    private int[] destStart;
+    private int[] destSources;
+    private double[] destAmounts;
+    private boolean grouped;
+    // Set while the demands are read from a MappedTrafficStore; the two arrays above stay null
+    private MappedTrafficStore store;
+    private int storeMatrix;
+
+    public TrafficMatrix(int nodeCount) {
+        this.nodeCount = nodeCount;
+    }
+
+    /** Matrix over an existing grouped layout, used by TopologySnapshot; arrays are taken, not copied. */
+    TrafficMatrix(int nodeCount, int[] destinations, int[] destStart, int[] destSources, double[] destAmounts) {
+        this.nodeCount = nodeCount;
+        this.destinations = destinations;
+        this.destStart = destStart;
+        this.destSources = destSources;
+        this.destAmounts = destAmounts;
+        this.size = destSources.length;
+        this.source = null;
+        this.target = null;
+        this.amount = null;
+        this.grouped = true;
+    }
+
+    /** Matrix k of a mapped store; only the destination index is on the heap. */
+    TrafficMatrix(MappedTrafficStore store, int k) {
+        this.nodeCount = store.nodeCount();
+        this.destinations = store.destinations();
+        this.destStart = store.destStart();
+        this.size = destStart[destinations.length];
+        this.source = null;
+        this.target = null;
+        this.amount = null;
+        this.grouped = true;
+        this.store = store;
+        this.storeMatrix = k;
+    }
+
+    /** Reads "SRC-DST,amount" lines, the same layout as linkcosts.txt. */
+    public static TrafficMatrix read(String filePath, CompactGraph graph) throws IOException {
+        TrafficMatrix matrix = new TrafficMatrix(graph.nodeCount());
+        RecordReader.Names names = new RecordReader.Names(graph);
+        try (RecordReader in = new RecordReader(filePath)) {
+            while (in.next()) {
+                if (!in.hasValue()) {
+                    continue;
+                }
+                if (!in.hasEdgeKey()) {
+                    ConsoleLog.warn("Invalid demand format: " + in.line());
+                    continue;
+                }
+                int src = in.from(names);
+                int dst = in.to(names);
+                if (src < 0 || dst < 0) {
+                    ConsoleLog.warn("Unknown node in demand: " + in.line());
+                    continue;
+                }
+                try {
+                    matrix.add(src, dst, in.value());
+                } catch (NumberFormatException e) {
+                    ConsoleLog.warn("Invalid demand value: " + in.line());
+                }
+            }
+        }
+        ConsoleLog.flush();
+        return matrix;
+    }
+
+    public void add(int src, int dst, double value) {
+        if (src == dst || value == 0.0) {
+            return;
+        }
+        ensureUngrouped();
+        if (size == source.length) {
+            source = Arrays.copyOf(source, size * 2);
+            target = Arrays.copyOf(target, size * 2);
+            amount = Arrays.copyOf(amount, size * 2);
+        }
+        source[size] = src;
+        target[size] = dst;
+        amount[size] = value;
+        size++;
+        grouped = false;
+    }
+
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    public int demandCount() {
+        return size;
+    }
+
+    public double totalDemand() {
+        if (store != null) {
+            double total = 0.0;
+            for (int d = 0; d < destinations.length; d++) {
+                for (int i = destStart[d]; i < destStart[d + 1]; i++) {
+                    total += store.value(i, storeMatrix);
+                }
+            }
+            return total;
+        }
+        double[] amounts = amount != null ? amount : destAmounts;
+        double total = 0.0;
+        for (int i = 0; i < size; i++) {
+            total += amounts[i];
+        }
+        return total;
+    }
+
+    /** Number of distinct destinations; destination indices run 0..destinationCount()-1. */
+    public int destinationCount() {
+        group();
+        return destinations.length;
+    }
+
+    public int destination(int destIndex) {
+        group();
+        return destinations[destIndex];
+    }
+
+    int[] destinations() {
+        group();
+        return destinations;
+    }
+
+    /** Demands toward destinations[d] are destSources()/destAmounts()[destStart()[d] .. destStart()[d + 1]). */
+    public int[] destStart() {
+        group();
+        return destStart;
+    }
+
+    /** On a matrix read from a MappedTrafficStore, this and destAmounts() copy the demands onto the heap. */
+    public int[] destSources() {
+        group();
+        load();
+        return destSources;
+    }
+
+    public double[] destAmounts() {
+        group();
+        load();
+        return destAmounts;
+    }
+
+    /** Adds the demand toward destination index d to nodeFlow[source], without copying a mapped store. */
+    void addDemandsTo(int d, double[] nodeFlow) {
+        group();
+        if (store != null) {
+            store.addDemandsTo(d, storeMatrix, nodeFlow);
+            return;
+        }
+        for (int i = destStart[d]; i < destStart[d + 1]; i++) {
+            nodeFlow[destSources[i]] += destAmounts[i];
+        }
+    }
+
+    /** Sets nodeFlow[source] to 0 for every source with demand toward destination index d. */
+    void clearSources(int d, double[] nodeFlow) {
+        group();
+        if (store != null) {
+            store.clearSources(d, nodeFlow);
+            return;
+        }
+        for (int i = destStart[d]; i < destStart[d + 1]; i++) {
+            nodeFlow[destSources[i]] = 0.0;
+        }
+    }
+
+    // Copies the demands of a mapped matrix onto the heap; the matrix is an ordinary one afterwards
+    private void load() {
+        if (store == null) {
+            return;
+        }
+        destSources = new int[size];
+        destAmounts = new double[size];
+        for (int d = 0; d < destinations.length; d++) {
+            for (int i = destStart[d]; i < destStart[d + 1]; i++) {
+                destSources[i] = store.source(i, d);
+                destAmounts[i] = store.value(i, storeMatrix);
+            }
+        }
+        store = null;
+    }
+
+    // Rebuilds the insertion-order arrays of a matrix that was restored grouped
+    private void ensureUngrouped() {
+        if (source != null) {
+            return;
+        }
+        load();
+        int length = Math.max(16, size * 2);
+        source = Arrays.copyOf(destSources, length);
+        amount = Arrays.copyOf(destAmounts, length);
+        target = new int[length];
+        for (int d = 0; d < destinations.length; d++) {
+            Arrays.fill(target, destStart[d], destStart[d + 1], destinations[d]);
+        }
+    }
+
+    private void group() {
+        if (grouped) {
+            return;
+        }
+        int[] countPerNode = new int[nodeCount + 1];
+        for (int i = 0; i < size; i++) {
+            countPerNode[target[i] + 1]++;
+        }
+        int destCount = 0;
+        for (int v = 0; v < nodeCount; v++) {
+            if (countPerNode[v + 1] > 0) {
+                destCount++;
+            }
+        }
+        destinations = new int[destCount];
+        destStart = new int[destCount + 1];
+        int[] slot = new int[nodeCount];
+        int d = 0;
+        for (int v = 0; v < nodeCount; v++) {
+            int c = countPerNode[v + 1];
+            if (c > 0) {
+                destinations[d] = v;
+                destStart[d + 1] = destStart[d] + c;
+                slot[v] = destStart[d];
+                d++;
+            }
+        }
+        destSources = new int[size];
+        destAmounts = new double[size];
+        for (int i = 0; i < size; i++) {
+            int s = slot[target[i]]++;
+            destSources[s] = source[i];
+            destAmounts[s] = amount[i];
+        }
+        grouped = true;
+    }
+}
@@ -0,0 +1,240 @@
+package te;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * A series of traffic matrices over the same nodes, e.g. the 288 five-minute snapshots of a
+ * day. The (source, destination) pairs of all matrices are merged and grouped by
+ * destination like TrafficMatrix; the amounts form a pairs x matrices table stored with
+ * the matrix index varying fastest, so the K amounts of one pair are contiguous and a pair
+ * can be pushed through the routing for every matrix with one dense inner loop.
+ */
+public final class TrafficSeries {
+    private final int nodeCount;
+    private final int matrixCount;
+    private final int[] destinations;
+    private final int[] destStart;
+    private int[] destSources;
+    private double[] amounts; // amounts[pair * matrixCount + k]
+    // Set while the amounts are read from a MappedTrafficStore; the two arrays above stay null
+    private MappedTrafficStore store;
+
+    private TrafficSeries(int nodeCount, int matrixCount, int[] destinations, int[] destStart,
+                          int[] destSources, double[] amounts) {
+        this.nodeCount = nodeCount;
+        this.matrixCount = matrixCount;
+        this.destinations = destinations;
+        this.destStart = destStart;
+        this.destSources = destSources;
+        this.amounts = amounts;
+    }
+
+    /** All matrices of a mapped store; only the destination index is on the heap. */
+    TrafficSeries(MappedTrafficStore store) {
+        this.nodeCount = store.nodeCount();
+        this.matrixCount = store.matrixCount();
+        this.destinations = store.destinations();
+        this.destStart = store.destStart();
+        this.store = store;
+    }
+
+    /** Merges the matrices; a pair missing from a matrix has amount 0 in it. */
+    public static TrafficSeries of(List<TrafficMatrix> matrices) {
+        if (matrices.isEmpty()) {
+            throw new IllegalArgumentException("A traffic series needs at least one matrix");
+        }
+        int nodeCount = matrices.get(0).nodeCount();
+        int matrixCount = matrices.size();
+
+        boolean[] isDestination = new boolean[nodeCount];
+        for (TrafficMatrix matrix : matrices) {
+            if (matrix.nodeCount() != nodeCount) {
+                throw new IllegalArgumentException("Traffic matrices must cover the same nodes");
+            }
+            for (int md = 0; md < matrix.destinationCount(); md++) {
+                isDestination[matrix.destination(md)] = true;
+            }
+        }
+        int destinationCount = 0;
+        for (int v = 0; v < nodeCount; v++) {
+            if (isDestination[v]) {
+                destinationCount++;
+            }
+        }
+        int[] destinations = new int[destinationCount];
+        int[] destIndex = new int[nodeCount];
+        for (int v = 0, d = 0; v < nodeCount; v++) {
+            if (isDestination[v]) {
+                destIndex[v] = d;
+                destinations[d++] = v;
+            }
+        }
+        // local[k][d]: index of destination d inside matrix k, -1 when the matrix has no demand toward it
+        int[][] local = new int[matrixCount][destinationCount];
+        for (int k = 0; k < matrixCount; k++) {
+            TrafficMatrix matrix = matrices.get(k);
+            Arrays.fill(local[k], -1);
+            for (int md = 0; md < matrix.destinationCount(); md++) {
+                local[k][destIndex[matrix.destination(md)]] = md;
+            }
+        }
+
+        // Union of the sources of each destination, in the order they first appear
+        int[] destStart = new int[destinationCount + 1];
+        int[] destSources = new int[16];
+        int[] seen = new int[nodeCount];
+        Arrays.fill(seen, -1);
+        int pairCount = 0;
+        for (int d = 0; d < destinationCount; d++) {
+            for (int k = 0; k < matrixCount; k++) {
+                int md = local[k][d];
+                if (md < 0) {
+                    continue;
+                }
+                int[] start = matrices.get(k).destStart();
+                int[] src = matrices.get(k).destSources();
+                for (int i = start[md]; i < start[md + 1]; i++) {
+                    int s = src[i];
+                    if (seen[s] == d) {
+                        continue;
+                    }
+                    seen[s] = d;
+                    if (pairCount == destSources.length) {
+                        destSources = Arrays.copyOf(destSources, pairCount * 2);
+                    }
+                    destSources[pairCount++] = s;
+                }
+            }
+            destStart[d + 1] = pairCount;
+        }
+        destSources = Arrays.copyOf(destSources, pairCount);
+
+        // Fill the amount table; slot[s] is the pair index of source s for the current destination
+        double[] amounts = new double[Math.multiplyExact(pairCount, matrixCount)];
+        int[] slot = new int[nodeCount];
+        for (int k = 0; k < matrixCount; k++) {
+            TrafficMatrix matrix = matrices.get(k);
+            int[] start = matrix.destStart();
+            int[] src = matrix.destSources();
+            double[] amount = matrix.destAmounts();
+            for (int md = 0; md < matrix.destinationCount(); md++) {
+                int d = destIndex[matrix.destination(md)];
+                for (int i = destStart[d]; i < destStart[d + 1]; i++) {
+                    slot[destSources[i]] = i;
+                }
+                for (int i = start[md]; i < start[md + 1]; i++) {
+                    amounts[slot[src[i]] * matrixCount + k] += amount[i];
+                }
+            }
+        }
+        return new TrafficSeries(nodeCount, matrixCount, destinations, destStart, destSources, amounts);
+    }
+
+    /** Reads every regular file in dir, in name order, as one "SRC-DST,amount" matrix. */
+    public static TrafficSeries read(String dir, CompactGraph graph) throws IOException {
+        List<Path> files;
+        try (Stream<Path> entries = Files.list(Paths.get(dir))) {
+            files = entries.filter(Files::isRegularFile).sorted().toList();
+        }
+        if (files.isEmpty()) {
+            throw new IOException("No traffic matrices in " + dir);
+        }
+        List<TrafficMatrix> matrices = new ArrayList<>(files.size());
+        for (Path file : files) {
+            matrices.add(TrafficMatrix.read(file.toString(), graph));
+        }
+        return of(matrices);
+    }
+
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    public int matrixCount() {
+        return matrixCount;
+    }
+
+    public int destinationCount() {
+        return destinations.length;
+    }
+
+    public int destination(int destIndex) {
+        return destinations[destIndex];
+    }
+
+    int[] destinations() {
+        return destinations;
+    }
+
+    /** Pairs toward destinations[d] are destSources()[destStart()[d] .. destStart()[d + 1]). */
+    public int[] destStart() {
+        return destStart;
+    }
+
+    /** On a series read from a MappedTrafficStore, this and amounts() copy the table onto the heap. */
+    public int[] destSources() {
+        load();
+        return destSources;
+    }
+
+    /** Amount of pair i in matrix k is amounts()[i * matrixCount() + k]. */
+    public double[] amounts() {
+        load();
+        return amounts;
+    }
+
+    /** Adds the amounts of every pair toward destination index d to nodeFlow[source * K + k]. */
+    void addDemandsTo(int d, double[] nodeFlow) {
+        if (store != null) {
+            store.addDemandsTo(d, nodeFlow);
+            return;
+        }
+        for (int i = destStart[d]; i < destStart[d + 1]; i++) {
+            int base = destSources[i] * matrixCount;
+            int pair = i * matrixCount;
+            for (int k = 0; k < matrixCount; k++) {
+                nodeFlow[base + k] += amounts[pair + k];
+            }
+        }
+    }
+
+    /** Matrix k of the series on its own; a view of the mapping when the series is mapped. */
+    public TrafficMatrix matrix(int k) {
+        if (store != null) {
+            return store.matrix(k);
+        }
+        TrafficMatrix matrix = new TrafficMatrix(nodeCount);
+        for (int d = 0; d < destinations.length; d++) {
+            for (int i = destStart[d]; i < destStart[d + 1]; i++) {
+                matrix.add(destSources[i], destinations[d], amounts[i * matrixCount + k]);
+            }
+        }
+        return matrix;
+    }
+
+    // Copies the table of a mapped series onto the heap
+    private void load() {
+        if (store == null) {
+            return;
+        }
+        int pairCount = destStart[destinations.length];
+        destSources = new int[pairCount];
+        amounts = new double[Math.multiplyExact(pairCount, matrixCount)];
+        for (int d = 0; d < destinations.length; d++) {
+            for (int i = destStart[d]; i < destStart[d + 1]; i++) {
+                destSources[i] = store.source(i, d);
+                for (int k = 0; k < matrixCount; k++) {
+                    amounts[i * matrixCount + k] = store.value(i, k);
+                }
+            }
+        }
+        store = null;
+    }
+}
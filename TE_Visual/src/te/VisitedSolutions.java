@@ -0,0 +1,51 @@
+package te;
+
+/**
+ * Weight vectors the optimizer has already moved to, as in Fortz and Thorup's local search.
+ * A vector is identified by a Zobrist-style hash, the XOR of one 64-bit key per (edge,
+ * weight), so changing one weight updates the hash with two XORs instead of rehashing the
+ * vector. The set is a bitmap indexed by the hash: constant memory and no stored keys, at
+ * the price of rare false positives, which only make the search skip a move.
+ */
+final class VisitedSolutions {
+    static final int WORDS = 1 << 17; // 2^23 bits, 1 MB
+
+    private final long[] bits = new long[WORDS];
+
+    /** Key of edge e at weight w; the hash of a vector is the XOR of the keys of all its edges. */
+    static long key(int e, double w) {
+        return SearchRandom.mix(e * 0x9E3779B97F4A7C15L ^ Double.doubleToLongBits(w) * 0xC2B2AE3D27D4EB4FL);
+    }
+
+    static long hash(double[] weights, int edgeCount) {
+        long h = 0;
+        for (int e = 0; e < edgeCount; e++) {
+            h ^= key(e, weights[e]);
+        }
+        return h;
+    }
+
+    /** Hash of the vector with edge e changed from oldWeight to newWeight. */
+    static long rehash(long hash, int e, double oldWeight, double newWeight) {
+        return hash ^ key(e, oldWeight) ^ key(e, newWeight);
+    }
+
+    void add(long hash) {
+        int bit = (int) (hash >>> 41); // top 23 bits
+        bits[bit >>> 6] |= 1L << bit;
+    }
+
+    boolean contains(long hash) {
+        int bit = (int) (hash >>> 41);
+        return (bits[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    /** The bitmap itself, for checkpoints. */
+    long[] words() {
+        return bits;
+    }
+
+    void restore(long[] words, int offset) {
+        System.arraycopy(words, offset, bits, 0, WORDS);
+    }
+}
@@ -0,0 +1,712 @@
+package te;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import te.monitor.CandidateEvent;
+import te.monitor.EngineMetrics;
+import te.monitor.MoveEvent;
+
+/**
+ * Local search over integer link weights (the "Optimize Network (Based on Paper)" method).
+ * Every iteration scores all (edge, weight) moves of the candidate edges and applies the
+ * best one. With more than one thread the neighborhood is split into fixed contiguous
+ * chunks, one per worker, and every worker probes its chunk against a private copy of
+ * the routing and load state. The winning move is the lowest Phi, ties broken by
+ * candidate index, so a given seed yields the same run for any thread count.
+ *
+ * As in Fortz and Thorup's heuristic, the search never moves back to a weight vector it
+ * has already visited (VisitedSolutions), remembers the Phi of the last vector scored at
+ * each move index (so the other weights of the edge just changed are not scored again),
+ * can score only a random fraction of the neighborhood per iteration, and can perturb a
+ * tenth of the candidate weights when the best solution has not improved for a while.
+ *
+ * With a TrafficSeries set, a move is scored against every matrix of the series instead of
+ * the single demand matrix: BatchRouting routes once per weight setting and pushes all
+ * matrices through the same split ratios, and RobustCost reduces the per-matrix Phi to the
+ * worst case or the mean.
+ *
+ * Progress is published to EngineMetrics (JMX) and as te.Move / te.CandidateEvaluation JFR
+ * events.
+ *
+ * With failure scenarios set, a move is scored by the worst Phi over the intact network and
+ * each listed link failed. Every worker then keeps one more routing state per scenario, with
+ * that link at infinite weight, and probes each move on all of them.
+ *
+ * With a gap stop set, the search ends as soon as its best Phi is within the gap of a lower
+ * bound on every routing (FlowLowerBound), instead of always running every iteration.
+ *
+ * With a checkpoint file set, the search state is copied every few seconds and written by
+ * a background thread (see OptimizerCheckpoint); resumeFrom continues such a run, and a run
+ * can also start from the weights already in the graph instead of randomizeWeights.
+ *
+ * With a DistributedSearch set, the neighborhood is scored by worker processes instead of
+ * local threads. Each worker holds a Replica of the search state that follows the applied
+ * moves, and the moves it returns are combined by the same rule, so the run is the same.
+ *
+ * With an EventJournal set, the routed starting weights and loads, every applied move with the
+ * link loads it changed and the Phi of each iteration are recorded for JournalReplay,
+ * followed by the best weights and their loads when the search ends. With a series the
+ * loads recorded are those of its current worst matrix, as routeFinal leaves them.
+ */
+public final class WeightOptimizer {
+    /** Called on the search thread after every applied move. */
+    public interface ProgressListener {
+        void onIteration(int iteration, double phi, double maxUtilization);
+    }
+
+    /**
+     * Called on the search thread after every iteration with the best solution so far
+     * (bestWeights is the live array); returning false ends the search. Used by
+     * PortfolioOptimizer to share the incumbent and stop dominated searches.
+     */
+    interface SearchControl {
+        boolean proceed(int iterationsDone, double bestCost, double[] bestWeights, boolean improved);
+    }
+
+    // Checkpoint memory section: the stall count, then the visited bitmap
+    private static final int MEMORY_LENGTH = 1 + VisitedSolutions.WORDS;
+
+    private final CompactGraph graph;
+    private final TrafficMatrix demands;
+    private int maxWeight = 20;
+    private int iterations = 5000;
+    private int threads = 1;
+    private long seed = System.nanoTime();
+    private ProgressListener listener;
+    private TrafficSeries series;
+    private RobustCost.Aggregate aggregate = RobustCost.Aggregate.WORST;
+    private int[] failureScenarios = new int[0];
+    private SearchRandom random;
+    private String checkpointPath;
+    private long checkpointIntervalNanos = 60_000_000_000L;
+    private OptimizerCheckpoint resume;
+    private SearchControl control;
+    private double stopCost = Double.NEGATIVE_INFINITY;
+    private double sampleFraction = 1.0;
+    private int restartAfter;
+    private DistributedSearch distributed;
+    private EventJournal journal;
+    private int journaledMatrix; // series: the matrix whose loads the journal shows
+
+    // Search memory of the running optimize; read by the workers, written between evaluations
+    private VisitedSolutions visited;
+    private long[] memoHash; // per move index: hash of the vector scored there last, and its Phi
+    private double[] memoCost;
+    private long currentHash;
+    private long sampleSalt;
+    private long sampleThreshold;
+
+    public WeightOptimizer(CompactGraph graph, TrafficMatrix demands) {
+        this.graph = graph;
+        this.demands = demands;
+    }
+
+    public void setMaxWeight(int maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    public void setIterations(int iterations) {
+        this.iterations = iterations;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+        this.random = null;
+    }
+
+    public void setProgressListener(ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    /** Scores weights against every matrix of series, reduced by aggregate; null scores the single matrix again. */
+    public void setTrafficSeries(TrafficSeries series, RobustCost.Aggregate aggregate) {
+        this.series = series;
+        this.aggregate = aggregate;
+    }
+
+    /** Initial solution: every weight uniform in 1..maxWeight. Without it the search starts from the graph's weights. */
+    public void randomizeWeights() {
+        SearchRandom random = random();
+        for (int e = 0; e < graph.edgeCount(); e++) {
+            graph.weight[e] = random.nextInt(maxWeight) + 1;
+        }
+    }
+
+    /** Scores a random fraction (0, 1] of the moves every iteration instead of all of them. */
+    public void setSampleFraction(double sampleFraction) {
+        this.sampleFraction = Math.min(1.0, sampleFraction);
+    }
+
+    /** Perturbs the weights of a tenth of the candidate edges after this many iterations without a better solution; 0 never does. */
+    public void setRestartAfter(int restartAfter) {
+        this.restartAfter = Math.max(0, restartAfter);
+    }
+
+    /** Ends the search once the best Phi is at most (1 + gap) times lowerBound, e.g. FlowLowerBound.solve(). */
+    public void setGapStop(double lowerBound, double gap) {
+        this.stopCost = lowerBound * (1 + gap);
+    }
+
+    /** Writes a checkpoint to filePath at most every intervalSeconds, and once when the search ends. */
+    public void setCheckpoint(String filePath, double intervalSeconds) {
+        this.checkpointPath = filePath;
+        this.checkpointIntervalNanos = (long) (intervalSeconds * 1e9);
+    }
+
+    /**
+     * Continues the run of checkpoint: puts its current weights in the graph, and the next
+     * optimize restores the best solution, the iteration count and the random state. The
+     * iteration limit still counts from the start of the original run, so raise it to keep
+     * improving a finished run. optimize should be given checkpoint.candidateEdges().
+     */
+    public void resumeFrom(OptimizerCheckpoint checkpoint) {
+        if (checkpoint.fingerprint != OptimizerCheckpoint.fingerprint(graph)
+                || checkpoint.currentWeights.length != graph.edgeCount()) {
+            throw new IllegalArgumentException("Checkpoint was written for a different topology");
+        }
+        this.maxWeight = checkpoint.maxWeight; // move indices depend on it
+        this.seed = checkpoint.seed;
+        random().setState(checkpoint.randomState);
+        System.arraycopy(checkpoint.currentWeights, 0, graph.weight, 0, graph.edgeCount());
+        this.resume = checkpoint;
+    }
+
+    /** Scores the neighborhood on the worker processes of distributed; local threads only stand in for dead workers. */
+    public void setDistributed(DistributedSearch distributed) {
+        this.distributed = distributed;
+    }
+
+    /** Records the moves, loads and Phi of the following runs in journal; null stops recording. */
+    public void setJournal(EventJournal journal) {
+        this.journal = journal;
+    }
+
+    void setSearchControl(SearchControl control) {
+        this.control = control;
+    }
+
+    private SearchRandom random() {
+        if (random == null) {
+            random = new SearchRandom(seed);
+        }
+        return random;
+    }
+
+    /**
+     * Also scores every move with each of these links failed and keeps the worst Phi, e.g.
+     * the FailureAnalysis.criticalLinks of the starting weights. Only with a single matrix.
+     */
+    public void setFailureScenarios(int[] links) {
+        this.failureScenarios = links.clone();
+    }
+
+    /**
+     * Runs the search over moves on candidateEdges, leaving the best weights found (and
+     * their loads) in the graph. Returns the Phi of that solution. With a traffic series
+     * the Phi is the aggregated one and the loads left in the graph are those of the
+     * worst matrix.
+     */
+    public double optimize(int[] candidateEdges) {
+        if (series != null && failureScenarios.length > 0) {
+            throw new IllegalStateException("Failure scenarios cannot be combined with a traffic series");
+        }
+        int workerCount = Math.min(threads, Math.max(1, candidateEdges.length * (maxWeight - 1)));
+        Worker[] workers = new Worker[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Worker(graph.copy(), candidateEdges);
+        }
+        ExecutorService pool = workerCount > 1 ? Executors.newFixedThreadPool(workerCount) : null;
+        try (CheckpointWriter writer = checkpointPath != null ? new CheckpointWriter(checkpointPath) : null) {
+            return search(workers, candidateEdges, pool, writer);
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    private double search(Worker[] workers, int[] candidateEdges, ExecutorService pool, CheckpointWriter writer) {
+        int moveCount = candidateEdges.length * maxWeight; // index = edge slot * maxWeight + (weight - 1)
+        double[] bestWeights = graph.weight.clone();
+        double bestCost = workers[0].total();
+        int firstIteration = 0;
+        int stall = 0; // iterations since bestCost last improved
+        visited = new VisitedSolutions();
+        memoHash = new long[moveCount];
+        memoCost = new double[moveCount];
+        currentHash = VisitedSolutions.hash(workers[0].graph.weight, graph.edgeCount());
+        sampleThreshold = (long) (sampleFraction * 0x1.0p53);
+        if (resume != null) {
+            if (resume.bestCost < bestCost) {
+                bestCost = resume.bestCost;
+                System.arraycopy(resume.bestWeights, 0, bestWeights, 0, graph.edgeCount());
+            }
+            firstIteration = resume.iteration;
+            if (resume.memory.length == MEMORY_LENGTH) {
+                stall = (int) resume.memory[0];
+                visited.restore(resume.memory, 1);
+            }
+            resume = null;
+        }
+        visited.add(currentHash);
+        if (journal != null) {
+            journal.time(journal.elapsed());
+            for (int e = 0; e < graph.edgeCount(); e++) {
+                journal.weight(e, workers[0].graph.weight[e]);
+            }
+            journalLoads(workers[0], true);
+        }
+        long nextCheckpoint = System.nanoTime() + checkpointIntervalNanos;
+        if (distributed != null) {
+            distributed.begin(this, candidateEdges, Arrays.copyOf(workers[0].graph.weight, graph.edgeCount()),
+                    currentHash, visited);
+        }
+
+        List<Callable<Move>> tasks = new ArrayList<>(workers.length);
+        for (int i = 0; i < workers.length; i++) {
+            Worker worker = workers[i];
+            int from = (int) ((long) moveCount * i / workers.length);
+            int to = (int) ((long) moveCount * (i + 1) / workers.length);
+            tasks.add(() -> worker.bestMove(from, to));
+        }
+
+        EngineMetrics.optimizationStarted();
+        int iteration = firstIteration;
+        for (; iteration < iterations; iteration++) {
+            MoveEvent event = new MoveEvent();
+            event.begin();
+            if (sampleFraction < 1.0) {
+                sampleSalt = random().nextLong();
+            }
+            Move best = null;
+            boolean improved = false;
+            List<Move> moves = distributed != null
+                    ? distributed.evaluate(moveCount, sampleSalt, (from, to) -> bestOfRange(workers, pool, from, to))
+                    : evaluate(tasks, pool);
+            for (Move move : moves) {
+                best = better(best, move);
+            }
+            if (best == null) {
+                // Every scored neighbor was visited before: a dead end unless a restart leaves it
+                if (sampleFraction < 1.0) {
+                    stall++;
+                } else if (restartAfter > 0) {
+                    stall = restartAfter;
+                } else {
+                    break;
+                }
+            } else {
+                int edge = candidateEdges[best.index / maxWeight];
+                int weight = best.index % maxWeight + 1;
+                moveTo(workers, edge, weight);
+                if (best.cost < bestCost) {
+                    bestCost = best.cost;
+                    System.arraycopy(workers[0].graph.weight, 0, bestWeights, 0, graph.edgeCount());
+                    stall = 0;
+                    improved = true;
+                } else {
+                    stall++;
+                }
+                double maxUtilization = workers[0].maxUtilization();
+                EngineMetrics.iterationDone(bestCost, maxUtilization);
+                if (event.shouldCommit()) {
+                    event.iteration = iteration;
+                    event.edge = edge;
+                    event.weight = weight;
+                    event.phi = best.cost;
+                    event.bestPhi = bestCost;
+                    event.candidates = moveCount;
+                    event.commit();
+                }
+                if (journal != null) {
+                    journal.time(journal.elapsed());
+                    journal.phi(iteration, best.cost);
+                }
+                if (listener != null) {
+                    listener.onIteration(iteration, best.cost, maxUtilization);
+                }
+            }
+            if (restartAfter > 0 && stall >= restartAfter) {
+                diversify(workers, candidateEdges);
+                stall = 0;
+            }
+            if (writer != null && System.nanoTime() >= nextCheckpoint) {
+                // Only the copy is made here; encoding and the disk write happen on the writer thread
+                writer.submit(checkpoint(iteration + 1, stall, bestCost, bestWeights, workers[0].graph.weight,
+                        candidateEdges));
+                nextCheckpoint = System.nanoTime() + checkpointIntervalNanos;
+            }
+            if (bestCost <= stopCost
+                    || (control != null && !control.proceed(iteration + 1, bestCost, bestWeights, improved))) {
+                iteration++;
+                break;
+            }
+        }
+        if (writer != null) {
+            writer.submit(checkpoint(iteration, stall, bestCost, bestWeights, workers[0].graph.weight, candidateEdges));
+        }
+        if (distributed != null) {
+            distributed.finish();
+        }
+
+        // Leave the best solution, not the last one, in the caller's graph
+        System.arraycopy(bestWeights, 0, graph.weight, 0, graph.edgeCount());
+        routeFinal(graph, demands, series, aggregate);
+        if (journal != null) {
+            journal.time(journal.elapsed());
+            journal.snapshot(graph);
+            journal.flush();
+        }
+        return bestCost;
+    }
+
+    /** Routes the graph's weights into graph.load; for a series, the loads of its worst matrix. */
+    static void routeFinal(CompactGraph graph, TrafficMatrix demands, TrafficSeries series,
+                           RobustCost.Aggregate aggregate) {
+        if (series == null) {
+            new EcmpRouting(graph, graph.weight, demands).computeAll();
+            return;
+        }
+        BatchRouting batch = new BatchRouting(graph, graph.weight, series);
+        batch.computeAll();
+        batch.copyLoads(new RobustCost(batch, aggregate).worstMatrix(), graph.load);
+        graph.markAllDirty();
+    }
+
+    // Sets edge to weight in every worker and records the new current vector as visited
+    private void moveTo(Worker[] workers, int edge, int weight) {
+        currentHash = VisitedSolutions.rehash(currentHash, edge, workers[0].graph.weight[edge], weight);
+        for (Worker worker : workers) {
+            worker.apply(edge, weight);
+        }
+        visited.add(currentHash);
+        if (distributed != null) {
+            distributed.move(edge, weight);
+        }
+        if (journal != null) {
+            journal.move(edge, weight);
+            journalLoads(workers[0], false);
+        }
+    }
+
+    // Loads of the links the last move changed, or of every link; with a series, those of its
+    // worst matrix, and of every link when another matrix became the worst
+    private void journalLoads(Worker worker, boolean all) {
+        int m = graph.edgeCount();
+        if (worker.batch == null) {
+            int[] changed = worker.routing.changedEdges();
+            int count = all ? m : worker.routing.changedEdgeCount();
+            for (int i = 0; i < count; i++) {
+                int e = all ? i : changed[i];
+                journal.load(e, worker.graph.load[e]);
+            }
+            return;
+        }
+        int worst = worker.robust.worstMatrix();
+        if (all || worst != journaledMatrix) {
+            all = true;
+            journaledMatrix = worst;
+        }
+        int[] changed = worker.batch.changedEdges();
+        int count = all ? m : worker.batch.changedEdgeCount();
+        for (int i = 0; i < count; i++) {
+            int e = all ? i : changed[i];
+            journal.load(e, worker.batch.load(e, worst));
+        }
+    }
+
+    // Diversification: random weights on a tenth of the candidate edges
+    private void diversify(Worker[] workers, int[] candidateEdges) {
+        SearchRandom random = random();
+        int count = Math.max(1, candidateEdges.length / 10);
+        for (int i = 0; i < count; i++) {
+            int edge = candidateEdges[random.nextInt(candidateEdges.length)];
+            moveTo(workers, edge, random.nextInt(maxWeight) + 1);
+        }
+    }
+
+    private OptimizerCheckpoint checkpoint(int iteration, int stall, double bestCost, double[] bestWeights,
+                                           double[] currentWeights, int[] candidateEdges) {
+        int m = graph.edgeCount(); // weight arrays may have spare capacity
+        long[] memory = new long[MEMORY_LENGTH];
+        memory[0] = stall;
+        System.arraycopy(visited.words(), 0, memory, 1, VisitedSolutions.WORDS);
+        return new OptimizerCheckpoint(OptimizerCheckpoint.fingerprint(graph), maxWeight, iteration, seed,
+                random().state(), bestCost, Arrays.copyOf(currentWeights, m), Arrays.copyOf(bestWeights, m),
+                candidateEdges.clone(), memory);
+    }
+
+    /** The lower Phi of two moves, ties to the lower index; either may be null. */
+    static Move better(Move best, Move move) {
+        if (move != null && (best == null || move.cost < best.cost
+                || (move.cost == best.cost && move.index < best.index))) {
+            return move;
+        }
+        return best;
+    }
+
+    // Best move of [from, to) split over all workers, for ranges a worker process did not score
+    private static Move bestOfRange(Worker[] workers, ExecutorService pool, int from, int to) {
+        List<Callable<Move>> tasks = new ArrayList<>(workers.length);
+        for (int i = 0; i < workers.length; i++) {
+            Worker worker = workers[i];
+            int a = from + (int) ((long) (to - from) * i / workers.length);
+            int b = from + (int) ((long) (to - from) * (i + 1) / workers.length);
+            tasks.add(() -> worker.bestMove(a, b));
+        }
+        Move best = null;
+        for (Move move : evaluate(tasks, pool)) {
+            best = better(best, move);
+        }
+        return best;
+    }
+
+    private static List<Move> evaluate(List<Callable<Move>> tasks, ExecutorService pool) {
+        List<Move> moves = new ArrayList<>(tasks.size());
+        try {
+            if (pool == null) {
+                for (Callable<Move> task : tasks) {
+                    moves.add(task.call());
+                }
+                return moves;
+            }
+            for (Future<Move> future : pool.invokeAll(tasks)) {
+                moves.add(future.get());
+            }
+            return moves;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Weight optimization interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Candidate evaluation failed", e.getCause());
+        } catch (Exception e) {
+            throw new IllegalStateException("Candidate evaluation failed", e);
+        }
+    }
+
+    static final class Move {
+        final int index;
+        final double cost;
+
+        Move(int index, double cost) {
+            this.index = index;
+            this.cost = cost;
+        }
+    }
+
+    /**
+     * The search state of a coordinator's optimize, rebuilt in a worker process: routing
+     * workers on copies of the graph, the visited set and the move memo. It scores ranges of
+     * the neighborhood and follows every move the coordinator applies. Weights and visited
+     * words come from the coordinator; the rest of the configuration must be set on this
+     * optimizer as on the coordinator's.
+     */
+    final class Replica implements AutoCloseable {
+        private final Worker[] workers;
+        private final ExecutorService pool;
+
+        private Replica(int[] candidateEdges, double[] weights, long[] visitedWords) {
+            System.arraycopy(weights, 0, graph.weight, 0, graph.edgeCount());
+            int workerCount = Math.min(threads, Math.max(1, candidateEdges.length * (maxWeight - 1)));
+            workers = new Worker[workerCount];
+            for (int i = 0; i < workerCount; i++) {
+                workers[i] = new Worker(graph.copy(), candidateEdges);
+            }
+            pool = workerCount > 1 ? Executors.newFixedThreadPool(workerCount) : null;
+            visited = new VisitedSolutions();
+            visited.restore(visitedWords, 0);
+            memoHash = new long[candidateEdges.length * maxWeight];
+            memoCost = new double[memoHash.length];
+            currentHash = VisitedSolutions.hash(graph.weight, graph.edgeCount());
+            sampleThreshold = (long) (sampleFraction * 0x1.0p53);
+        }
+
+        Move bestMove(int from, int to, long salt) {
+            sampleSalt = salt;
+            return bestOfRange(workers, pool, from, to);
+        }
+
+        void apply(int edge, int weight) {
+            moveTo(workers, edge, weight);
+        }
+
+        /** Hash of the current weights, which the coordinator checks against its own. */
+        long currentHash() {
+            return currentHash;
+        }
+
+        @Override
+        public void close() {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    Replica replica(int[] candidateEdges, double[] weights, long[] visitedWords) {
+        return new Replica(candidateEdges, weights, visitedWords);
+    }
+
+    int maxWeight() {
+        return maxWeight;
+    }
+
+    long problemHash() {
+        return DistributedSearch.problemHash(graph, demands, series, aggregate);
+    }
+
+    double sampleFraction() {
+        return sampleFraction;
+    }
+
+    int[] failureScenarios() {
+        return failureScenarios;
+    }
+
+    // Private routing and Phi state for one thread: one matrix, or the whole series (batch != null)
+    private final class Worker {
+        final CompactGraph graph;
+        final EcmpRouting routing;
+        final CongestionCost cost;
+        final BatchRouting batch;
+        final RobustCost robust;
+        final EcmpRouting[] failedRouting; // one per failure scenario, on its own graph copy
+        final CongestionCost[] failedCost;
+        final int[] candidateEdges;
+
+        Worker(CompactGraph graph, int[] candidateEdges) {
+            this.graph = graph;
+            this.candidateEdges = candidateEdges;
+            if (series == null) {
+                this.routing = new EcmpRouting(graph, graph.weight, demands);
+                routing.computeAll();
+                this.cost = new CongestionCost(graph);
+                this.batch = null;
+                this.robust = null;
+            } else {
+                this.routing = null;
+                this.cost = null;
+                this.batch = new BatchRouting(graph, graph.weight, series);
+                batch.computeAll();
+                this.robust = new RobustCost(batch, aggregate);
+            }
+            this.failedRouting = new EcmpRouting[failureScenarios.length];
+            this.failedCost = new CongestionCost[failureScenarios.length];
+            for (int s = 0; s < failureScenarios.length; s++) {
+                CompactGraph failed = graph.copy();
+                failed.weight[failureScenarios[s]] = Double.POSITIVE_INFINITY;
+                failedRouting[s] = new EcmpRouting(failed, failed.weight, demands);
+                failedRouting[s].computeAll();
+                failedCost[s] = new CongestionCost(failed);
+            }
+        }
+
+        double total() {
+            if (batch != null) {
+                return robust.total();
+            }
+            double c = cost.total();
+            for (CongestionCost failed : failedCost) {
+                c = Math.max(c, failed.total());
+            }
+            return c;
+        }
+
+        double maxUtilization() {
+            return batch != null ? batch.maxUtilization() : CongestionCost.maxUtilization(graph);
+        }
+
+        Move bestMove(int from, int to) {
+            Move best = null;
+            boolean improved = false;
+            for (int index = from; index < to; index++) {
+                int edge = candidateEdges[index / maxWeight];
+                int weight = index % maxWeight + 1;
+                double current = graph.weight[edge];
+                if (weight == (int) current || !sampled(index)) {
+                    continue;
+                }
+                long hash = VisitedSolutions.rehash(currentHash, edge, current, weight);
+                if (visited.contains(hash)) {
+                    continue;
+                }
+                if (memoHash[index] == hash) {
+                    if (best == null || memoCost[index] < best.cost) {
+                        best = new Move(index, memoCost[index]);
+                    }
+                    continue;
+                }
+                CandidateEvent event = new CandidateEvent();
+                event.begin();
+                double c = probe(edge, weight);
+                memoHash[index] = hash;
+                memoCost[index] = c;
+                EngineMetrics.candidateEvaluated();
+                if (event.shouldCommit()) {
+                    event.edge = edge;
+                    event.weight = weight;
+                    event.phi = c;
+                    event.changedLinks = batch != null ? batch.changedEdgeCount() : routing.changedEdgeCount();
+                    event.commit();
+                }
+                if (best == null || c < best.cost) {
+                    best = new Move(index, c);
+                }
+            }
+            return best;
+        }
+
+        // Same decision for a move index whichever worker owns it
+        boolean sampled(int index) {
+            return sampleFraction >= 1.0
+                    || SearchRandom.mix(sampleSalt + index * 0x9E3779B97F4A7C15L) >>> 11 < sampleThreshold;
+        }
+
+        double probe(int edge, int weight) {
+            double c = apply(edge, weight);
+            if (batch != null) {
+                robust.rollback();
+                batch.rollback();
+                return c;
+            }
+            cost.rollback();
+            routing.rollback();
+            for (int s = 0; s < failedRouting.length; s++) {
+                if (failureScenarios[s] != edge) {
+                    failedCost[s].rollback();
+                    failedRouting[s].rollback();
+                }
+            }
+            return c;
+        }
+
+        double apply(int edge, int weight) {
+            if (batch != null) {
+                batch.setWeight(edge, weight);
+                return robust.update(batch.changedEdges(), batch.changedEdgeCount());
+            }
+            routing.setWeight(edge, weight);
+            double c = cost.update(routing.changedEdges(), routing.changedEdgeCount());
+            for (int s = 0; s < failedRouting.length; s++) {
+                // The failed link stays down in its own scenario whatever weight it gets
+                if (failureScenarios[s] != edge) {
+                    EcmpRouting failed = failedRouting[s];
+                    failed.setWeight(edge, weight);
+                    failedCost[s].update(failed.changedEdges(), failed.changedEdgeCount());
+                }
+                c = Math.max(c, failedCost[s].total());
+            }
+            return c;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package te;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Interactive what-if editing of weights and capacities. The traffic matrix is routed once
+ * with ECMP; after that every edit is applied incrementally: a weight change goes through
+ * EcmpRouting.setWeight, which repairs only the destination trees the link is on and moves
+ * only the demands toward them, and Phi is rescored only on the links whose load moved. A
+ * capacity change reroutes nothing and only rescores its own link.
+ *
+ * Edits are grouped between begin() and commit(); each committed group can be undone as a
+ * whole, most recent first. Anything that changes weights or loads behind the session's
+ * back (a single-transfer simulation, the optimizer) must call invalidate(), and the next
+ * edit starts from a full reroute.
+ *
+ * With an EventJournal set, every edit and undo records the weights and capacities it set and
+ * the loads it moved, and a full reroute records every link.
+ */
+public final class WhatIfSession {
+    private static final int MAX_UNDO = 100;
+
+    private final CompactGraph graph;
+    private final EcmpRouting routing;
+    private final CongestionCost cost;
+    private final Deque<Edit[]> undo = new ArrayDeque<>();
+    private boolean routed;
+    private EventJournal journal;
+
+    // The group being built between begin() and commit()
+    private Edit[] group = new Edit[8];
+    private int groupSize = -1;
+    private final int[] single = new int[1];
+
+    private static final class Edit {
+        final int edge;
+        final double oldWeight;
+        final double oldCapacity;
+
+        Edit(int edge, double oldWeight, double oldCapacity) {
+            this.edge = edge;
+            this.oldWeight = oldWeight;
+            this.oldCapacity = oldCapacity;
+        }
+    }
+
+    public WhatIfSession(CompactGraph graph, TrafficMatrix demands) {
+        this.graph = graph;
+        this.routing = new EcmpRouting(graph, graph.weight, demands);
+        this.cost = new CongestionCost(graph);
+    }
+
+    /** Records the following edits in journal; null stops recording. */
+    public synchronized void setJournal(EventJournal journal) {
+        this.journal = journal;
+    }
+
+    /** Weights or loads were changed outside the session; the undo history no longer applies. */
+    public synchronized void invalidate() {
+        routed = false;
+        undo.clear();
+    }
+
+    /** Routes the whole matrix if the loads do not reflect it yet. */
+    public synchronized void ensureRouted() {
+        if (!routed) {
+            routing.computeAll();
+            cost.recomputeAll();
+            routed = true;
+            if (journal != null) {
+                journal.time(journal.elapsed());
+                journal.snapshot(graph);
+            }
+        }
+    }
+
+    public synchronized void begin() {
+        if (groupSize >= 0) {
+            throw new IllegalStateException("begin() called twice without commit()");
+        }
+        ensureRouted();
+        groupSize = 0;
+        if (journal != null) {
+            journal.time(journal.elapsed());
+        }
+    }
+
+    /** Sets a weight and reroutes the demands it affects; a no-op when the weight is unchanged. */
+    public synchronized void setWeight(int e, double weight) {
+        checkInGroup();
+        if (!(weight > 0)) {
+            throw new IllegalArgumentException("Weight must be positive: " + weight);
+        }
+        if (weight == graph.weight[e]) {
+            return;
+        }
+        record(e);
+        routing.setWeight(e, weight);
+        cost.update(routing.changedEdges(), routing.changedEdgeCount());
+        journalWeight(e);
+    }
+
+    /** Sets a capacity; only the Phi term of that link changes. */
+    public synchronized void setCapacity(int e, double capacity) {
+        checkInGroup();
+        if (Double.compare(capacity, graph.capacity[e]) == 0) {
+            return;
+        }
+        record(e);
+        graph.capacity[e] = capacity;
+        graph.markDirty(e);
+        single[0] = e;
+        cost.update(single, 1);
+        if (journal != null) {
+            journal.capacity(e, capacity);
+        }
+    }
+
+    /** Ends the group and pushes it on the undo stack; returns the number of edits in it. */
+    public synchronized int commit() {
+        checkInGroup();
+        int size = groupSize;
+        groupSize = -1;
+        if (size > 0) {
+            undo.push(Arrays.copyOf(group, size));
+            if (undo.size() > MAX_UNDO) {
+                undo.removeLast();
+            }
+        }
+        return size;
+    }
+
+    /** Reverts the most recent committed group; false when there is nothing to undo. */
+    public synchronized boolean undo() {
+        if (groupSize >= 0) {
+            throw new IllegalStateException("undo() inside an open group");
+        }
+        Edit[] edits = undo.poll();
+        if (edits == null) {
+            return false;
+        }
+        if (journal != null) {
+            journal.time(journal.elapsed());
+        }
+        // Later edits of the same link were recorded after earlier ones, so undo back to front
+        for (int i = edits.length - 1; i >= 0; i--) {
+            Edit edit = edits[i];
+            if (graph.weight[edit.edge] != edit.oldWeight) {
+                routing.setWeight(edit.edge, edit.oldWeight);
+                cost.update(routing.changedEdges(), routing.changedEdgeCount());
+                journalWeight(edit.edge);
+            }
+            if (Double.compare(graph.capacity[edit.edge], edit.oldCapacity) != 0) {
+                graph.capacity[edit.edge] = edit.oldCapacity;
+                graph.markDirty(edit.edge);
+                single[0] = edit.edge;
+                cost.update(single, 1);
+                if (journal != null) {
+                    journal.capacity(edit.edge, edit.oldCapacity);
+                }
+            }
+        }
+        return true;
+    }
+
+    public synchronized int undoDepth() {
+        return undo.size();
+    }
+
+    public synchronized double phi() {
+        ensureRouted();
+        return cost.total();
+    }
+
+    public synchronized double unroutedDemand() {
+        return routing.unroutedDemand();
+    }
+
+    // The new weight of e and the loads its reroute moved
+    private void journalWeight(int e) {
+        if (journal == null) {
+            return;
+        }
+        journal.weight(e, graph.weight[e]);
+        int[] changed = routing.changedEdges();
+        for (int k = 0; k < routing.changedEdgeCount(); k++) {
+            journal.load(changed[k], graph.load[changed[k]]);
+        }
+    }
+
+    private void record(int e) {
+        if (groupSize == group.length) {
+            group = Arrays.copyOf(group, groupSize * 2);
+        }
+        group[groupSize++] = new Edit(e, graph.weight[e], graph.capacity[e]);
+    }
+
+    private void checkInGroup() {
+        if (groupSize < 0) {
+            throw new IllegalStateException("Edits must be made between begin() and commit()");
+        }
+    }
+}
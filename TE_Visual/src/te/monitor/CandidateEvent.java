@@ -0,0 +1,27 @@
+package te.monitor;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** One probed (edge, weight) move of the local search; off unless a recording enables it. */
+@Name("te.CandidateEvaluation")
+@Label("Candidate Evaluation")
+@Category({"Traffic Engineering", "Optimizer"})
+@Description("Incremental reroute and Phi of one trial weight, rolled back afterwards")
+@Enabled(false)
+public final class CandidateEvent extends jdk.jfr.Event {
+    @Label("Edge")
+    public int edge;
+
+    @Label("Weight")
+    public int weight;
+
+    @Label("Phi")
+    public double phi;
+
+    @Label("Changed Links")
+    public int changedLinks;
+}
@@ -0,0 +1,57 @@
+package te.monitor;
+
+/**
+ * Rate-limited console output. Per-edge and per-tick messages are verbose and only printed
+ * with -Dte.verbose=true; warnings (e.g. bad input lines) are always printed. Either way at
+ * most -Dte.log.rate lines (default 20) go out per second; the rest are counted and
+ * reported as one summary line.
+ */
+public final class ConsoleLog {
+    private static final boolean VERBOSE = Boolean.getBoolean("te.verbose");
+    private static final int LINES_PER_SECOND = Math.max(1, Integer.getInteger("te.log.rate", 20));
+
+    private static long windowStart = System.nanoTime();
+    private static int printed;
+    private static long suppressed;
+
+    private ConsoleLog() {
+    }
+
+    /** True when verbose messages are printed; check it before building an expensive message. */
+    public static boolean verbose() {
+        return VERBOSE;
+    }
+
+    public static void verbose(String message) {
+        if (VERBOSE) {
+            emit(message);
+        }
+    }
+
+    public static void warn(String message) {
+        emit(message);
+    }
+
+    /** Prints the count of messages suppressed since the last summary, e.g. at the end of a file. */
+    public static synchronized void flush() {
+        if (suppressed > 0) {
+            System.out.println("(" + suppressed + " more messages suppressed)");
+            suppressed = 0;
+        }
+    }
+
+    private static synchronized void emit(String message) {
+        long now = System.nanoTime();
+        if (now - windowStart >= 1_000_000_000L) {
+            flush();
+            windowStart = now;
+            printed = 0;
+        }
+        if (printed < LINES_PER_SECOND) {
+            printed++;
+            System.out.println(message);
+        } else {
+            suppressed++;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package te.monitor;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Process-wide counters of the engines, exposed over JMX once register() is called. The
+ * counting methods are on the hot paths (one SPF count per Dijkstra or repair, one
+ * candidate count per probed move), so they only bump a LongAdder or write a volatile;
+ * rates are derived when the MBean is read.
+ */
+public final class EngineMetrics implements EngineMetricsMBean {
+    public static final String OBJECT_NAME = "te:type=EngineMetrics";
+    private static final long WINDOW_NANOS = 1_000_000_000L; // shortest interval a rate is measured over
+
+    private static final EngineMetrics INSTANCE = new EngineMetrics();
+
+    private final LongAdder iterations = new LongAdder();
+    private final LongAdder spfComputations = new LongAdder();
+    private final LongAdder candidateEvaluations = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder simulationTicks = new LongAdder();
+    private volatile double bestPhi = Double.NaN;
+    private volatile double maxUtilization = Double.NaN;
+
+    private final Rate iterationRate = new Rate();
+    private final Rate spfRate = new Rate();
+    private final Rate candidateRate = new Rate();
+
+    private EngineMetrics() {
+    }
+
+    /** Registers the MBean with the platform MBean server; later calls do nothing. */
+    public static void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            // already registered
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot register " + OBJECT_NAME, e);
+        }
+    }
+
+    public static EngineMetrics get() {
+        return INSTANCE;
+    }
+
+    public static void spfComputed() {
+        INSTANCE.spfComputations.increment();
+    }
+
+    public static void candidateEvaluated() {
+        INSTANCE.candidateEvaluations.increment();
+    }
+
+    public static void cacheHit() {
+        INSTANCE.cacheHits.increment();
+    }
+
+    public static void cacheMiss() {
+        INSTANCE.cacheMisses.increment();
+    }
+
+    public static void simulationTick() {
+        INSTANCE.simulationTicks.increment();
+    }
+
+    /** A new optimization starts; the best Phi and max utilization of the previous one no longer apply. */
+    public static void optimizationStarted() {
+        INSTANCE.bestPhi = Double.NaN;
+        INSTANCE.maxUtilization = Double.NaN;
+    }
+
+    public static void iterationDone(double bestPhi, double maxUtilization) {
+        INSTANCE.iterations.increment();
+        INSTANCE.bestPhi = bestPhi;
+        INSTANCE.maxUtilization = maxUtilization;
+    }
+
+    @Override
+    public long getIterations() {
+        return iterations.sum();
+    }
+
+    @Override
+    public double getIterationsPerSecond() {
+        return iterationRate.perSecond(iterations.sum());
+    }
+
+    @Override
+    public long getSpfComputations() {
+        return spfComputations.sum();
+    }
+
+    @Override
+    public double getSpfComputationsPerSecond() {
+        return spfRate.perSecond(spfComputations.sum());
+    }
+
+    @Override
+    public long getCandidateEvaluations() {
+        return candidateEvaluations.sum();
+    }
+
+    @Override
+    public double getCandidateEvaluationsPerSecond() {
+        return candidateRate.perSecond(candidateEvaluations.sum());
+    }
+
+    @Override
+    public double getBestPhi() {
+        return bestPhi;
+    }
+
+    @Override
+    public double getMaxUtilization() {
+        return maxUtilization;
+    }
+
+    @Override
+    public double getCacheHitRate() {
+        long hits = cacheHits.sum();
+        long lookups = hits + cacheMisses.sum();
+        return lookups > 0 ? (double) hits / lookups : Double.NaN;
+    }
+
+    @Override
+    public long getSimulationTicks() {
+        return simulationTicks.sum();
+    }
+
+    // Rate between the last two samples at least WINDOW_NANOS apart, so frequent polling stays stable
+    private static final class Rate {
+        private long lastNanos = System.nanoTime();
+        private long lastCount;
+        private double perSecond;
+
+        synchronized double perSecond(long count) {
+            long now = System.nanoTime();
+            long elapsed = now - lastNanos;
+            if (elapsed >= WINDOW_NANOS) {
+                perSecond = (count - lastCount) * 1e9 / elapsed;
+                lastNanos = now;
+                lastCount = count;
+            }
+            return perSecond;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package te.monitor;
+
+/** JMX view of EngineMetrics, registered as te:type=EngineMetrics. Rates are per second over the last sampling window. */
+public interface EngineMetricsMBean {
+    long getIterations();
+
+    double getIterationsPerSecond();
+
+    long getSpfComputations();
+
+    double getSpfComputationsPerSecond();
+
+    long getCandidateEvaluations();
+
+    double getCandidateEvaluationsPerSecond();
+
+    /** Best Phi of the running (or last) optimization, NaN before the first iteration. */
+    double getBestPhi();
+
+    /** Max utilization after the last optimizer iteration, NaN before the first. */
+    double getMaxUtilization();
+
+    /** Hits / lookups of the path and Phi caches, NaN before the first lookup. */
+    double getCacheHitRate();
+
+    long getSimulationTicks();
+}
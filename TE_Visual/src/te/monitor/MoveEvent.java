@@ -0,0 +1,31 @@
+package te.monitor;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** One optimizer iteration, from scoring the neighborhood to applying the chosen move. */
+@Name("te.Move")
+@Label("Accepted Move")
+@Category({"Traffic Engineering", "Optimizer"})
+@Description("Optimizer iteration and the move it applied")
+public final class MoveEvent extends jdk.jfr.Event {
+    @Label("Iteration")
+    public int iteration;
+
+    @Label("Edge")
+    public int edge;
+
+    @Label("Weight")
+    public int weight;
+
+    @Label("Phi")
+    public double phi;
+
+    @Label("Best Phi")
+    public double bestPhi;
+
+    @Label("Candidates")
+    public int candidates;
+}
@@ -0,0 +1,22 @@
+package te.monitor;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** One step of the flow simulator: advancing to the next event and reallocating rates. */
+@Name("te.SimulationTick")
+@Label("Simulation Tick")
+@Category({"Traffic Engineering", "Simulator"})
+@Description("Flow simulator step to the next arrival, completion or tick")
+public final class SimulationTickEvent extends jdk.jfr.Event {
+    @Label("Simulated Time")
+    public double simulatedTime;
+
+    @Label("Active Flows")
+    public int activeFlows;
+
+    @Label("Rates Reallocated")
+    public boolean reallocated;
+}
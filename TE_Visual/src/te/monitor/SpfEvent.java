@@ -0,0 +1,26 @@
+package te.monitor;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * One shortest-path computation: a full Dijkstra toward or from a node, or the repair of a
+ * distance vector after one edge changed. Thousands run per optimizer iteration, so the
+ * event is off unless a recording enables it (e.g. with a threshold).
+ */
+@Name("te.Spf")
+@Label("Shortest Path Computation")
+@Category({"Traffic Engineering", "Routing"})
+@Description("Full or incremental shortest-path computation")
+@Enabled(false)
+public final class SpfEvent extends jdk.jfr.Event {
+    @Label("Kind")
+    public String kind;
+
+    @Label("Node or Edge")
+    @Description("Target or source node of a full run, changed edge of a repair")
+    public int element;
+}
@@ -0,0 +1,139 @@
+package te.view;
+
+import org.graphstream.graph.Edge;
+import te.CompactGraph;
+import te.DirtyEdges;
+
+import javax.swing.Timer;
+import java.util.Arrays;
+
+/**
+ * Pushes compact edge state into the GraphStream view. Engines never touch the view: they
+ * mark edges dirty on the CompactGraph, and a Swing timer drains the marks at most maxFps
+ * times per second. Per edge the last shown values are cached, so the style and the label
+ * string are only rebuilt when what they display actually changed.
+ *
+ * LevelOfDetail lowers the detail when the view is zoomed out: below FULL no label strings
+ * are built at all, and at OVERVIEW links under 50% load and links inside a folded cluster
+ * are hidden.
+ */
+public final class EdgeRenderer {
+    private static final String[] STYLES = {
+            "fill-color: green;", "fill-color: orange;", "fill-color: red;"
+    };
+
+    private final CompactGraph network;
+    private final Edge[] views;
+    private final DirtyEdges dirty;
+    private final int[] drained;
+    private final Timer timer;
+
+    // Last values pushed to the view; MIN_VALUE / -1 until the first flush
+    private final long[] shownLabel; // cost, weight and load percentage at label precision
+    private final byte[] shownStyle;
+    private final boolean[] shownHidden;
+
+    private LevelOfDetail.Level detail = LevelOfDetail.Level.FULL;
+    private boolean[] collapsed; // edges inside a folded cluster at OVERVIEW, else null
+
+    public EdgeRenderer(CompactGraph network, Edge[] views, int maxFps) {
+        int m = network.edgeCount();
+        this.network = network;
+        this.views = views;
+        this.dirty = new DirtyEdges(m);
+        this.drained = new int[m];
+        this.shownLabel = new long[3 * m];
+        this.shownStyle = new byte[m];
+        this.shownHidden = new boolean[m];
+        Arrays.fill(shownLabel, Long.MIN_VALUE);
+        Arrays.fill(shownStyle, (byte) -1);
+        this.timer = new Timer(1000 / Math.max(1, maxFps), event -> flush());
+        network.addDirtyEdges(dirty);
+        dirty.markAll();
+    }
+
+    public void start() {
+        timer.start();
+    }
+
+    public void stop() {
+        timer.stop();
+        network.removeDirtyEdges(dirty);
+    }
+
+    /** Marks an edge the caller changed directly on the CompactGraph. */
+    public void markDirty(int id) {
+        dirty.mark(id);
+    }
+
+    /**
+     * Switches the level of detail and redraws every edge under it. Leaving FULL removes the
+     * labels, so the view stops laying out text nobody can read.
+     */
+    public synchronized void setDetail(LevelOfDetail.Level level, boolean[] collapsedEdges) {
+        if (level != LevelOfDetail.Level.FULL && detail == LevelOfDetail.Level.FULL) {
+            for (int id = 0; id < views.length && id < network.edgeCount(); id++) {
+                views[id].removeAttribute("ui.label");
+            }
+            Arrays.fill(shownLabel, Long.MIN_VALUE);
+        }
+        detail = level;
+        collapsed = collapsedEdges;
+        dirty.markAll();
+        flush();
+    }
+
+    /**
+     * Applies all pending changes now. Runs on the timer, and also when the view must be
+     * current at once (before the first frame, after a change of detail).
+     */
+    public synchronized void flush() {
+        int count = dirty.drain(drained);
+        for (int k = 0; k < count; k++) {
+            render(drained[k]);
+        }
+    }
+
+    private void render(int id) {
+        Edge e = views[id];
+        double cost = network.cost[id];
+        double weight = network.weight[id];
+        double load = network.load[id];
+
+        // Calculate load as a percentage of capacity
+        double capacity = network.capacityOr(id, 0.0);
+        double loadPercentage = (capacity > 0) ? (load / capacity) * 100 : 0;
+
+        byte style = (byte) (loadPercentage > 75 ? 2 : loadPercentage > 50 ? 1 : 0);
+        if (style != shownStyle[id]) {
+            e.setAttribute("ui.style", STYLES[style]);
+            shownStyle[id] = style;
+        }
+
+        boolean hidden = detail == LevelOfDetail.Level.OVERVIEW
+                && (style == 0 || (collapsed != null && collapsed[id]));
+        if (hidden != shownHidden[id]) {
+            if (hidden) {
+                e.setAttribute("ui.hide");
+            } else {
+                e.removeAttribute("ui.hide");
+            }
+            shownHidden[id] = hidden;
+        }
+        if (detail != LevelOfDetail.Level.FULL) {
+            return;
+        }
+
+        long c = Math.round(cost * 100);
+        long w = Math.round(weight * 100);
+        long p = Math.round(loadPercentage * 100);
+        int at = 3 * id;
+        if (c != shownLabel[at] || w != shownLabel[at + 1] || p != shownLabel[at + 2]) {
+            String label = String.format("Link Cost: %.2f | Weight: %.2f | Load: %.2f%%", cost, weight, loadPercentage);
+            e.setAttribute("ui.label", label);
+            shownLabel[at] = c;
+            shownLabel[at + 1] = w;
+            shownLabel[at + 2] = p;
+        }
+    }
+}
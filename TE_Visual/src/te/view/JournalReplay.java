@@ -0,0 +1,376 @@
+package te.view;
+
+import te.CompactGraph;
+import te.EventJournal;
+import te.JournalReader;
+
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JComboBox;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JSlider;
+import javax.swing.JTextField;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Plays an EventJournal back into the CompactGraph the view renders, so a long optimization
+ * or simulation can be reviewed without running it again. Records are applied on the Swing
+ * thread at speed times the recorded clock; the EdgeRenderer picks the changed links up as
+ * usual. Idle stretches of the recording longer than a couple of wall seconds are skipped.
+ *
+ * Seeking uses keyframes, copies of every weight, capacity and load taken every
+ * keyframeEvery records: a seek restores the keyframe before the target and applies at most
+ * keyframeEvery records from there. The keyframe spacing grows for very long journals so the
+ * copies stay within KEYFRAME_BUDGET values. Building them reads the whole journal, so
+ * buildKeyframes does it on a background thread; until it is done, play works and a seek
+ * replays from the start of the journal.
+ */
+public final class JournalReplay {
+    public static final int DEFAULT_KEYFRAME_EVERY = 4096;
+
+    private static final long KEYFRAME_BUDGET = 1L << 24; // doubles over all keyframes, 128 MB
+    private static final int FRAME_MILLIS = 33;
+    private static final int MAX_RECORDS_PER_FRAME = 1 << 18; // keeps the Swing thread responsive
+    private static final double MAX_IDLE_WALL_SECONDS = 2.0;
+    private static final int SLIDER_STEPS = 1000;
+    private static final String[] SPEEDS = {"1x", "10x", "60x", "600x", "3600x", "36000x"};
+
+    private final JournalReader journal;
+    private final CompactGraph network;
+    private final int keyframeEvery;
+    private final State initial; // before the first record, also the first keyframe
+    private State[] keyframes;   // null until buildKeyframes is done
+    private SwingWorker<State[], Void> keyframeBuilder;
+    private final State state; // clock, Phi and iteration at position; the link values live in network
+    private final Timer timer;
+
+    private long position; // next record to apply
+    private double speed = 60.0;
+    private long lastFrameNanos;
+    private Runnable onChange = () -> { };
+
+    public JournalReplay(JournalReader journal, CompactGraph network, int keyframeEvery) {
+        if (journal.edgeCount() != network.edgeCount()) {
+            throw new IllegalArgumentException("Journal has " + journal.edgeCount() + " links, the network "
+                    + network.edgeCount());
+        }
+        this.journal = journal;
+        this.network = network;
+        long records = journal.recordCount();
+        long perKeyframe = 3L * network.edgeCount() + 3;
+        long spacing = Math.max(keyframeEvery, records * perKeyframe / KEYFRAME_BUDGET + 1);
+        this.keyframeEvery = (int) Math.min(Integer.MAX_VALUE, spacing);
+        int m = network.edgeCount();
+        // Journals start with every link's values; capacities only since CAPACITY records exist
+        this.initial = new State(new double[m], Arrays.copyOf(network.capacity, m), new double[m]);
+        this.state = new State(network.weight, network.capacity, network.load);
+        this.timer = new Timer(FRAME_MILLIS, event -> frame());
+        seek(0);
+    }
+
+    /** Records between two keyframes, after any growth for the keyframe budget. */
+    public int keyframeEvery() {
+        return keyframeEvery;
+    }
+
+    /** True once the keyframes are built and a seek no longer replays from the start. */
+    public boolean hasKeyframes() {
+        return keyframes != null;
+    }
+
+    /**
+     * Builds the keyframes on a background thread and runs onReady on the Swing thread when
+     * they are in place. Call on the Swing thread, once.
+     */
+    public void buildKeyframes(Runnable onReady) {
+        keyframeBuilder = new SwingWorker<State[], Void>() {
+            @Override
+            protected State[] doInBackground() {
+                return scanKeyframes(this::isCancelled);
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    keyframes = get();
+                    onReady.run();
+                } catch (CancellationException | InterruptedException e) {
+                    // the player was closed first
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Cannot build the replay keyframes", e.getCause());
+                }
+            }
+        };
+        keyframeBuilder.execute();
+    }
+
+    public long position() {
+        return position;
+    }
+
+    public long recordCount() {
+        return journal.recordCount();
+    }
+
+    /** Journal clock at the current position, in seconds. */
+    public double time() {
+        return state.time;
+    }
+
+    /** Phi of the last PHI record applied, NaN before the first. */
+    public double phi() {
+        return state.phi;
+    }
+
+    public int iteration() {
+        return state.iteration;
+    }
+
+    /** Journal seconds per wall second. */
+    public void setSpeed(double speed) {
+        this.speed = Math.max(0.0, speed);
+    }
+
+    /** Runs after every frame and seek on the Swing thread, e.g. to update a status line. */
+    public void setOnChange(Runnable onChange) {
+        this.onChange = onChange;
+    }
+
+    public boolean isPlaying() {
+        return timer.isRunning();
+    }
+
+    public void play() {
+        if (position < journal.recordCount()) {
+            lastFrameNanos = System.nanoTime();
+            timer.start();
+        }
+    }
+
+    public void pause() {
+        timer.stop();
+    }
+
+    /** Puts the network in the state after the first record records, index 0 being the initial state. */
+    public void seek(long record) {
+        long target = Math.max(0, Math.min(record, journal.recordCount()));
+        long from = keyframes == null ? 0 : (target / keyframeEvery) * keyframeEvery;
+        State key = keyframes == null ? initial : keyframes[(int) (from / keyframeEvery)];
+        System.arraycopy(key.weight, 0, network.weight, 0, network.edgeCount());
+        System.arraycopy(key.capacity, 0, network.capacity, 0, network.edgeCount());
+        System.arraycopy(key.load, 0, network.load, 0, network.edgeCount());
+        state.time = key.time;
+        state.phi = key.phi;
+        state.iteration = key.iteration;
+        for (long r = from; r < target; r++) {
+            apply(r, state);
+        }
+        position = target;
+        lastFrameNanos = System.nanoTime();
+        network.markAllDirty();
+        onChange.run();
+    }
+
+    // Runs on the keyframe builder's thread; touches only the journal and its own copies
+    private State[] scanKeyframes(BooleanSupplier cancelled) {
+        long records = journal.recordCount();
+        State[] keys = new State[(int) (records / keyframeEvery) + 1];
+        State scan = initial.copy();
+        for (long r = 0; r <= records; r++) {
+            if (r % keyframeEvery == 0) {
+                if (cancelled.getAsBoolean()) {
+                    return null;
+                }
+                keys[(int) (r / keyframeEvery)] = scan.copy();
+            }
+            if (r < records) {
+                apply(r, scan);
+            }
+        }
+        return keys;
+    }
+
+    // Advances the clock by the wall time since the last frame and applies every record up to it
+    private void frame() {
+        long now = System.nanoTime();
+        state.time += speed * (now - lastFrameNanos) / 1e9;
+        lastFrameNanos = now;
+        long records = journal.recordCount();
+        int applied = 0;
+        while (position < records && applied < MAX_RECORDS_PER_FRAME) {
+            if (journal.type(position) == EventJournal.TIME) {
+                double next = journal.value(position);
+                if (next > state.time) {
+                    if (next - state.time <= speed * MAX_IDLE_WALL_SECONDS) {
+                        break;
+                    }
+                    state.time = next; // nothing happened for a while in the recording
+                }
+            }
+            applyToNetwork(position);
+            position++;
+            applied++;
+        }
+        if (position >= records) {
+            timer.stop();
+        }
+        onChange.run();
+    }
+
+    private void applyToNetwork(long r) {
+        int type = journal.type(r);
+        apply(r, state);
+        if (type == EventJournal.LOAD || type == EventJournal.WEIGHT || type == EventJournal.CAPACITY
+                || type == EventJournal.MOVE) {
+            network.markDirty(journal.element(r));
+        }
+    }
+
+    private void apply(long r, State s) {
+        int element = journal.element(r);
+        double value = journal.value(r);
+        switch (journal.type(r)) {
+            case EventJournal.LOAD:
+                s.load[element] = value;
+                break;
+            case EventJournal.WEIGHT:
+            case EventJournal.MOVE:
+                s.weight[element] = value;
+                break;
+            case EventJournal.CAPACITY:
+                s.capacity[element] = value;
+                break;
+            case EventJournal.PHI:
+                s.iteration = element;
+                s.phi = value;
+                break;
+            case EventJournal.TIME:
+                s.time = Math.max(s.time, value);
+                break;
+            default:
+                break; // a record type from a newer writer
+        }
+    }
+
+    /** A small player window: play/pause, speed, a position slider and seeking to a record index. */
+    public JFrame show(String title) {
+        JFrame frame = new JFrame(title);
+        frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        JButton playButton = new JButton("Play");
+        JComboBox<String> speedBox = new JComboBox<>(SPEEDS);
+        speedBox.setSelectedItem("60x");
+        JSlider slider = new JSlider(0, SLIDER_STEPS, 0);
+        JTextField indexField = new JTextField(10);
+        JButton seekButton = new JButton("Go to event");
+        JLabel status = new JLabel();
+        status.setBorder(BorderFactory.createEmptyBorder(4, 8, 4, 8));
+        boolean[] updatingSlider = {false};
+        // Seeking waits for the keyframes; until then a seek would replay from the start
+        slider.setEnabled(hasKeyframes());
+        indexField.setEnabled(hasKeyframes());
+        seekButton.setEnabled(hasKeyframes());
+
+        playButton.addActionListener(event -> {
+            if (isPlaying()) {
+                pause();
+            } else {
+                play();
+            }
+            playButton.setText(isPlaying() ? "Pause" : "Play");
+        });
+        speedBox.addActionListener(event -> {
+            String s = (String) speedBox.getSelectedItem();
+            setSpeed(Double.parseDouble(s.substring(0, s.length() - 1)));
+        });
+        slider.addChangeListener(event -> {
+            if (!updatingSlider[0] && !slider.getValueIsAdjusting()) {
+                seek(journal.recordCount() * slider.getValue() / SLIDER_STEPS);
+            }
+        });
+        seekButton.addActionListener(event -> {
+            try {
+                seek(Long.parseLong(indexField.getText().trim()));
+            } catch (NumberFormatException e) {
+                indexField.setText(String.valueOf(position));
+            }
+        });
+        setOnChange(() -> {
+            status.setText(String.format("Event %,d of %,d   t = %.1f s   iteration %d   Phi %.2f%s",
+                    position, journal.recordCount(), state.time, state.iteration, state.phi,
+                    hasKeyframes() ? "" : "   (indexing for seeking...)"));
+            if (!slider.getValueIsAdjusting()) {
+                updatingSlider[0] = true;
+                slider.setValue(journal.recordCount() == 0 ? 0
+                        : (int) (position * SLIDER_STEPS / journal.recordCount()));
+                updatingSlider[0] = false;
+            }
+            if (!isPlaying()) {
+                playButton.setText("Play");
+            }
+        });
+        onChange.run();
+
+        JPanel controls = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        controls.add(playButton);
+        controls.add(new JLabel("Speed:"));
+        controls.add(speedBox);
+        controls.add(indexField);
+        controls.add(seekButton);
+        frame.add(controls, BorderLayout.NORTH);
+        frame.add(slider, BorderLayout.CENTER);
+        frame.add(status, BorderLayout.SOUTH);
+        frame.addWindowListener(new java.awt.event.WindowAdapter() {
+            @Override
+            public void windowClosed(java.awt.event.WindowEvent e) {
+                pause();
+                if (keyframeBuilder != null) {
+                    keyframeBuilder.cancel(false);
+                }
+            }
+        });
+        frame.pack();
+        frame.setVisible(true);
+        if (!hasKeyframes()) {
+            buildKeyframes(() -> {
+                slider.setEnabled(true);
+                indexField.setEnabled(true);
+                seekButton.setEnabled(true);
+                onChange.run();
+            });
+        }
+        return frame;
+    }
+
+    // Everything a keyframe restores
+    private static final class State {
+        final double[] weight;
+        final double[] capacity;
+        final double[] load;
+        double time;
+        double phi = Double.NaN;
+        int iteration = -1;
+
+        State(double[] weight, double[] capacity, double[] load) {
+            this.weight = weight;
+            this.capacity = capacity;
+            this.load = load;
+        }
+
+        State copy() {
+            State s = new State(weight.clone(), capacity.clone(), load.clone());
+            s.time = time;
+            s.phi = phi;
+            s.iteration = iteration;
+            return s;
+        }
+    }
+}
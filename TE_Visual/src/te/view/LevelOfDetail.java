@@ -0,0 +1,180 @@
+package te.view;
+
+import org.graphstream.graph.Graph;
+import org.graphstream.graph.Node;
+import org.graphstream.ui.graphicGraph.GraphicGraph;
+import org.graphstream.ui.graphicGraph.GraphicNode;
+import org.graphstream.ui.view.camera.Camera;
+import te.CompactGraph;
+
+import javax.swing.Timer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Picks how much of the network the view draws from how long an average edge is on screen.
+ * FULL draws everything; LINKS drops the edge labels; OVERVIEW also hides idle links and
+ * folds every screen cell of CLUSTER_PIXELS into its best-connected node, which is labelled
+ * with the number of nodes it stands for. A Swing timer polls the camera, so all changes
+ * happen on the thread the viewer reads the graph on.
+ */
+public final class LevelOfDetail {
+    public enum Level { FULL, LINKS, OVERVIEW }
+
+    private static final double LABEL_PIXELS = 120.0; // mean edge length on screen needed for edge labels
+    private static final double LINK_PIXELS = 20.0;   // below this the view switches to OVERVIEW
+    private static final double CLUSTER_PIXELS = 40.0;
+    private static final double REGROUP_RATIO = 1.25; // zoom change that recomputes the clusters
+    private static final int HIDDEN = -1;
+
+    private final CompactGraph network;
+    private final Graph graph;
+    private final GraphicGraph view;
+    private final Camera camera;
+    private final EdgeRenderer renderer;
+    private final GraphicNode[] positions; // resolved lazily, the viewer adds nodes asynchronously
+    private final int[] shownMembers; // per node: HIDDEN, 0 for a plain node, else nodes it stands for
+    private final Timer timer;
+
+    private Level level = Level.FULL;
+    private double groupedRatio; // pixels per graph unit of the current clusters
+
+    public LevelOfDetail(CompactGraph network, Graph graph, GraphicGraph view, Camera camera,
+                         EdgeRenderer renderer, int pollMillis) {
+        this.network = network;
+        this.graph = graph;
+        this.view = view;
+        this.camera = camera;
+        this.renderer = renderer;
+        this.positions = new GraphicNode[network.nodeCount()];
+        this.shownMembers = new int[network.nodeCount()];
+        this.timer = new Timer(pollMillis, event -> poll());
+    }
+
+    public void start() {
+        timer.start();
+    }
+
+    public void stop() {
+        timer.stop();
+    }
+
+    public Level level() {
+        return level;
+    }
+
+    private void poll() {
+        double ratio = camera.getMetrics().ratioPx2Gu;
+        double edgeLength = meanEdgeLength();
+        if (!(ratio > 0) || !(edgeLength > 0)) {
+            return; // not rendered yet, or every node still at the origin
+        }
+        double pixels = edgeLength * ratio;
+        Level next = pixels >= LABEL_PIXELS ? Level.FULL : pixels >= LINK_PIXELS ? Level.LINKS : Level.OVERVIEW;
+        if (next == Level.OVERVIEW) {
+            if (level != Level.OVERVIEW || Math.max(ratio / groupedRatio, groupedRatio / ratio) >= REGROUP_RATIO) {
+                level = next;
+                group(ratio);
+            }
+        } else if (next != level) {
+            if (level == Level.OVERVIEW) {
+                ungroup();
+            }
+            level = next;
+            renderer.setDetail(level, null);
+        }
+    }
+
+    // Mean edge length in graph units, from the positions the viewer currently draws
+    private double meanEdgeLength() {
+        double sum = 0.0;
+        int count = 0;
+        for (int e = 0; e < network.edgeCount(); e++) {
+            GraphicNode a = position(network.edgeFrom[e]);
+            GraphicNode b = position(network.edgeTo[e]);
+            if (a != null && b != null && a != b) {
+                sum += Math.hypot(a.getX() - b.getX(), a.getY() - b.getY());
+                count++;
+            }
+        }
+        return count > 0 ? sum / count : 0.0;
+    }
+
+    private GraphicNode position(int v) {
+        GraphicNode node = positions[v];
+        if (node == null) {
+            node = (GraphicNode) view.getNode(network.nodeName(v));
+            positions[v] = node;
+        }
+        return node;
+    }
+
+    // Folds each grid cell into its node of highest degree; edges inside a cell are hidden
+    private void group(double ratio) {
+        int n = network.nodeCount();
+        double cell = CLUSTER_PIXELS / ratio;
+        int[] outStart = network.outStart();
+        int[] inStart = network.inStart();
+        Map<Long, Integer> cells = new HashMap<>();
+        int[] cellOf = new int[n];
+        int[] representative = new int[n];
+        int[] members = new int[n];
+        for (int v = 0; v < n; v++) {
+            GraphicNode p = position(v);
+            long cx = p == null ? 0 : (long) Math.floor(p.getX() / cell);
+            long cy = p == null ? 0 : (long) Math.floor(p.getY() / cell);
+            Integer c = cells.putIfAbsent((cx << 32) ^ (cy & 0xffffffffL), cells.size());
+            int id = c == null ? cells.size() - 1 : c;
+            cellOf[v] = id;
+            int degree = outStart[v + 1] - outStart[v] + inStart[v + 1] - inStart[v];
+            if (members[id]++ == 0) {
+                representative[id] = v;
+            } else {
+                int r = representative[id];
+                if (degree > outStart[r + 1] - outStart[r] + inStart[r + 1] - inStart[r]) {
+                    representative[id] = v;
+                }
+            }
+        }
+
+        for (int v = 0; v < n; v++) {
+            int id = cellOf[v];
+            show(v, representative[id] != v ? HIDDEN : members[id] > 1 ? members[id] : 0);
+        }
+        boolean[] collapsed = new boolean[network.edgeCount()];
+        for (int e = 0; e < collapsed.length; e++) {
+            collapsed[e] = cellOf[network.edgeFrom[e]] == cellOf[network.edgeTo[e]];
+        }
+        groupedRatio = ratio;
+        renderer.setDetail(Level.OVERVIEW, collapsed);
+    }
+
+    private void ungroup() {
+        for (int v = 0; v < network.nodeCount(); v++) {
+            show(v, 0);
+        }
+    }
+
+    private void show(int v, int members) {
+        if (shownMembers[v] == members) {
+            return;
+        }
+        Node node = graph.getNode(network.nodeName(v));
+        if (node == null) {
+            return;
+        }
+        if (members == HIDDEN) {
+            node.setAttribute("ui.hide");
+        } else {
+            node.removeAttribute("ui.hide");
+        }
+        if (members > 0) {
+            node.setAttribute("ui.class", "cluster");
+            node.setAttribute("ui.label", network.nodeName(v) + " (+" + (members - 1) + ")");
+        } else {
+            node.removeAttribute("ui.class");
+            node.setAttribute("ui.label", network.nodeName(v));
+        }
+        shownMembers[v] = members;
+    }
+}
@@ -0,0 +1,168 @@
+package te.view;
+
+import org.graphstream.graph.Graph;
+import org.graphstream.graph.Node;
+import org.graphstream.ui.graphicGraph.GraphicGraph;
+import org.graphstream.ui.graphicGraph.GraphicNode;
+import te.CompactGraph;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Node coordinates of a finished layout, indexed by compact node id, so the force-directed
+ * layout only has to run once per topology. Files are named after a hash of the node names
+ * and edge endpoints, so a changed topology never picks up a stale layout.
+ *
+ * <pre>
+ * header   magic "TELAYT01", version, nodeCount, topology hash (24 bytes)
+ * body     double[n] x, double[n] y
+ * trailer  CRC32 of everything before it (8 bytes)
+ * </pre>
+ */
+public final class NodeLayout {
+    private static final long MAGIC = 0x54454C4159543031L; // "TELAYT01"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 24;
+
+    final double[] x;
+    final double[] y;
+
+    private NodeLayout(double[] x, double[] y) {
+        this.x = x;
+        this.y = y;
+    }
+
+    /** Identifies the topology (node names and edge endpoints) a layout belongs to. */
+    public static long topologyHash(CompactGraph graph) {
+        long h = 0xcbf29ce484222325L;
+        h = (h ^ graph.nodeCount()) * 0x100000001b3L;
+        for (int v = 0; v < graph.nodeCount(); v++) {
+            for (byte b : graph.nodeName(v).getBytes(StandardCharsets.UTF_8)) {
+                h = (h ^ b) * 0x100000001b3L;
+            }
+            h = (h ^ 0xff) * 0x100000001b3L; // name separator
+        }
+        h = (h ^ graph.edgeCount()) * 0x100000001b3L;
+        for (int e = 0; e < graph.edgeCount(); e++) {
+            h = (h ^ graph.edgeFrom[e]) * 0x100000001b3L;
+            h = (h ^ graph.edgeTo[e]) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /** The layout file of this topology inside directory. */
+    public static Path file(Path directory, CompactGraph graph) {
+        return directory.resolve(String.format("layout-%016x.bin", topologyHash(graph)));
+    }
+
+    /**
+     * Takes the positions the viewer's layout produced. Call on the Swing thread, which is
+     * where the viewer updates its graphic graph. Nodes the viewer does not know sit at 0,0.
+     */
+    public static NodeLayout capture(CompactGraph graph, GraphicGraph view) {
+        int n = graph.nodeCount();
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int v = 0; v < n; v++) {
+            GraphicNode node = (GraphicNode) view.getNode(graph.nodeName(v));
+            if (node != null) {
+                x[v] = node.getX();
+                y[v] = node.getY();
+            }
+        }
+        return new NodeLayout(x, y);
+    }
+
+    /** Pins every node of the view at its stored position, so the viewer needs no layout. */
+    public void applyTo(CompactGraph graph, Graph view) {
+        for (int v = 0; v < x.length; v++) {
+            Node node = view.getNode(graph.nodeName(v));
+            if (node != null) {
+                node.setAttribute("xyz", x[v], y[v], 0.0);
+            }
+        }
+    }
+
+    /** Saves the layout as the layout file of graph's topology inside directory. */
+    public Path write(Path directory, CompactGraph graph) throws IOException {
+        Path target = file(directory, graph);
+        int n = x.length;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + 16 * n + 8).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putLong(MAGIC).putInt(VERSION).putInt(n);
+        buffer.putLong(topologyHash(graph));
+        buffer.asDoubleBuffer().put(x);
+        buffer.position(buffer.position() + 8 * n);
+        buffer.asDoubleBuffer().put(y);
+        buffer.position(buffer.position() + 8 * n);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putLong(crc.getValue());
+        buffer.flip();
+
+        Files.createDirectories(directory);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return target;
+    }
+
+    /** The stored layout of graph's topology, or null when none was saved yet. */
+    public static NodeLayout read(Path directory, CompactGraph graph) throws IOException {
+        Path source = file(directory, graph);
+        byte[] data;
+        try {
+            data = Files.readAllBytes(source);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        if (data.length < HEADER_BYTES + 8 || buffer.getLong() != MAGIC) {
+            throw new IOException("Not a layout file: " + source);
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported layout version " + version + ": " + source);
+        }
+        int n = buffer.getInt();
+        long hash = buffer.getLong();
+        if (hash != topologyHash(graph) || n != graph.nodeCount()) {
+            throw new IOException("Layout file belongs to another topology: " + source);
+        }
+        if (data.length != HEADER_BYTES + 16L * n + 8) {
+            throw new IOException("Truncated layout file: " + source);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 8);
+        if (buffer.getLong(data.length - 8) != crc.getValue()) {
+            throw new IOException("Corrupt layout file: " + source);
+        }
+
+        buffer.position(HEADER_BYTES);
+        double[] x = new double[n];
+        double[] y = new double[n];
+        buffer.asDoubleBuffer().get(x);
+        buffer.position(buffer.position() + 8 * n);
+        buffer.asDoubleBuffer().get(y);
+        return new NodeLayout(x, y);
+    }
+}
@@ -0,0 +1,47 @@
+package te;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class EcmpRoutingTest {
+
+    // A <-> B <-> C, both directions of each link
+    private static CompactGraph line() {
+        CompactGraph graph = new CompactGraph();
+        graph.addEdge("A", "B", 1.0);
+        graph.addEdge("B", "A", 1.0);
+        graph.addEdge("B", "C", 1.0);
+        graph.addEdge("C", "B", 1.0);
+        return graph;
+    }
+
+    @Test
+    void edgesWithoutAWeightRouteAsWeightOne() {
+        CompactGraph graph = line();
+        TrafficMatrix demands = new TrafficMatrix(graph.nodeCount());
+        demands.add(graph.nodeId("A"), graph.nodeId("C"), 10.0);
+
+        EcmpRouting routing = new EcmpRouting(graph, graph.weight, demands);
+        routing.computeAll();
+
+        assertEquals(10.0, graph.load[graph.edgeId(graph.nodeId("A"), graph.nodeId("B"))], 1e-9);
+        assertEquals(10.0, graph.load[graph.edgeId(graph.nodeId("B"), graph.nodeId("C"))], 1e-9);
+        assertEquals(0.0, routing.unroutedDemand(), 1e-9);
+    }
+
+    @Test
+    void demandCaughtOnAZeroWeightCycleIsUnrouted() {
+        CompactGraph graph = line();
+        for (int e = 0; e < graph.edgeCount(); e++) {
+            graph.weight[e] = 0.0;
+        }
+        TrafficMatrix demands = new TrafficMatrix(graph.nodeCount());
+        demands.add(graph.nodeId("A"), graph.nodeId("C"), 10.0);
+
+        EcmpRouting routing = new EcmpRouting(graph, graph.weight, demands);
+        routing.computeAll();
+
+        assertEquals(10.0, routing.unroutedDemand(), 1e-9);
+    }
+}
@@ -0,0 +1,51 @@
+package te;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FlowSimulatorTest {
+
+    // A -> B -> C, 10 bytes/s on A-B and 4 bytes/s on B-C
+    private static CompactGraph line() {
+        CompactGraph graph = new CompactGraph();
+        graph.addEdge("A", "B", 1.0);
+        graph.addEdge("B", "C", 1.0);
+        graph.capacity[0] = 10.0;
+        graph.capacity[1] = 4.0;
+        return graph;
+    }
+
+    @Test
+    void ratesAreMaxMinFairAndReallocatedWhenAFlowFinishes() throws InterruptedException {
+        FlowSimulator simulator = new FlowSimulator(line());
+        int through = simulator.addFlow(new int[]{0, 1}, 8.0, 0.0);
+        int local = simulator.addFlow(new int[]{0}, 24.0, 0.0);
+
+        simulator.run(1.0);
+        assertEquals(4.0, simulator.rate(through), 1e-9); // held to 4 by B-C
+        assertEquals(6.0, simulator.rate(local), 1e-9);   // the rest of A-B
+        assertEquals(4.0, simulator.remaining(through), 1e-9);
+
+        simulator.run();
+        assertEquals(2.0, simulator.completionTime(through), 1e-9);
+        // 12 bytes sent by t = 2, the other 12 at the full 10 bytes/s
+        assertEquals(3.2, simulator.completionTime(local), 1e-9);
+        assertEquals(0.0, simulator.remaining(local), 0.0);
+    }
+
+    @Test
+    void aFlowOverAZeroCapacityLinkNeverFinishes() throws InterruptedException {
+        CompactGraph graph = line();
+        graph.capacity[1] = 0.0;
+        FlowSimulator simulator = new FlowSimulator(graph);
+        int blocked = simulator.addFlow(new int[]{0, 1}, 8.0, 0.0);
+        int local = simulator.addFlow(new int[]{0}, 10.0, 0.5);
+
+        simulator.run();
+        assertTrue(Double.isNaN(simulator.completionTime(blocked)));
+        assertEquals(8.0, simulator.remaining(blocked), 0.0);
+        assertEquals(1.5, simulator.completionTime(local), 1e-9);
+    }
+}
@@ -0,0 +1,44 @@
+package te;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TopologyFilesTest {
+
+    private static Path file(String... lines) throws IOException {
+        Path path = Files.createTempFile("topology", ".txt");
+        path.toFile().deleteOnExit();
+        Files.write(path, String.join("\n", lines).getBytes());
+        return path;
+    }
+
+    @Test
+    void linkCostLinesWithAnEmptyFieldOrBadValueAreSkipped() throws IOException {
+        CompactGraph graph = new CompactGraph();
+        int read = TopologyFiles.readLinkCosts(file("A-B,3", "A-B,", "A-,5", "-B,5", "B-C,x", "C-A,2").toString(), graph);
+
+        assertEquals(2, read);
+        assertEquals(2, graph.edgeCount());
+        assertEquals(3, graph.nodeCount());
+        assertTrue(graph.nodeId("") < 0, "no node with an empty name");
+        assertEquals(3.0, graph.cost[graph.edgeId("A-B")], 0.0);
+        assertEquals(2.0, graph.cost[graph.edgeId("C-A")], 0.0);
+    }
+
+    @Test
+    void weightLinesWithAnEmptyFieldOrBadValueAreSkipped() throws IOException {
+        CompactGraph graph = new CompactGraph();
+        TopologyFiles.readLinkCosts(file("A-B,1", "B-C,1", "C-A,1").toString(), graph);
+        TopologyFiles.readWeights(file("A-B,", "A-,5", "B-C,abc", "C-A,4", "B-C,0").toString(), graph);
+
+        assertEquals(1.0, graph.weight[graph.edgeId("A-B")], 0.0);
+        assertEquals(1.0, graph.weight[graph.edgeId("B-C")], 0.0);
+        assertEquals(4.0, graph.weight[graph.edgeId("C-A")], 0.0);
+    }
+}